@@ -0,0 +1,194 @@
+package com.adaptris.kubernetes.metrics.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Array;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.adaptris.core.interceptor.MessageMetricsStatistics;
+import com.adaptris.core.interceptor.MessageMetricsStatisticsMBean;
+import com.adaptris.core.interceptor.MessageStatistic;
+import com.adaptris.mgmt.kubernetes.metrics.JmxMessageMetricsCollector;
+import com.adaptris.mgmt.kubernetes.metrics.MessageStatisticExtended;
+
+/**
+ * A {@link JmxMessageMetricsCollector} cycle against the platform MBeanServer, with one metrics mbean per workflow.
+ * <p>
+ * The mbeans stand in for {@link MessageMetricsStatistics}, registered under the same class name so the collector picks
+ * them up, and each holds a typical history of timeslices. Reads go through the collector's JMX proxies, so the cost of
+ * going through the MBeanServer is included.
+ * </p>
+ * <p>
+ * A timeslice completes before every invocation, rolling the oldest out as the interceptor does, so an incremental fetch
+ * always has one new timeslice to read rather than nothing after the first cycle.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class JmxMessageMetricsCollectorBenchmark {
+
+  private static final int TIMESLICES = 12;
+
+  private static final long TIMESLICE_MILLIS = 10000;
+
+  @Param({ "10", "1000", "10000" })
+  private int mbeans;
+
+  @Param({ "1", "8" })
+  private int parallelism;
+
+  @Param({ "false", "true" })
+  private boolean incrementalFetch;
+
+  private MBeanServer mbeanServer;
+
+  private List<ObjectName> registered;
+
+  private JmxMessageMetricsCollector collector;
+
+  private volatile List<MessageStatisticExtended> notified;
+
+  /**
+   * Shared by all of the mbeans; replaced, never changed, as each timeslice completes.
+   */
+  private volatile List<MessageStatistic> history;
+
+  @Setup
+  public void setUp() throws Exception {
+    mbeanServer = ManagementFactory.getPlatformMBeanServer();
+    registered = new ArrayList<>(mbeans);
+    // far enough back that every timeslice added during the run has completed
+    history = statistics(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(365));
+    for(int index = 0; index < mbeans; index ++) {
+      ObjectName objectName = new ObjectName("com.adaptris:type=Metrics,adapter=benchmark,channel=channel" + (index / 100)
+          + ",workflow=workflow" + index + ",id=workflow" + index + "-metrics");
+      mbeanServer.registerMBean(new MetricsMBean(() -> history), objectName);
+      registered.add(objectName);
+    }
+
+    collector = new JmxMessageMetricsCollector();
+    collector.setParallelism(parallelism);
+    collector.setIncrementalFetch(incrementalFetch);
+    collector.registerListener(statistics -> notified = statistics);
+    collector.prepare();
+    collector.setInterlokMBeanServer(mbeanServer);
+  }
+
+  /**
+   * Complete another timeslice, so each cycle has the same amount of new data to read.
+   */
+  @Setup(Level.Invocation)
+  public void completeTimeslice() {
+    List<MessageStatistic> current = history;
+    MessageStatistic newest = current.get(current.size() - 1);
+    List<MessageStatistic> next = new ArrayList<>(current.subList(1, current.size()));
+    next.add(timeslice(newest.getEndMillis(), newest.getEndMillis() + TIMESLICE_MILLIS, 10));
+    history = Collections.unmodifiableList(next);
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    collector.prepare();
+    for(ObjectName objectName : registered)
+      mbeanServer.unregisterMBean(objectName);
+  }
+
+  /**
+   * A whole cycle, reading every mbean and notifying the listener; with an incremental fetch, only the new timeslice.
+   */
+  @Benchmark
+  public List<MessageStatisticExtended> run() {
+    collector.run();
+    return notified;
+  }
+
+  /**
+   * A pull, e.g. on a scrape, which always reads the whole history.
+   */
+  @Benchmark
+  public List<MessageStatisticExtended> collectStatistics() {
+    return collector.collectStatistics();
+  }
+
+  private static List<MessageStatistic> statistics(long now) {
+    List<MessageStatistic> statistics = new ArrayList<>(TIMESLICES);
+    for(int index = TIMESLICES - 1; index >= 0; index --)
+      statistics.add(timeslice(now - (index + 1) * TIMESLICE_MILLIS, now - index * TIMESLICE_MILLIS, index + 10));
+    return Collections.unmodifiableList(statistics);
+  }
+
+  private static MessageStatistic timeslice(long startMillis, long endMillis, int messages) {
+    MessageStatistic timeslice = new MessageStatistic();
+    timeslice.setStartMillis(startMillis);
+    timeslice.setEndMillis(endMillis);
+    timeslice.setTotalMessageCount(messages);
+    timeslice.setTotalMessageSize(messages * 1024);
+    return timeslice;
+  }
+
+  /**
+   * Answers the reads the collector makes; the interface is implemented by a proxy so only those need handling.
+   */
+  private static MessageMetricsStatisticsMBean metrics(Supplier<List<MessageStatistic>> history) {
+    return (MessageMetricsStatisticsMBean) Proxy.newProxyInstance(MessageMetricsStatisticsMBean.class.getClassLoader(),
+        new Class<?>[] { MessageMetricsStatisticsMBean.class }, (proxy, method, args) -> {
+          List<MessageStatistic> statistics = history.get();
+          switch(method.getName()) {
+            case "getStatistics":
+              return args == null ? statistics : statistics.subList((Integer) args[0], (Integer) args[1]);
+            case "getNumberOfTimeslices":
+              return statistics.size();
+            case "getStatistic":
+              return statistics.get((Integer) args[0]);
+            case "hashCode":
+              return System.identityHashCode(proxy);
+            case "equals":
+              return proxy == args[0];
+            case "toString":
+              return "MessageMetricsStatistics";
+            default:
+              // the default value for a primitive, otherwise null
+              return method.getReturnType().isPrimitive() && method.getReturnType() != void.class
+                  ? Array.get(Array.newInstance(method.getReturnType(), 1), 0) : null;
+          }
+        });
+  }
+
+  /**
+   * Registered with the class name of the real metrics mbean, which is what the collector looks for.
+   */
+  private static final class MetricsMBean extends StandardMBean {
+
+    private MetricsMBean(Supplier<List<MessageStatistic>> history) {
+      super(metrics(history), MessageMetricsStatisticsMBean.class, false);
+    }
+
+    @Override
+    protected String getClassName(MBeanInfo info) {
+      return MessageMetricsStatistics.class.getName();
+    }
+
+  }
+
+}
@@ -0,0 +1,71 @@
+package com.adaptris.kubernetes.metrics.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.adaptris.core.interceptor.MessageStatistic;
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetrics;
+import com.adaptris.mgmt.kubernetes.metrics.MessageStatisticExtended;
+import com.adaptris.mgmt.kubernetes.metrics.MessagesPerSecondCalculator;
+
+/**
+ * {@link MessagesPerSecondCalculator} over a statistic with a long history of completed timeslices.
+ * <p>
+ * {@link #calculateMessagesPerSecond()} walks the whole history, as on the first cycle for a statistic;
+ * {@link #nothingNew()} is the usual cycle afterwards, which should stop at the newest timeslice.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MessagesPerSecondCalculatorBenchmark {
+
+  private static final long TIMESLICE_MILLIS = 10000;
+
+  @Param({ "12", "1000", "100000" })
+  private int timeslices;
+
+  private MessageStatisticExtended statistic;
+
+  private MessagesPerSecondCalculator warmCalculator;
+
+  private long historySeconds;
+
+  @Setup
+  public void setUp() {
+    statistic = new MessageStatisticExtended();
+    statistic.setStatisticId("workflow-metrics");
+    long firstEndMillis = System.currentTimeMillis() - timeslices * TIMESLICE_MILLIS;
+    for(int index = 0; index < timeslices; index ++) {
+      MessageStatistic timeslice = new MessageStatistic();
+      timeslice.setStartMillis(firstEndMillis + (index - 1) * TIMESLICE_MILLIS);
+      timeslice.setEndMillis(firstEndMillis + index * TIMESLICE_MILLIS);
+      timeslice.setTotalMessageCount(index % 100);
+      timeslice.setTotalMessageErrorCount(index % 7);
+      timeslice.setTotalMessageSize(index % 100 * 1024);
+      statistic.getStatistics().add(timeslice);
+    }
+    historySeconds = timeslices * TIMESLICE_MILLIS / 1000;
+    warmCalculator = new MessagesPerSecondCalculator();
+    warmCalculator.calculate(historySeconds, statistic);
+  }
+
+  @Benchmark
+  public long calculateMessagesPerSecond() {
+    return new MessagesPerSecondCalculator().calculateMessagesPerSecond(historySeconds, statistic);
+  }
+
+  @Benchmark
+  public MessageMetrics nothingNew() {
+    return warmCalculator.calculate(historySeconds, statistic);
+  }
+
+}
@@ -0,0 +1,169 @@
+package com.adaptris.kubernetes.metrics.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.adaptris.core.CoreException;
+import com.adaptris.core.interceptor.MessageStatistic;
+import com.adaptris.kubernetes.metrics.prometheus.MessageMetricsScrapeCollector;
+import com.adaptris.kubernetes.metrics.prometheus.PrometheusMetricsAdapter;
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetricsCollectorImpl;
+import com.adaptris.mgmt.kubernetes.metrics.MessageStatisticExtended;
+import com.adaptris.mgmt.kubernetes.metrics.MessagesPerSecondCalculator;
+
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.exporter.PushGateway;
+import io.prometheus.client.exporter.common.TextFormat;
+
+/**
+ * The Prometheus exposition paths: a push cycle through {@link PrometheusMetricsAdapter#notifyMessageMetrics(List)}, and
+ * a scrape of the {@link MessageMetricsScrapeCollector}, each ending in the text format.
+ * <p>
+ * Nothing goes over the network; the push gateway writes the registry to a reused buffer, as the real one would write it
+ * to the connection. Every operation moves each statistic's timeslice on, so there's always something new to record.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PrometheusExpositionBenchmark {
+
+  private static final long TIMESLICE_MILLIS = 10000;
+
+  @Param({ "10", "1000", "10000" })
+  private int statistics;
+
+  private List<MessageStatisticExtended> workflows;
+
+  private List<MessageStatistic> timeslices;
+
+  private long endMillis;
+
+  private PrometheusMetricsAdapter adapter;
+
+  private BufferPushGateway pushGateway;
+
+  private CollectorRegistry scrapeRegistry;
+
+  private ByteArrayOutputStream scrape;
+
+  @Setup
+  public void setUp() throws Exception {
+    workflows = new ArrayList<>(statistics);
+    timeslices = new ArrayList<>(statistics);
+    // far enough back that every timeslice is complete, however many operations are run
+    endMillis = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(365);
+    for(int index = 0; index < statistics; index ++) {
+      MessageStatisticExtended workflow = new MessageStatisticExtended();
+      workflow.setAdapterId("benchmark");
+      workflow.setChannelId("channel" + index / 100);
+      workflow.setWorkflowId("workflow" + index);
+      workflow.setStatisticId("workflow" + index + "-metrics");
+      MessageStatistic timeslice = new MessageStatistic();
+      timeslice.setTotalMessageCount(index % 100 + 1);
+      timeslice.setTotalMessageErrorCount(index % 3);
+      timeslice.setTotalMessageSize((index % 100 + 1) * 1024);
+      workflow.getStatistics().add(timeslice);
+      workflows.add(workflow);
+      timeslices.add(timeslice);
+    }
+
+    Properties bootstrapProperties = new Properties();
+    // push on the calling thread, so the push is part of the measurement
+    bootstrapProperties.put("prometheusPushQueueSize", "0");
+    pushGateway = new BufferPushGateway();
+    adapter = new PrometheusMetricsAdapter();
+    adapter.setBootstrapProperties(bootstrapProperties);
+    adapter.setPushGateway(pushGateway);
+    adapter.init();
+
+    scrapeRegistry = new CollectorRegistry();
+    new MessageMetricsScrapeCollector(new StaticCollector(workflows), new MessagesPerSecondCalculator(), new HashMap<>(), TIMESLICE_MILLIS / 1000)
+        .register(scrapeRegistry);
+    scrape = new ByteArrayOutputStream(statistics * 1024);
+  }
+
+  /**
+   * Calculate, record into the push registry and write it out in the text format.
+   */
+  @Benchmark
+  public int notifyMessageMetrics() {
+    this.nextTimeslice();
+    adapter.notifyMessageMetrics(workflows);
+    return pushGateway.buffer.size();
+  }
+
+  @Benchmark
+  public int scrape() throws IOException {
+    this.nextTimeslice();
+    scrape.reset();
+    Writer writer = new OutputStreamWriter(scrape, StandardCharsets.UTF_8);
+    TextFormat.write004(writer, scrapeRegistry.metricFamilySamples());
+    writer.flush();
+    return scrape.size();
+  }
+
+  private void nextTimeslice() {
+    endMillis += TIMESLICE_MILLIS;
+    for(MessageStatistic timeslice : timeslices) {
+      timeslice.setStartMillis(endMillis - TIMESLICE_MILLIS);
+      timeslice.setEndMillis(endMillis);
+    }
+  }
+
+  private static final class BufferPushGateway extends PushGateway {
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    private BufferPushGateway() {
+      super("localhost:9091");
+    }
+
+    @Override
+    public void pushAdd(CollectorRegistry registry, String job, Map<String, String> groupingKey) throws IOException {
+      buffer.reset();
+      Writer writer = new OutputStreamWriter(buffer, StandardCharsets.UTF_8);
+      TextFormat.write004(writer, registry.metricFamilySamples());
+      writer.flush();
+    }
+
+  }
+
+  private static final class StaticCollector extends MessageMetricsCollectorImpl {
+
+    private final List<MessageStatisticExtended> statistics;
+
+    private StaticCollector(List<MessageStatisticExtended> statistics) {
+      this.statistics = statistics;
+    }
+
+    @Override
+    public List<MessageStatisticExtended> collectStatistics() {
+      return statistics;
+    }
+
+    @Override
+    public void prepare() throws CoreException {
+    }
+
+  }
+
+}
@@ -0,0 +1,255 @@
+package com.adaptris.kubernetes.metrics.custom;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.adaptris.core.CoreException;
+import com.adaptris.mgmt.kubernetes.metrics.JmxMessageMetricsCollector;
+import com.adaptris.mgmt.kubernetes.metrics.KubernetesMetricsAdapter;
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetrics;
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetricsBus;
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetricsCollector;
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetricsListener;
+import com.adaptris.mgmt.kubernetes.metrics.MessageStatisticExtended;
+import com.adaptris.mgmt.kubernetes.metrics.MessagesPerSecondCalculator;
+import com.adaptris.mgmt.kubernetes.metrics.MetricsCalculator;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Serves the per-workflow message rates straight to the Kubernetes custom and external metrics APIs, so a
+ * HorizontalPodAutoscaler can scale on throughput within one collection interval, without going through Prometheus.
+ * <p>
+ * Enabled by setting the bootstrap or system property {@value #API_PORT_KEY}; see {@link MetricsApiServer} for what is
+ * served. Under the {@link com.adaptris.mgmt.kubernetes.metrics.KubernetesMetricsComponent} the statistics come from the
+ * shared {@link MessageMetricsBus}.
+ * </p>
+ * <p>
+ * Served over HTTPS if {@value #API_KEY_STORE_KEY} names a key store holding the server's key and certificate, opened with
+ * {@value #API_KEY_STORE_PASSWORD_KEY}; otherwise plain HTTP, which the Kubernetes API aggregator will only reach through a
+ * proxy that terminates TLS.
+ * </p>
+ */
+@Slf4j
+public class CustomMetricsApiAdapter implements KubernetesMetricsAdapter, MessageMetricsListener {
+
+  private static final String IMPLEMENTATION_NAME = CustomMetricsApiAdapter.class.getSimpleName();
+
+  private static final String API_PORT_KEY = "kubernetesMetricsApiPort";
+
+  private static final String API_KEY_STORE_KEY = "kubernetesMetricsApiKeyStore";
+
+  private static final String API_KEY_STORE_PASSWORD_KEY = "kubernetesMetricsApiKeyStorePassword";
+
+  private static final String K8S_POD_NAME_ENV = "K8S_POD_NAME";
+
+  private static final String K8S_POD_NAME_DEFAULT = "interlok";
+
+  private static final String K8S_NAMESPACE_ENV = "K8S_NAMESPACE";
+
+  private static final String K8S_NAMESPACE_DEFAULT = "default";
+
+  private static final Integer METRICS_COLLECTOR_INTERVAL_SECONDS_DEFAULT = 10;
+
+  @Getter
+  @Setter
+  private Properties bootstrapProperties;
+
+  @Getter
+  private MessageMetricsCollector messageMetricsCollector;
+
+  @Getter
+  @Setter
+  private MessageMetricsBus messageMetricsBus;
+
+  @Getter
+  @Setter
+  private MetricsCalculator calculator;
+
+  @Getter
+  @Setter
+  private Integer collectorIntervalSeconds;
+
+  @Getter
+  @Setter
+  private Integer apiPort;
+
+  private MetricsApiServer server;
+
+  private SSLContext sslContext;
+
+  private ScheduledExecutorService scheduler;
+
+  /**
+   * The last rates calculated for each statistic, kept until the statistic has new timeslices or goes away.
+   */
+  private final Map<List<String>, WorkflowRate> rates;
+
+  public CustomMetricsApiAdapter() {
+    this.setMessageMetricsCollector(new JmxMessageMetricsCollector());
+    this.setCalculator(new MessagesPerSecondCalculator());
+    this.setBootstrapProperties(new Properties());
+    this.rates = new HashMap<>();
+  }
+
+  public void setMessageMetricsCollector(MessageMetricsCollector messageMetricsCollector) {
+    if(this.messageMetricsCollector != null)
+      this.messageMetricsCollector.deregisterListener(this);
+    this.messageMetricsCollector = messageMetricsCollector;
+    if(messageMetricsCollector != null)
+      messageMetricsCollector.registerListener(this);
+  }
+
+  @Override
+  public void init() throws CoreException {
+    if(this.getApiPort() == null) {
+      String port = this.getConfiguredProperty(API_PORT_KEY);
+      if(!StringUtils.isEmpty(port))
+        this.setApiPort(Integer.valueOf(port.trim()));
+    }
+    if(this.getApiPort() == null) {
+      log.debug("Kubernetes metrics API not served because neither the bootstrap property or system property {} was set.", API_PORT_KEY);
+      return;
+    }
+    // share the collection with the other adapters, rather than reading the statistics again
+    if(this.getMessageMetricsBus() != null)
+      this.setMessageMetricsCollector(this.getMessageMetricsBus());
+    this.getMessageMetricsCollector().prepare();
+    sslContext = this.createSslContext();
+    server = new MetricsApiServer(this.loadProperty(K8S_NAMESPACE_ENV, K8S_NAMESPACE_DEFAULT), this.loadProperty(K8S_POD_NAME_ENV, K8S_POD_NAME_DEFAULT));
+  }
+
+  @Override
+  public void start() throws CoreException {
+    if(server == null)
+      return;
+    try {
+      server.start(new InetSocketAddress(this.getApiPort()), sslContext);
+      log.info("Serving the Kubernetes custom and external metrics APIs over {} on port {}", sslContext == null ? "HTTP" : "HTTPS", server.getPort());
+    } catch (IOException e) {
+      throw new CoreException("Could not start the Kubernetes metrics API on port " + this.getApiPort(), e);
+    }
+    if(this.getMessageMetricsCollector() instanceof MessageMetricsBus)
+      return;
+    scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "Kubernetes Metrics API Gatherer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleAtFixedRate(this.getMessageMetricsCollector(), 0, this.collectorIntervalSeconds(), TimeUnit.SECONDS);
+  }
+
+  @Override
+  public void stop() {
+    if(scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+    if(server != null)
+      server.stop();
+  }
+
+  @Override
+  public void close() {  }
+
+  @Override
+  public String getImplementationName() {
+    return IMPLEMENTATION_NAME;
+  }
+
+  @Override
+  public void notifyMessageMetrics(List<MessageStatisticExtended> statistics) {
+    if(server == null)
+      return;
+    Set<List<String>> keys = new HashSet<>();
+    List<WorkflowRate> current = new ArrayList<>(statistics.size());
+    synchronized (rates) {
+      for(MessageStatisticExtended statistic : statistics) {
+        // the in-flight and metadata statistics have no rates
+        if(statistic.getInFlightCount() != null || statistic.getMetadataCounts() != null)
+          continue;
+        List<String> key = statistic.key();
+        keys.add(key);
+        MessageMetrics metrics = this.getCalculator().calculate(this.collectorIntervalSeconds(), statistic);
+        if(metrics.hasNewData()) {
+          rates.put(key, new WorkflowRate(statistic.getAdapterId(), statistic.getChannelId(), statistic.getWorkflowId(), StringUtils.defaultString(statistic.getStatisticId()),
+              metrics.messagesPerSecond(), metrics.errorsPerSecond()));
+        }
+        WorkflowRate rate = rates.get(key);
+        if(rate != null)
+          current.add(rate);
+      }
+      rates.keySet().retainAll(keys);
+    }
+    this.getCalculator().retainStatistics(statistics);
+    server.update(current, Instant.now());
+  }
+
+  /**
+   * The port the metrics API is served on, once started; -1 if it is not enabled.
+   */
+  public int apiPort() {
+    return server == null ? -1 : server.getPort();
+  }
+
+  /**
+   * How often the statistics arrive; the bus's interval when the collection is shared.
+   */
+  protected int collectorIntervalSeconds() {
+    if(this.getMessageMetricsCollector() instanceof MessageMetricsBus)
+      return ((MessageMetricsBus) this.getMessageMetricsCollector()).getIntervalSeconds();
+    return this.getCollectorIntervalSeconds() == null ? METRICS_COLLECTOR_INTERVAL_SECONDS_DEFAULT : this.getCollectorIntervalSeconds();
+  }
+
+  /**
+   * @return the context for HTTPS, or null if no key store is configured.
+   */
+  private SSLContext createSslContext() throws CoreException {
+    String keyStore = this.getConfiguredProperty(API_KEY_STORE_KEY);
+    if(StringUtils.isEmpty(keyStore))
+      return null;
+    char[] password = StringUtils.defaultString(this.getConfiguredProperty(API_KEY_STORE_PASSWORD_KEY)).toCharArray();
+    try (InputStream in = new FileInputStream(keyStore.trim())) {
+      KeyStore store = KeyStore.getInstance(KeyStore.getDefaultType());
+      store.load(in, password);
+      KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+      keyManagers.init(store, password);
+      SSLContext context = SSLContext.getInstance("TLS");
+      context.init(keyManagers.getKeyManagers(), null, null);
+      return context;
+    } catch (IOException | GeneralSecurityException e) {
+      throw new CoreException("Could not load the Kubernetes metrics API key store " + keyStore, e);
+    }
+  }
+
+  private String getConfiguredProperty(String key) {
+    return StringUtils.defaultIfEmpty(System.getProperty(key), this.getBootstrapProperties().getProperty(key));
+  }
+
+  private String loadProperty(String propertyName, String defaultValue) {
+    return StringUtils.defaultIfEmpty(System.getenv(propertyName), StringUtils.defaultIfEmpty(System.getProperty(propertyName), defaultValue));
+  }
+
+}
@@ -0,0 +1,343 @@
+package com.adaptris.kubernetes.metrics.custom;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.ToDoubleFunction;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Serves the latest {@link WorkflowRate}s in the shape of the Kubernetes custom and external metrics APIs, so a
+ * HorizontalPodAutoscaler can scale on them through an APIService pointing at the pod(s).
+ * <p>
+ * The custom metrics API ({@value #CUSTOM_METRICS_API}) describes this pod, with the rates summed over the workflows that
+ * match the {@code metricLabelSelector}; its {@code labelSelector} selects pods, e.g. the HPA's {@code app=interlok}, and is
+ * ignored since this is the only pod described here. The external metrics API ({@value #EXTERNAL_METRICS_API}) has an item
+ * per workflow matching the {@code labelSelector}. Selectors support {@code key=value}, {@code key==value},
+ * {@code key!=value}, {@code key} and {@code !key}, on the labels {@code adapter}, {@code channel}, {@code workflow},
+ * {@code id}, {@code pod} and {@code namespace}.
+ * </p>
+ * <p>
+ * The Kubernetes API aggregator only talks HTTPS to an APIService, so either start it with an {@link SSLContext} or put it
+ * behind a proxy that terminates TLS.
+ * </p>
+ */
+@Slf4j
+public class MetricsApiServer {
+
+  static final String CUSTOM_METRICS_API = "custom.metrics.k8s.io/v1beta1";
+
+  static final String EXTERNAL_METRICS_API = "external.metrics.k8s.io/v1beta1";
+
+  static final String MESSAGES_PER_SECOND = "interlok_messages_per_second";
+
+  static final String ERRORS_PER_SECOND = "interlok_errors_per_second";
+
+  private static final Map<String, ToDoubleFunction<WorkflowRate>> METRICS = new LinkedHashMap<>();
+  static {
+    METRICS.put(MESSAGES_PER_SECOND, WorkflowRate::getMessagesPerSecond);
+    METRICS.put(ERRORS_PER_SECOND, WorkflowRate::getErrorsPerSecond);
+  }
+
+  private final String namespace;
+
+  private final String podName;
+
+  private volatile Snapshot snapshot;
+
+  private HttpServer server;
+
+  private ExecutorService executor;
+
+  public MetricsApiServer(String namespace, String podName) {
+    this.namespace = namespace;
+    this.podName = podName;
+    this.snapshot = new Snapshot(Collections.emptyList(), Instant.now());
+  }
+
+  /**
+   * Replace the rates served with those from the latest collection cycle.
+   */
+  public void update(List<WorkflowRate> rates, Instant timestamp) {
+    snapshot = new Snapshot(Collections.unmodifiableList(rates), timestamp);
+  }
+
+  public void start(InetSocketAddress address) throws IOException {
+    this.start(address, null);
+  }
+
+  /**
+   * @param sslContext if set, serve HTTPS with it rather than plain HTTP.
+   */
+  public void start(InetSocketAddress address, SSLContext sslContext) throws IOException {
+    if(sslContext != null) {
+      HttpsServer httpsServer = HttpsServer.create(address, 3);
+      httpsServer.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+      server = httpsServer;
+    } else {
+      server = HttpServer.create(address, 3);
+    }
+    server.createContext("/apis/", this::handle);
+    server.createContext("/healthz", exchange -> this.respond(exchange, 200, "{\"status\":\"ok\"}"));
+    executor = Executors.newFixedThreadPool(2, runnable -> {
+      Thread thread = new Thread(runnable, "Kubernetes Metrics API Server");
+      thread.setDaemon(true);
+      return thread;
+    });
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  public int getPort() {
+    return server == null ? -1 : server.getAddress().getPort();
+  }
+
+  public void stop() {
+    if(server != null) {
+      server.stop(0);
+      executor.shutdownNow();
+      server = null;
+    }
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      if(!"GET".equals(exchange.getRequestMethod())) {
+        this.respond(exchange, 405, status(405, "MethodNotAllowed", "Only GET is supported"));
+        return;
+      }
+      String path = StringUtils.removeEnd(exchange.getRequestURI().getPath(), "/");
+      log.trace("Serving Kubernetes metrics API request {}", exchange.getRequestURI());
+      String rawQuery = exchange.getRequestURI().getRawQuery();
+      String response = null;
+      if(path.equals("/apis/" + CUSTOM_METRICS_API))
+        response = resourceList(CUSTOM_METRICS_API, "pods/", "MetricValueList");
+      else if(path.equals("/apis/" + EXTERNAL_METRICS_API))
+        response = resourceList(EXTERNAL_METRICS_API, "", "ExternalMetricValueList");
+      else if(path.startsWith("/apis/" + CUSTOM_METRICS_API + "/"))
+        response = this.customMetric(path, path.substring(("/apis/" + CUSTOM_METRICS_API + "/").length()).split("/"),
+            parseSelector(query(rawQuery, "metricLabelSelector")));
+      else if(path.startsWith("/apis/" + EXTERNAL_METRICS_API + "/"))
+        response = this.externalMetric(path, path.substring(("/apis/" + EXTERNAL_METRICS_API + "/").length()).split("/"),
+            parseSelector(query(rawQuery, "labelSelector")));
+
+      if(response == null)
+        this.respond(exchange, 404, status(404, "NotFound", "No metric at " + path));
+      else
+        this.respond(exchange, 200, response);
+    } catch (IllegalArgumentException e) {
+      this.respond(exchange, 400, status(400, "BadRequest", e.getMessage()));
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * namespaces/{namespace}/pods/{pod or *}/{metric}
+   * @param selector the metric label selector, for the workflows.
+   */
+  private String customMetric(String path, String[] parts, Map<String, String> selector) {
+    if(parts.length != 5 || !parts[0].equals("namespaces") || !parts[1].equals(namespace) || !parts[2].equals("pods"))
+      return null;
+    if(!parts[3].equals("*") && !parts[3].equals(podName))
+      return null;
+    ToDoubleFunction<WorkflowRate> metric = METRICS.get(parts[4]);
+    if(metric == null)
+      return null;
+
+    Snapshot current = snapshot;
+    double value = 0;
+    for(WorkflowRate rate : current.rates) {
+      if(this.matches(rate, selector))
+        value += metric.applyAsDouble(rate);
+    }
+    StringBuilder json = new StringBuilder();
+    json.append("{\"kind\":\"MetricValueList\",\"apiVersion\":").append(quote(CUSTOM_METRICS_API));
+    json.append(",\"metadata\":{\"selfLink\":").append(quote(path)).append("},\"items\":[{");
+    json.append("\"describedObject\":{\"kind\":\"Pod\",\"namespace\":").append(quote(namespace));
+    json.append(",\"name\":").append(quote(podName)).append(",\"apiVersion\":\"/v1\"}");
+    json.append(",\"metricName\":").append(quote(parts[4]));
+    json.append(",\"timestamp\":").append(quote(current.timestamp.toString()));
+    json.append(",\"value\":").append(quote(quantity(value))).append("}]}");
+    return json.toString();
+  }
+
+  /**
+   * namespaces/{namespace}/{metric}
+   */
+  private String externalMetric(String path, String[] parts, Map<String, String> selector) {
+    if(parts.length != 3 || !parts[0].equals("namespaces") || !parts[1].equals(namespace))
+      return null;
+    ToDoubleFunction<WorkflowRate> metric = METRICS.get(parts[2]);
+    if(metric == null)
+      return null;
+
+    Snapshot current = snapshot;
+    StringBuilder json = new StringBuilder();
+    json.append("{\"kind\":\"ExternalMetricValueList\",\"apiVersion\":").append(quote(EXTERNAL_METRICS_API));
+    json.append(",\"metadata\":{\"selfLink\":").append(quote(path)).append("},\"items\":[");
+    boolean first = true;
+    for(WorkflowRate rate : current.rates) {
+      if(!this.matches(rate, selector))
+        continue;
+      if(!first)
+        json.append(',');
+      first = false;
+      json.append("{\"metricName\":").append(quote(parts[2])).append(",\"metricLabels\":{");
+      boolean firstLabel = true;
+      for(Map.Entry<String, String> label : this.labels(rate).entrySet()) {
+        if(!firstLabel)
+          json.append(',');
+        firstLabel = false;
+        json.append(quote(label.getKey())).append(':').append(quote(label.getValue()));
+      }
+      json.append("},\"timestamp\":").append(quote(current.timestamp.toString()));
+      json.append(",\"value\":").append(quote(quantity(metric.applyAsDouble(rate)))).append('}');
+    }
+    json.append("]}");
+    return json.toString();
+  }
+
+  private Map<String, String> labels(WorkflowRate rate) {
+    Map<String, String> labels = new LinkedHashMap<>(rate.getLabels());
+    labels.put("pod", podName);
+    labels.put("namespace", namespace);
+    return labels;
+  }
+
+  private boolean matches(WorkflowRate rate, Map<String, String> selector) {
+    if(selector.isEmpty())
+      return true;
+    Map<String, String> labels = this.labels(rate);
+    for(Map.Entry<String, String> requirement : selector.entrySet()) {
+      String key = requirement.getKey();
+      String value = requirement.getValue();
+      if(key.startsWith("!")) {
+        if(value == null ? labels.containsKey(key.substring(1)) : value.equals(labels.get(key.substring(1))))
+          return false;
+      } else if(value == null ? !labels.containsKey(key) : !value.equals(labels.get(key))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Parse an equality based label selector; a key starting with ! is negated and a null value only checks the key exists.
+   */
+  static Map<String, String> parseSelector(String selector) {
+    Map<String, String> requirements = new LinkedHashMap<>();
+    if(StringUtils.isBlank(selector))
+      return requirements;
+    for(String requirement : selector.split(",")) {
+      String trimmed = requirement.trim();
+      if(trimmed.contains(" in ") || trimmed.contains(" notin ") || trimmed.contains("(") || trimmed.contains("<") || trimmed.contains(">"))
+        throw new IllegalArgumentException("Only equality based label selectors are supported: " + trimmed);
+      if(trimmed.contains("!=")) {
+        requirements.put("!" + StringUtils.substringBefore(trimmed, "!=").trim(), StringUtils.substringAfter(trimmed, "!=").trim());
+      } else if(trimmed.contains("=")) {
+        String key = StringUtils.substringBefore(trimmed, "=").trim();
+        requirements.put(key, StringUtils.removeStart(StringUtils.substringAfter(trimmed, "="), "=").trim());
+      } else if(!trimmed.isEmpty()) {
+        requirements.put(trimmed, null);
+      }
+    }
+    return requirements;
+  }
+
+  private static String query(String rawQuery, String name) {
+    if(rawQuery == null)
+      return null;
+    for(String parameter : rawQuery.split("&")) {
+      if(parameter.startsWith(name + "=")) {
+        try {
+          return URLDecoder.decode(parameter.substring(name.length() + 1), StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+          throw new IllegalArgumentException(e);
+        }
+      }
+    }
+    return null;
+  }
+
+  private static String resourceList(String groupVersion, String prefix, String kind) {
+    StringBuilder json = new StringBuilder();
+    json.append("{\"kind\":\"APIResourceList\",\"apiVersion\":\"v1\",\"groupVersion\":").append(quote(groupVersion)).append(",\"resources\":[");
+    boolean first = true;
+    for(String metric : METRICS.keySet()) {
+      if(!first)
+        json.append(',');
+      first = false;
+      json.append("{\"name\":").append(quote(prefix + metric)).append(",\"singularName\":\"\",\"namespaced\":true,\"kind\":");
+      json.append(quote(kind)).append(",\"verbs\":[\"get\"]}");
+    }
+    json.append("]}");
+    return json.toString();
+  }
+
+  private static String status(int code, String reason, String message) {
+    return "{\"kind\":\"Status\",\"apiVersion\":\"v1\",\"status\":\"Failure\",\"message\":" + quote(message) + ",\"reason\":" + quote(reason) + ",\"code\":" + code + "}";
+  }
+
+  /**
+   * Format a rate as a Kubernetes quantity, in thousandths when it isn't a whole number.
+   */
+  static String quantity(double value) {
+    long milli = Math.round(value * 1000);
+    return milli % 1000 == 0 ? Long.toString(milli / 1000) : milli + "m";
+  }
+
+  static String quote(String value) {
+    StringBuilder quoted = new StringBuilder("\"");
+    for(char c : StringUtils.defaultString(value).toCharArray()) {
+      if(c == '"' || c == '\\')
+        quoted.append('\\').append(c);
+      else if(c < 0x20)
+        quoted.append(String.format("\\u%04x", (int) c));
+      else
+        quoted.append(c);
+    }
+    return quoted.append('"').toString();
+  }
+
+  private void respond(HttpExchange exchange, int code, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(code, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  private static final class Snapshot {
+    private final List<WorkflowRate> rates;
+    private final Instant timestamp;
+
+    private Snapshot(List<WorkflowRate> rates, Instant timestamp) {
+      this.rates = rates;
+      this.timestamp = timestamp.truncatedTo(ChronoUnit.SECONDS);
+    }
+  }
+
+}
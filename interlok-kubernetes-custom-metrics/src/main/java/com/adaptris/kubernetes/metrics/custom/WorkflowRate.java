@@ -0,0 +1,34 @@
+package com.adaptris.kubernetes.metrics.custom;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+
+import lombok.Getter;
+
+/**
+ * The rates calculated for a single statistic in the last collection cycle.
+ */
+public class WorkflowRate {
+
+  @Getter
+  private final Map<String, String> labels;
+
+  @Getter
+  private final double messagesPerSecond;
+
+  @Getter
+  private final double errorsPerSecond;
+
+  public WorkflowRate(String adapterId, String channelId, String workflowId, String statisticId, double messagesPerSecond, double errorsPerSecond) {
+    this.labels = new LinkedHashMap<>();
+    labels.put("adapter", StringUtils.defaultString(adapterId));
+    labels.put("channel", StringUtils.defaultString(channelId));
+    labels.put("workflow", StringUtils.defaultString(workflowId));
+    labels.put("id", StringUtils.defaultString(statisticId));
+    this.messagesPerSecond = messagesPerSecond;
+    this.errorsPerSecond = errorsPerSecond;
+  }
+
+}
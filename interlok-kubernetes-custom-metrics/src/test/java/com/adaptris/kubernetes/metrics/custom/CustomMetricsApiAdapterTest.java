@@ -0,0 +1,240 @@
+package com.adaptris.kubernetes.metrics.custom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.adaptris.core.CoreException;
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetrics;
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetricsCollector;
+import com.adaptris.mgmt.kubernetes.metrics.MessageStatisticExtended;
+import com.adaptris.mgmt.kubernetes.metrics.MetricsCalculator;
+
+public class CustomMetricsApiAdapterTest {
+
+  private CustomMetricsApiAdapter adapter;
+
+  @Mock private MessageMetricsCollector mockCollector;
+
+  @Mock private MetricsCalculator mockCalculator;
+
+  private AutoCloseable closeable;
+
+  private MessageStatisticExtended first;
+
+  private MessageStatisticExtended second;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    closeable = MockitoAnnotations.openMocks(this);
+
+    adapter = new CustomMetricsApiAdapter();
+    adapter.setMessageMetricsCollector(mockCollector);
+    adapter.setCalculator(mockCalculator);
+    adapter.setCollectorIntervalSeconds(3600);
+
+    first = statistic("channel1", "workflow1");
+    second = statistic("channel1", "workflow2");
+    when(mockCalculator.calculate(anyLong(), same(first))).thenReturn(new MessageMetrics(100, 10, 0, 10));
+    when(mockCalculator.calculate(anyLong(), same(second))).thenReturn(new MessageMetrics(15, 0, 0, 10));
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    adapter.stop();
+    adapter.close();
+    closeable.close();
+  }
+
+  @Test
+  public void testNotEnabledWithoutPort() throws Exception {
+    adapter.init();
+    adapter.start();
+
+    assertEquals(-1, adapter.apiPort());
+    verify(mockCollector, never()).prepare();
+  }
+
+  @Test
+  public void testEnabledFromBootstrapProperty() throws Exception {
+    Properties bootstrapProperties = new Properties();
+    bootstrapProperties.put("kubernetesMetricsApiPort", "0");
+    adapter.setBootstrapProperties(bootstrapProperties);
+    adapter.init();
+    adapter.start();
+
+    assertTrue(adapter.apiPort() > 0);
+    assertTrue(this.get("/apis/custom.metrics.k8s.io/v1beta1").contains("\"pods/interlok_messages_per_second\""));
+    assertTrue(this.get("/apis/external.metrics.k8s.io/v1beta1").contains("\"interlok_errors_per_second\""));
+  }
+
+  @Test
+  public void testCustomMetricSumsWorkflows() throws Exception {
+    this.startWith(first, second);
+
+    String body = this.get("/apis/custom.metrics.k8s.io/v1beta1/namespaces/default/pods/*/interlok_messages_per_second");
+    assertTrue(body.contains("\"kind\":\"MetricValueList\""));
+    assertTrue(body.contains("\"name\":\"interlok\""));
+    assertTrue(body.contains("\"value\":\"11500m\""));
+
+    body = this.get("/apis/custom.metrics.k8s.io/v1beta1/namespaces/default/pods/interlok/interlok_messages_per_second?metricLabelSelector=workflow%3Dworkflow1");
+    assertTrue(body.contains("\"value\":\"10\""));
+  }
+
+  @Test
+  public void testCustomMetricIgnoresPodSelector() throws Exception {
+    this.startWith(first, second);
+
+    // the HPA's pod selector is about pod labels, not workflows
+    String body = this.get("/apis/custom.metrics.k8s.io/v1beta1/namespaces/default/pods/*/interlok_messages_per_second?labelSelector=app%3Dinterlok");
+    assertTrue(body.contains("\"value\":\"11500m\""));
+  }
+
+  @Test
+  public void testServesHttpsFromKeyStore(@TempDir File directory) throws Exception {
+    File keytool = new File(System.getProperty("java.home"), "bin/keytool");
+    assumeTrue(keytool.exists());
+    File keyStore = new File(directory, "metrics-api.p12");
+    Process process = new ProcessBuilder(keytool.getAbsolutePath(), "-genkeypair", "-alias", "metrics-api", "-keyalg", "RSA", "-keysize", "2048",
+        "-dname", "CN=localhost", "-validity", "1", "-storetype", "PKCS12", "-keystore", keyStore.getAbsolutePath(), "-storepass", "changeit")
+        .redirectErrorStream(true).start();
+    assertEquals(0, process.waitFor());
+
+    Properties bootstrapProperties = new Properties();
+    bootstrapProperties.put("kubernetesMetricsApiKeyStore", keyStore.getAbsolutePath());
+    bootstrapProperties.put("kubernetesMetricsApiKeyStorePassword", "changeit");
+    adapter.setBootstrapProperties(bootstrapProperties);
+    this.startWith(first);
+
+    HttpsURLConnection connection = (HttpsURLConnection) new URL("https://localhost:" + adapter.apiPort() + "/apis/custom.metrics.k8s.io/v1beta1").openConnection();
+    SSLContext trustAll = SSLContext.getInstance("TLS");
+    trustAll.init(null, new TrustManager[] {new X509TrustManager() {
+      @Override
+      public void checkClientTrusted(X509Certificate[] chain, String authType) {  }
+      @Override
+      public void checkServerTrusted(X509Certificate[] chain, String authType) {  }
+      @Override
+      public X509Certificate[] getAcceptedIssuers() {
+        return new X509Certificate[0];
+      }
+    }}, null);
+    connection.setSSLSocketFactory(trustAll.getSocketFactory());
+    connection.setHostnameVerifier((hostname, session) -> true);
+    assertEquals(200, connection.getResponseCode());
+  }
+
+  @Test
+  public void testInvalidKeyStore(@TempDir File directory) throws Exception {
+    Properties bootstrapProperties = new Properties();
+    bootstrapProperties.put("kubernetesMetricsApiKeyStore", new File(directory, "missing.p12").getAbsolutePath());
+    adapter.setBootstrapProperties(bootstrapProperties);
+    adapter.setApiPort(0);
+
+    assertThrows(CoreException.class, () -> adapter.init());
+  }
+
+  @Test
+  public void testExternalMetricPerWorkflow() throws Exception {
+    this.startWith(first, second);
+
+    String body = this.get("/apis/external.metrics.k8s.io/v1beta1/namespaces/default/interlok_errors_per_second");
+    assertTrue(body.contains("\"kind\":\"ExternalMetricValueList\""));
+    assertTrue(body.contains("\"workflow\":\"workflow1\""));
+    assertTrue(body.contains("\"workflow\":\"workflow2\""));
+    assertTrue(body.contains("\"value\":\"1\""));
+
+    body = this.get("/apis/external.metrics.k8s.io/v1beta1/namespaces/default/interlok_messages_per_second?labelSelector=workflow!%3Dworkflow1");
+    assertFalse(body.contains("\"workflow\":\"workflow1\""));
+    assertTrue(body.contains("\"value\":\"1500m\""));
+  }
+
+  @Test
+  public void testKeepsLastRateUntilNewTimeslices() throws Exception {
+    this.startWith(first);
+    when(mockCalculator.calculate(anyLong(), same(first))).thenReturn(MessageMetrics.NONE);
+    adapter.notifyMessageMetrics(statistics(first));
+
+    assertTrue(this.get("/apis/external.metrics.k8s.io/v1beta1/namespaces/default/interlok_messages_per_second").contains("\"value\":\"10\""));
+
+    adapter.notifyMessageMetrics(new ArrayList<>());
+    assertTrue(this.get("/apis/external.metrics.k8s.io/v1beta1/namespaces/default/interlok_messages_per_second").contains("\"items\":[]"));
+  }
+
+  @Test
+  public void testUnknownMetricNotFound() throws Exception {
+    this.startWith(first);
+
+    assertEquals(404, this.status("/apis/external.metrics.k8s.io/v1beta1/namespaces/default/unknown"));
+    assertEquals(404, this.status("/apis/custom.metrics.k8s.io/v1beta1/namespaces/other/pods/*/interlok_messages_per_second"));
+    assertEquals(400, this.status("/apis/external.metrics.k8s.io/v1beta1/namespaces/default/interlok_messages_per_second?labelSelector=workflow+in+(a)"));
+  }
+
+  private void startWith(MessageStatisticExtended... statistics) throws Exception {
+    adapter.setApiPort(0);
+    adapter.init();
+    adapter.start();
+    adapter.notifyMessageMetrics(statistics(statistics));
+  }
+
+  private String get(String path) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + adapter.apiPort() + path).openConnection();
+    assertEquals(200, connection.getResponseCode());
+    assertEquals("application/json", connection.getContentType());
+    try (InputStream in = connection.getInputStream()) {
+      return IOUtils.toString(in, StandardCharsets.UTF_8);
+    }
+  }
+
+  private int status(String path) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + adapter.apiPort() + path).openConnection();
+    return connection.getResponseCode();
+  }
+
+  private static List<MessageStatisticExtended> statistics(MessageStatisticExtended... statistics) {
+    List<MessageStatisticExtended> list = new ArrayList<>();
+    for(MessageStatisticExtended statistic : statistics)
+      list.add(statistic);
+    return list;
+  }
+
+  private static MessageStatisticExtended statistic(String channelId, String workflowId) {
+    MessageStatisticExtended statistic = new MessageStatisticExtended();
+    statistic.setAdapterId("adapter");
+    statistic.setChannelId(channelId);
+    statistic.setWorkflowId(workflowId);
+    statistic.setStatisticId(workflowId + "-metrics");
+    return statistic;
+  }
+
+}
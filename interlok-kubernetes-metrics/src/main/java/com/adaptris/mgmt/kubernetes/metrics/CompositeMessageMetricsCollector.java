@@ -0,0 +1,48 @@
+package com.adaptris.mgmt.kubernetes.metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.adaptris.core.CoreException;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Runs several {@link MessageMetricsCollector}s as one, so the message, in-flight and metadata metrics reach the listeners in
+ * the same notification.
+ */
+public class CompositeMessageMetricsCollector extends MessageMetricsCollectorImpl {
+
+  @Getter
+  @Setter
+  private List<MessageMetricsCollector> collectors;
+
+  public CompositeMessageMetricsCollector(MessageMetricsCollector... collectors) {
+    this.setCollectors(new ArrayList<>(Arrays.asList(collectors)));
+  }
+
+  @Override
+  public List<MessageStatisticExtended> collectStatistics() {
+    List<MessageStatisticExtended> foundStatistics = new ArrayList<>();
+    for(MessageMetricsCollector collector : this.getCollectors())
+      foundStatistics.addAll(collector.collectStatistics());
+    return foundStatistics;
+  }
+
+  @Override
+  public List<MessageStatisticExtended> collectCycleStatistics() {
+    List<MessageStatisticExtended> foundStatistics = new ArrayList<>();
+    for(MessageMetricsCollector collector : this.getCollectors())
+      foundStatistics.addAll(collector.collectCycleStatistics());
+    return foundStatistics;
+  }
+
+  @Override
+  public void prepare() throws CoreException {
+    for(MessageMetricsCollector collector : this.getCollectors())
+      collector.prepare();
+  }
+
+}
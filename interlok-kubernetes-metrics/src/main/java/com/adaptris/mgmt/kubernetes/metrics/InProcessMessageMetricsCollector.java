@@ -0,0 +1,63 @@
+package com.adaptris.mgmt.kubernetes.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.adaptris.core.CoreException;
+import com.adaptris.core.interceptor.MessageMetricsInterceptor;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * {@link MessageMetricsCollector} that reads the timeslices straight from the {@link MessageMetricsInterceptor} instances of
+ * the running adapters, with no JMX proxies involved.
+ * <p>
+ * Every started {@link InProcessMessageMetricsInterceptor} is found without any further set up, so configure that in place
+ * of the standard interceptor. The {@link KubernetesMetricsComponent} uses this collector when {@code kubernetesMetricsCollector}
+ * is {@code in-process}.
+ * </p>
+ */
+@Slf4j
+public class InProcessMessageMetricsCollector extends MessageMetricsCollectorImpl {
+
+  /**
+   * Only collect from the interceptors of this adapter; by default, every adapter in this JVM.
+   */
+  @Getter
+  @Setter
+  private String adapterId;
+
+  public InProcessMessageMetricsCollector() {
+    super();
+  }
+
+  @Override
+  public List<MessageStatisticExtended> collectStatistics() {
+    List<MessageStatisticExtended> foundStatistics = new ArrayList<MessageStatisticExtended>();
+    for(InProcessMessageMetricsInterceptor interceptor : InProcessMessageMetricsInterceptor.started(this.getAdapterId())) {
+      try {
+        foundStatistics.add(this.createStatistic(interceptor));
+      } catch (Exception ex) {
+        log.warn("Error collecting message metrics from interceptor {}, continuing...", interceptor.getUniqueId(), ex);
+      }
+    }
+    return foundStatistics;
+  }
+
+  private MessageStatisticExtended createStatistic(InProcessMessageMetricsInterceptor interceptor) {
+    MessageStatisticExtended messageStatisticExtended = new MessageStatisticExtended();
+    messageStatisticExtended.setAdapterId(interceptor.adapterId());
+    messageStatisticExtended.setChannelId(interceptor.owningChannel() == null ? null : interceptor.owningChannel().getUniqueId());
+    messageStatisticExtended.setWorkflowId(interceptor.owningWorkflow() == null ? null : interceptor.owningWorkflow().getUniqueId());
+    messageStatisticExtended.setStatisticId(interceptor.getUniqueId());
+    messageStatisticExtended.setStatistics(interceptor.copyStatistics());
+    return messageStatisticExtended;
+  }
+
+  @Override
+  public void prepare() throws CoreException {
+  }
+
+}
@@ -0,0 +1,141 @@
+package com.adaptris.mgmt.kubernetes.metrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import javax.management.ObjectName;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.adaptris.core.Channel;
+import com.adaptris.core.CoreException;
+import com.adaptris.core.Workflow;
+import com.adaptris.core.interceptor.MessageMetricsInterceptor;
+import com.adaptris.core.interceptor.MessageStatistic;
+import com.adaptris.core.util.JmxHelper;
+
+/**
+ * {@link MessageMetricsInterceptor} that the {@link InProcessMessageMetricsCollector} finds for itself.
+ * <p>
+ * Management components only ever see JMX proxies of the running adapters, so configure this in place of the standard
+ * message metrics interceptor and it makes itself known to the collector while it is started, under the adapter its metrics
+ * mbean is registered for.
+ * </p>
+ */
+public class InProcessMessageMetricsInterceptor extends MessageMetricsInterceptor {
+
+  private static final String METRICS_OBJECT_NAME = "com.adaptris:type=Metrics,*";
+
+  /**
+   * The started interceptors by adapter; those whose adapter isn't known yet are kept under an empty id.
+   */
+  private static final Map<String, Set<InProcessMessageMetricsInterceptor>> STARTED = new HashMap<>();
+
+  private transient Channel owningChannel;
+
+  private transient Workflow owningWorkflow;
+
+  private transient String adapterId;
+
+  @Override
+  public void registerParentChannel(Channel channel) throws CoreException {
+    super.registerParentChannel(channel);
+    this.owningChannel = channel;
+  }
+
+  @Override
+  public void registerParentWorkflow(Workflow workflow) throws CoreException {
+    super.registerParentWorkflow(workflow);
+    this.owningWorkflow = workflow;
+  }
+
+  @Override
+  public void start() throws CoreException {
+    super.start();
+    synchronized (STARTED) {
+      adapterId = this.lookupAdapterId();
+      STARTED.computeIfAbsent(StringUtils.defaultString(adapterId), id -> new HashSet<>()).add(this);
+    }
+  }
+
+  @Override
+  public void stop() {
+    synchronized (STARTED) {
+      Set<InProcessMessageMetricsInterceptor> started = STARTED.get(StringUtils.defaultString(adapterId));
+      if(started != null && started.remove(this) && started.isEmpty())
+        STARTED.remove(StringUtils.defaultString(adapterId));
+    }
+    super.stop();
+  }
+
+  Channel owningChannel() {
+    return this.owningChannel;
+  }
+
+  Workflow owningWorkflow() {
+    return this.owningWorkflow;
+  }
+
+  String adapterId() {
+    return this.adapterId;
+  }
+
+  /**
+   * Copies the timeslices without holding any lock the workflow threads might be waiting on; a timeslice added part way
+   * through may be missed until the next copy.
+   */
+  List<MessageStatistic> copyStatistics() {
+    List<MessageStatistic> copy = new ArrayList<>();
+    for(Object timeslice : this.getStats().toArray()) {
+      if(timeslice != null)
+        copy.add((MessageStatistic) timeslice);
+    }
+    return copy;
+  }
+
+  /**
+   * @param adapterId the adapter to find the interceptors of; null for every adapter in this JVM.
+   * @return the interceptors that are currently started.
+   */
+  static Set<InProcessMessageMetricsInterceptor> started(String adapterId) {
+    synchronized (STARTED) {
+      // the metrics mbean may not have been registered when the interceptor started
+      Set<InProcessMessageMetricsInterceptor> unknown = STARTED.remove("");
+      if(unknown != null) {
+        for(InProcessMessageMetricsInterceptor interceptor : unknown) {
+          interceptor.adapterId = interceptor.lookupAdapterId();
+          STARTED.computeIfAbsent(StringUtils.defaultString(interceptor.adapterId), id -> new HashSet<>()).add(interceptor);
+        }
+      }
+      Set<InProcessMessageMetricsInterceptor> started = new HashSet<>();
+      if(adapterId == null)
+        STARTED.values().forEach(started::addAll);
+      else
+        started.addAll(STARTED.getOrDefault(adapterId, new HashSet<>()));
+      return started;
+    }
+  }
+
+  private String lookupAdapterId() {
+    String channelId = owningChannel == null ? null : owningChannel.getUniqueId();
+    String workflowId = owningWorkflow == null ? null : owningWorkflow.getUniqueId();
+    try {
+      for(ObjectName objectName : JmxHelper.findMBeanServer().queryNames(new ObjectName(METRICS_OBJECT_NAME), null)) {
+        if(Objects.equals(objectName.getKeyProperty("id"), this.getUniqueId())
+            && Objects.equals(objectName.getKeyProperty("channel"), channelId)
+            && Objects.equals(objectName.getKeyProperty("workflow"), workflowId)
+            && objectName.getKeyProperty("adapter") != null)
+          return objectName.getKeyProperty("adapter");
+      }
+    } catch (Exception e) {
+      // not registered, or no mbean server; tried again on the next collection
+    }
+    return null;
+  }
+
+}
@@ -0,0 +1,41 @@
+package com.adaptris.mgmt.kubernetes.metrics;
+
+import javax.management.ObjectName;
+
+import com.adaptris.core.interceptor.InFlightWorkflowInterceptor;
+import com.adaptris.core.interceptor.InFlightWorkflowInterceptorMBean;
+
+/**
+ * Collects the number of messages currently in flight from each {@link InFlightWorkflowInterceptor} mbean.
+ * <p>
+ * Unlike the message metrics this is a point in time value, so reacts to a backlog straight away rather than after a
+ * timeslice completes.
+ * </p>
+ */
+public class JmxInFlightMetricsCollector extends JmxMetricsCollectorImpl<InFlightWorkflowInterceptorMBean> {
+
+  private static final String IN_FLIGHT_OBJECT_NAME = "com.adaptris:type=InFlight,*";
+
+  @Override
+  protected String objectNamePattern() {
+    return IN_FLIGHT_OBJECT_NAME;
+  }
+
+  @Override
+  protected String mbeanClassName() {
+    return InFlightWorkflowInterceptor.class.getName();
+  }
+
+  @Override
+  protected Class<InFlightWorkflowInterceptorMBean> mbeanInterface() {
+    return InFlightWorkflowInterceptorMBean.class;
+  }
+
+  @Override
+  protected MessageStatisticExtended readStatistics(ObjectName objectName, InFlightWorkflowInterceptorMBean inFlight) {
+    MessageStatisticExtended messageStatisticExtended = this.createStatistic(objectName);
+    messageStatisticExtended.setInFlightCount(inFlight.messagesInFlightCount());
+    return messageStatisticExtended;
+  }
+
+}
@@ -0,0 +1,247 @@
+package com.adaptris.mgmt.kubernetes.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
+import com.adaptris.core.CoreException;
+import com.adaptris.core.interceptor.MessageMetricsStatistics;
+import com.adaptris.core.interceptor.MessageMetricsStatisticsMBean;
+import com.adaptris.core.interceptor.MessageStatistic;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+@Slf4j
+public class JmxMessageMetricsCollector extends JmxMetricsCollectorImpl<MessageMetricsStatisticsMBean> {
+   
+  private static final String METRICS_OBJECT_NAME = "com.adaptris:type=Metrics,*";
+  
+  private static final long READ_TIMEOUT_MILLIS_DEFAULT = 5000;
+  
+  /**
+   * The number of metrics mbeans to read at the same time; if not set, or 1 or less, they are read one after another on the
+   * collecting thread.
+   */
+  @Getter
+  @Setter
+  private Integer parallelism;
+  
+  /**
+   * How long to wait for all of the metrics mbean reads when reading them in parallel; defaults to 5 seconds.
+   */
+  @Getter
+  @Setter
+  private Long readTimeoutMillis;
+  
+  /**
+   * Only read the timeslices that have not been seen before, rather than the whole history, from each metrics mbean.
+   * <p>
+   * Uses the mbean's slice count and per-index accessors, reading backwards from the newest timeslice until it reaches the
+   * newest completed timeslice returned by the last scheduled collection. Falls back to reading the whole history for any
+   * mbean where that isn't possible. Statistics pulled with {@link #collectStatistics()} always have the whole history.
+   * </p>
+   */
+  @Getter
+  @Setter
+  private Boolean incrementalFetch;
+  
+  private final Map<ObjectName, Long> lastCompletedTimeslices = new ConcurrentHashMap<>();
+  
+  private final Set<ObjectName> fullFetchOnly = ConcurrentHashMap.newKeySet();
+  
+  private ExecutorService readExecutor;
+  
+  @Override
+  protected String objectNamePattern() {
+    return METRICS_OBJECT_NAME;
+  }
+  
+  @Override
+  protected String mbeanClassName() {
+    return MessageMetricsStatistics.class.getName();
+  }
+  
+  @Override
+  protected Class<MessageMetricsStatisticsMBean> mbeanInterface() {
+    return MessageMetricsStatisticsMBean.class;
+  }
+
+  /**
+   * Read every mbean, leaving out any that fail or time out rather than reporting them as empty statistics, which would look
+   * like an idle workflow; with an incremental fetch, only those that made it into the scheduled collection are moved on.
+   */
+  @Override
+  protected void readAll(List<MessageStatisticExtended> foundStatistics, boolean cycle) throws Exception {
+    boolean incremental = cycle && this.incrementalFetch();
+    Map<ObjectName, Read> reads = this.parallelism() > 1 ? this.readInParallel(incremental) : this.readInTurn(incremental);
+    reads.forEach((objectName, read) -> {
+      foundStatistics.add(read.statistic);
+      if(incremental && read.newestCompleted != Long.MIN_VALUE)
+        lastCompletedTimeslices.put(objectName, read.newestCompleted);
+    });
+  }
+
+  private Map<ObjectName, Read> readInTurn(boolean incremental) {
+    Map<ObjectName, Read> reads = new LinkedHashMap<>();
+    this.getMetricsMBeans().forEach((objectName, messageMetricsStats) -> {
+      try {
+        reads.put(objectName, this.read(objectName, messageMetricsStats, incremental));
+      } catch (Exception e) {
+        log.warn("Could not read message metrics from {}, leaving it out of this collection.", objectName, e);
+      }
+    });
+    return reads;
+  }
+
+  private Map<ObjectName, Read> readInParallel(boolean incremental) throws InterruptedException {
+    List<ObjectName> objectNames = new ArrayList<>();
+    List<Callable<Read>> tasks = new ArrayList<>();
+    this.getMetricsMBeans().forEach((objectName, messageMetricsStats) -> {
+      objectNames.add(objectName);
+      tasks.add(() -> this.read(objectName, messageMetricsStats, incremental));
+    });
+    
+    // One deadline for all of the reads, so those queued behind a full pool don't each get the whole timeout.
+    List<Future<Read>> results = this.readExecutor().invokeAll(tasks, this.readTimeoutMillis(), TimeUnit.MILLISECONDS);
+    Map<ObjectName, Read> reads = new LinkedHashMap<>();
+    for(int index = 0; index < results.size(); index ++) {
+      try {
+        reads.put(objectNames.get(index), results.get(index).get());
+      } catch (CancellationException e) {
+        log.warn("Timed out after {}ms reading message metrics from {}, leaving it out of this collection.", this.readTimeoutMillis(), objectNames.get(index));
+      } catch (ExecutionException e) {
+        log.warn("Could not read message metrics from {}, leaving it out of this collection.", objectNames.get(index), e.getCause());
+      }
+    }
+    log.debug("Read {} metrics mbeans in parallel, {} failed.", results.size(), results.size() - reads.size());
+    return reads;
+  }
+  
+  @Override
+  protected MessageStatisticExtended readStatistics(ObjectName objectName, MessageMetricsStatisticsMBean messageMetricsStats) throws CoreException {
+    return this.read(objectName, messageMetricsStats, false).statistic;
+  }
+  
+  private Read read(ObjectName objectName, MessageMetricsStatisticsMBean messageMetricsStats, boolean incremental) throws CoreException {
+    MessageStatisticExtended messageStatisticExtended = this.createStatistic(objectName);
+    long newestCompleted = Long.MIN_VALUE;
+    if(incremental && !fullFetchOnly.contains(objectName))
+      newestCompleted = this.readNewStatistics(objectName, messageMetricsStats, messageStatisticExtended.getStatistics());
+    else
+      messageStatisticExtended.getStatistics().addAll(messageMetricsStats.getStatistics());
+    return new Read(messageStatisticExtended, newestCompleted);
+  }
+  
+  /**
+   * @return the end of the newest completed timeslice read, to carry on from next time; {@link Long#MIN_VALUE} if there isn't one.
+   */
+  private long readNewStatistics(ObjectName objectName, MessageMetricsStatisticsMBean messageMetricsStats, List<MessageStatistic> statistics) throws CoreException {
+    long now = System.currentTimeMillis();
+    Long lastCompleted = lastCompletedTimeslices.get(objectName);
+    long newestCompleted = Long.MIN_VALUE;
+    try {
+      for(int index = messageMetricsStats.getNumberOfTimeslices() - 1; index >= 0; index --) {
+        MessageStatistic messageStatistic = messageMetricsStats.getStatistic(index);
+        if(lastCompleted != null && messageStatistic.getEndMillis() <= lastCompleted)
+          break;
+        statistics.add(messageStatistic);
+        if(messageStatistic.getEndMillis() < now)
+          newestCompleted = Math.max(newestCompleted, messageStatistic.getEndMillis());
+      }
+    } catch (CoreException | RuntimeException e) {
+      // Timeslices rolled over between reads, or the mbean doesn't support reading by index
+      log.trace("Could not read new timeslices by index from {}, reading the whole history instead.", objectName, e);
+      if(!(e instanceof IndexOutOfBoundsException))
+        fullFetchOnly.add(objectName);
+      statistics.clear();
+      statistics.addAll(messageMetricsStats.getStatistics());
+      return Long.MIN_VALUE;
+    }
+    Collections.reverse(statistics);
+    return newestCompleted;
+  }
+  
+  private synchronized ExecutorService readExecutor() {
+    if(readExecutor == null)
+      readExecutor = Executors.newFixedThreadPool(this.parallelism(), readThreadFactory());
+    return readExecutor;
+  }
+  
+  /**
+   * Use virtual threads if the runtime has them (Java 21+), otherwise daemon platform threads.
+   */
+  private static ThreadFactory readThreadFactory() {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "Message Metric Reader-", 0l);
+      return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException e) {
+      return runnable -> {
+        Thread thread = new Thread(runnable, "Message Metric Reader");
+        thread.setDaemon(true);
+        return thread;
+      };
+    }
+  }
+  
+  private int parallelism() {
+    return this.getParallelism() == null ? 1 : this.getParallelism();
+  }
+  
+  private boolean incrementalFetch() {
+    return this.getIncrementalFetch() != null && this.getIncrementalFetch();
+  }
+  
+  private long readTimeoutMillis() {
+    return this.getReadTimeoutMillis() == null ? READ_TIMEOUT_MILLIS_DEFAULT : this.getReadTimeoutMillis();
+  }
+
+  @Override
+  protected void mbeanRemoved(ObjectName objectName) {
+    lastCompletedTimeslices.remove(objectName);
+    fullFetchOnly.remove(objectName);
+  }
+
+  @Override
+  public void prepare() throws CoreException {
+    super.prepare();
+    this.shutdownReadExecutor();
+    lastCompletedTimeslices.clear();
+    fullFetchOnly.clear();
+  }
+
+  private synchronized void shutdownReadExecutor() {
+    if(readExecutor != null) {
+      readExecutor.shutdownNow();
+      readExecutor = null;
+    }
+  }
+
+  private static final class Read {
+    private final MessageStatisticExtended statistic;
+    private final long newestCompleted;
+
+    private Read(MessageStatisticExtended statistic, long newestCompleted) {
+      this.statistic = statistic;
+      this.newestCompleted = newestCompleted;
+    }
+  }
+
+}
@@ -0,0 +1,107 @@
+package com.adaptris.mgmt.kubernetes.metrics;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.ObjectName;
+
+import com.adaptris.core.CoreException;
+import com.adaptris.core.interceptor.MetadataStatistic;
+import com.adaptris.core.interceptor.MetadataStatistics;
+import com.adaptris.core.interceptor.MetadataStatisticsMBean;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Collects the per metadata value counts from each {@link MetadataStatistics} mbean.
+ * <p>
+ * Only timeslices that have completed since the last collection are counted, so the counts can be added straight to a
+ * counter. The first time an mbean is read only its newest completed timeslice is counted. The scheduled collection and the
+ * pulls keep track separately, so a scrape doesn't take counts away from the listeners.
+ * </p>
+ */
+@Slf4j
+public class JmxMetadataMetricsCollector extends JmxMetricsCollectorImpl<MetadataStatisticsMBean> {
+
+  private static final String METRICS_OBJECT_NAME = "com.adaptris:type=Metrics,*";
+
+  private final Map<ObjectName, Long> lastCompletedTimeslices = new ConcurrentHashMap<>();
+
+  private final Map<ObjectName, Long> lastPulledTimeslices = new ConcurrentHashMap<>();
+
+  @Override
+  protected String objectNamePattern() {
+    return METRICS_OBJECT_NAME;
+  }
+
+  @Override
+  protected String mbeanClassName() {
+    return MetadataStatistics.class.getName();
+  }
+
+  @Override
+  protected Class<MetadataStatisticsMBean> mbeanInterface() {
+    return MetadataStatisticsMBean.class;
+  }
+
+  @Override
+  protected void readAll(List<MessageStatisticExtended> foundStatistics, boolean cycle) throws Exception {
+    Map<ObjectName, Long> watermarks = cycle ? lastCompletedTimeslices : lastPulledTimeslices;
+    this.getMetricsMBeans().forEach((objectName, metadataStats) -> {
+      try {
+        foundStatistics.add(this.readStatistics(objectName, metadataStats, watermarks));
+      } catch (Exception e) {
+        log.warn("Could not read metadata metrics from {}, continuing...", objectName, e);
+        foundStatistics.add(this.createStatistic(objectName));
+      }
+    });
+  }
+
+  @Override
+  protected MessageStatisticExtended readStatistics(ObjectName objectName, MetadataStatisticsMBean metadataStats) throws CoreException {
+    return this.readStatistics(objectName, metadataStats, lastPulledTimeslices);
+  }
+
+  private MessageStatisticExtended readStatistics(ObjectName objectName, MetadataStatisticsMBean metadataStats, Map<ObjectName, Long> watermarks) throws CoreException {
+    MessageStatisticExtended messageStatisticExtended = this.createStatistic(objectName);
+    Map<String, Long> metadataCounts = new HashMap<>();
+
+    long now = System.currentTimeMillis();
+    Long lastCompleted = watermarks.get(objectName);
+    long newestCompleted = Long.MIN_VALUE;
+    List<MetadataStatistic> statistics = metadataStats.getStatistics();
+    for(int counter = statistics.size() - 1; counter >= 0; counter --) {
+      MetadataStatistic metadataStatistic = statistics.get(counter);
+      if(metadataStatistic.getEndMillis() >= now) // only handle completed time slices
+        continue;
+      if(lastCompleted != null && metadataStatistic.getEndMillis() <= lastCompleted)
+        break;
+
+      metadataStatistic.getMetadataStatistics().forEach((key, value) -> metadataCounts.merge(key, value.longValue(), Long::sum));
+      newestCompleted = Math.max(newestCompleted, metadataStatistic.getEndMillis());
+      if(lastCompleted == null)
+        break;
+    }
+    if(newestCompleted != Long.MIN_VALUE)
+      watermarks.put(objectName, newestCompleted);
+
+    messageStatisticExtended.setMetadataCounts(metadataCounts);
+    return messageStatisticExtended;
+  }
+
+  @Override
+  protected void mbeanRemoved(ObjectName objectName) {
+    lastCompletedTimeslices.remove(objectName);
+    lastPulledTimeslices.remove(objectName);
+  }
+
+  @Override
+  public void prepare() throws CoreException {
+    super.prepare();
+    lastCompletedTimeslices.clear();
+    lastPulledTimeslices.clear();
+  }
+
+}
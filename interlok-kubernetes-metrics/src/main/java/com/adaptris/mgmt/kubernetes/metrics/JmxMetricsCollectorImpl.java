@@ -0,0 +1,203 @@
+package com.adaptris.mgmt.kubernetes.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.JMX;
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+import javax.management.ObjectInstance;
+import javax.management.ObjectName;
+
+import com.adaptris.core.CoreException;
+import com.adaptris.core.util.JmxHelper;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Base {@link MessageMetricsCollector} for a single type of Interlok mbean.
+ * <p>
+ * Finds the mbeans once, then keeps the proxies up to date from the {@code JMImplementation:type=MBeanServerDelegate}
+ * registration and unregistration notifications, rather than querying the MBeanServer on every collection.
+ * </p>
+ *
+ * @param <T> the mbean interface.
+ */
+@Slf4j
+public abstract class JmxMetricsCollectorImpl<T> extends MessageMetricsCollectorImpl {
+
+  private static final String ADAPTER_PROPERTY = "adapter";
+
+  private static final String CHANNEL_PROPERTY = "channel";
+
+  private static final String WORKFLOW_PROPERTY = "workflow";
+
+  private static final String ID_PROPERTY = "id";
+
+  @Getter
+  @Setter
+  private MBeanServer interlokMBeanServer;
+
+  @Getter
+  @Setter
+  private Map<ObjectName, T> metricsMBeans;
+
+  private MBeanServer listeningMBeanServer;
+
+  private final NotificationListener registrationListener = (notification, handback) -> this.handleRegistration((MBeanServerNotification) notification);
+
+  /**
+   * @return the ObjectName pattern the mbeans are registered under, e.g. {@code com.adaptris:type=Metrics,*}.
+   */
+  protected abstract String objectNamePattern();
+
+  /**
+   * @return the mbean implementation class, to tell apart different mbeans registered under the same pattern.
+   */
+  protected abstract String mbeanClassName();
+
+  protected abstract Class<T> mbeanInterface();
+
+  /**
+   * Read the statistics from a single mbean.
+   */
+  protected abstract MessageStatisticExtended readStatistics(ObjectName objectName, T mbean) throws Exception;
+
+  /**
+   * Called when an mbean is unregistered, so any state held for it can be discarded.
+   */
+  protected void mbeanRemoved(ObjectName objectName) {
+  }
+
+  @Override
+  public List<MessageStatisticExtended> collectStatistics() {
+    return this.collect(false);
+  }
+
+  @Override
+  public List<MessageStatisticExtended> collectCycleStatistics() {
+    return this.collect(true);
+  }
+
+  private List<MessageStatisticExtended> collect(boolean cycle) {
+    List<MessageStatisticExtended> foundStatistics = new ArrayList<MessageStatisticExtended>();
+    try {
+      if(this.getInterlokMBeanServer() == null)
+        this.setInterlokMBeanServer(JmxHelper.findMBeanServer());
+
+      if(this.getMetricsMBeans() == null)
+        this.reloadMBeans();
+
+      this.readAll(foundStatistics, cycle);
+    } catch (Exception ex) {
+      log.warn("Error collecting message metrics from JMX, continuing...", ex);
+    }
+    return foundStatistics;
+  }
+
+  /**
+   * Read every mbean, one after another on the calling thread.
+   * @param cycle true for the scheduled collection, false when the statistics are pulled.
+   */
+  protected void readAll(List<MessageStatisticExtended> foundStatistics, boolean cycle) throws Exception {
+    this.getMetricsMBeans().forEach((objectName, mbean) -> {
+      try {
+        foundStatistics.add(this.readStatistics(objectName, mbean));
+      } catch (Exception e) {
+        log.warn("Could not read message metrics from {}, continuing...", objectName, e);
+        foundStatistics.add(this.createStatistic(objectName));
+      }
+    });
+  }
+
+  protected MessageStatisticExtended createStatistic(ObjectName objectName) {
+    MessageStatisticExtended messageStatisticExtended = new MessageStatisticExtended();
+    messageStatisticExtended.setAdapterId(objectName.getKeyProperty(ADAPTER_PROPERTY));
+    messageStatisticExtended.setChannelId(objectName.getKeyProperty(CHANNEL_PROPERTY));
+    messageStatisticExtended.setWorkflowId(objectName.getKeyProperty(WORKFLOW_PROPERTY));
+    messageStatisticExtended.setStatisticId(objectName.getKeyProperty(ID_PROPERTY));
+    return messageStatisticExtended;
+  }
+
+  private void reloadMBeans() throws Exception {
+    this.setMetricsMBeans(new ConcurrentHashMap<>());
+
+    if(this.getInterlokMBeanServer() == null)
+      this.setInterlokMBeanServer(JmxHelper.findMBeanServer());
+
+    // Listen before we query so nothing registered in between is missed; after this the map is kept
+    // up to date as metrics mbeans come and go, rather than re-querying the MBeanServer.
+    this.listenForRegistrations();
+
+    ObjectName metricsObjectName = new ObjectName(this.objectNamePattern());
+    Set<ObjectInstance> mBeans = this.getInterlokMBeanServer().queryMBeans(metricsObjectName, null);
+    for(ObjectInstance instance : mBeans)
+      this.addMBean(instance);
+  }
+
+  private void addMBean(ObjectInstance instance) {
+    if(instance.getClassName().equals(this.mbeanClassName())) {
+      log.trace("Found and caching metrics mbean: {}", instance.getObjectName().toString());
+      this.getMetricsMBeans().put(instance.getObjectName(), JMX.newMBeanProxy(getInterlokMBeanServer(), instance.getObjectName(), this.mbeanInterface()));
+    }
+  }
+
+  private void listenForRegistrations() throws Exception {
+    ObjectName metricsObjectName = new ObjectName(this.objectNamePattern());
+    NotificationFilter filter = notification -> notification instanceof MBeanServerNotification
+        && metricsObjectName.apply(((MBeanServerNotification) notification).getMBeanName());
+
+    this.getInterlokMBeanServer().addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, registrationListener, filter, null);
+    listeningMBeanServer = this.getInterlokMBeanServer();
+  }
+
+  private void stopListeningForRegistrations() {
+    if(listeningMBeanServer != null) {
+      try {
+        listeningMBeanServer.removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME, registrationListener);
+      } catch (InstanceNotFoundException | ListenerNotFoundException e) {
+        log.trace("Metrics mbean registration listener already removed.");
+      }
+      listeningMBeanServer = null;
+    }
+  }
+
+  private void handleRegistration(MBeanServerNotification notification) {
+    Map<ObjectName, T> metricsMBeans = this.getMetricsMBeans();
+    if(metricsMBeans == null)
+      return;
+
+    ObjectName objectName = notification.getMBeanName();
+    if(MBeanServerNotification.REGISTRATION_NOTIFICATION.equals(notification.getType())) {
+      try {
+        this.addMBean(this.getInterlokMBeanServer().getObjectInstance(objectName));
+      } catch (InstanceNotFoundException e) {
+        log.trace("Metrics mbean {} unregistered before it could be cached.", objectName);
+      }
+    } else if(MBeanServerNotification.UNREGISTRATION_NOTIFICATION.equals(notification.getType())) {
+      this.mbeanRemoved(objectName);
+      if(metricsMBeans.remove(objectName) != null)
+        log.trace("Removed cached metrics mbean: {}", objectName);
+    }
+  }
+
+  @Override
+  public void prepare() throws CoreException {
+    // Incase someone restarts the adapter after adding new mbeans
+    // Let's reset everything
+    this.stopListeningForRegistrations();
+    this.setInterlokMBeanServer(null);
+    this.setMetricsMBeans(null);
+  }
+
+}
@@ -19,5 +19,12 @@ public interface KubernetesMetricsAdapter extends ComponentLifecycle {
    */
   public void setBootstrapProperties(Properties bootstrapProperties);
   
+  /**
+   * Hand the adapter the collection shared by all of the adapters, before it is initialized; adapters that collect message
+   * metrics should use it rather than collecting them again.
+   * @param messageMetricsBus
+   */
+  public default void setMessageMetricsBus(MessageMetricsBus messageMetricsBus) {
+  }
   
 }
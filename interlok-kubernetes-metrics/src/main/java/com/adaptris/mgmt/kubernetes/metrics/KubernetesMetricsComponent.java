@@ -1,7 +1,23 @@
 package com.adaptris.mgmt.kubernetes.metrics;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
 
 import com.adaptris.core.CoreException;
 import com.adaptris.core.management.ManagementComponent;
@@ -12,56 +28,355 @@ import lombok.NonNull;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Finds the {@link KubernetesMetricsAdapter}s with a {@link ServiceLoader} and runs them alongside Interlok.
+ * <p>
+ * Each lifecycle step runs on all of the adapters at once, so one slow adapter doesn't hold up the others or the bootstrap.
+ * An adapter that fails, or takes longer than {@link #getLifecycleTimeoutMillis()}, to initialise or start is left out of
+ * the later steps and taken off the {@link #getMessageMetricsBus()}, but is still stopped and closed with the others, since
+ * it may have got part way or complete late. How long each adapter took to initialise and start is logged and kept in
+ * {@link #getStartupMillis()}.
+ * </p>
+ * <p>
+ * The message metrics are collected once, by the {@link #getMessageMetricsBus()}, and shared by all of the adapters, so how
+ * they are read ({@value #COLLECTOR_KEY}, {@value #COLLECTOR_PARALLELISM_KEY}, {@value #COLLECTOR_READ_TIMEOUT_MILLIS_KEY},
+ * {@value #COLLECTOR_INCREMENTAL_FETCH_KEY}, {@value #ADDITIONAL_COLLECTORS_KEY}) is set here rather than on an adapter. To
+ * export fewer series, statistics can be dropped ({@value #ALLOW_KEY}, {@value #DENY_KEY}), relabelled
+ * ({@value #RELABEL_KEY}), rolled up to the channel or adapter ({@value #ROLLUP_KEY}) and cut down to the busiest
+ * ({@value #TOP_K_KEY}) first, see {@link MessageMetricsAggregator}.
+ * </p>
+ */
 @Slf4j
 public class KubernetesMetricsComponent implements ManagementComponent {
-  
+
+  private static final String LIFECYCLE_TIMEOUT_MILLIS_KEY = "kubernetesMetricsLifecycleTimeoutMillis";
+
+  private static final long LIFECYCLE_TIMEOUT_MILLIS_DEFAULT = 30000;
+
+  private static final String COLLECTOR_INTERVAL_SECONDS_KEY = "kubernetesMetricsCollectorIntervalSeconds";
+
+  private static final String LISTENER_QUEUE_SIZE_KEY = "kubernetesMetricsListenerQueueSize";
+
+  private static final String COLLECTOR_KEY = "kubernetesMetricsCollector";
+
+  private static final String JMX_COLLECTOR = "jmx";
+
+  private static final String IN_PROCESS_COLLECTOR = "in-process";
+
+  private static final String COLLECTOR_PARALLELISM_KEY = "kubernetesMetricsCollectorParallelism";
+
+  private static final String COLLECTOR_READ_TIMEOUT_MILLIS_KEY = "kubernetesMetricsCollectorReadTimeoutMillis";
+
+  private static final String COLLECTOR_INCREMENTAL_FETCH_KEY = "kubernetesMetricsCollectorIncrementalFetch";
+
+  private static final String ADDITIONAL_COLLECTORS_KEY = "kubernetesMetricsAdditionalCollectors";
+
+  private static final String IN_FLIGHT_COLLECTOR = "in-flight";
+
+  private static final String METADATA_COLLECTOR = "metadata";
+
+  private static final String ALLOW_KEY = "kubernetesMetricsAllow";
+
+  private static final String DENY_KEY = "kubernetesMetricsDeny";
+
+  private static final String RELABEL_KEY = "kubernetesMetricsRelabel";
+
+  private static final String ROLLUP_KEY = "kubernetesMetricsRollup";
+
+  private static final String TOP_K_KEY = "kubernetesMetricsTopK";
+
+  private static final String TOP_K_CAPACITY_KEY = "kubernetesMetricsTopKCapacity";
+
+  private static final String TOP_K_DECAY_KEY = "kubernetesMetricsTopKDecay";
+
+  @Getter
+  @Setter
+  private Iterable<KubernetesMetricsAdapter> metricsAdapters;
+
+  /**
+   * How long each adapter has for each lifecycle step before the component carries on without it.
+   */
+  @Getter
+  @Setter
+  private Long lifecycleTimeoutMillis;
+
+  /**
+   * How long each adapter took to initialise and start, in milliseconds, by implementation name.
+   */
+  @Getter
+  private final Map<String, Long> startupMillis;
+
   @Getter
   @Setter
-  private ServiceLoader<KubernetesMetricsAdapter> metricsAdapters;
+  private MessageMetricsBus messageMetricsBus;
+
+  private List<KubernetesMetricsAdapter> activeAdapters;
+
+  /**
+   * Adapters that failed or took too long to initialise or start; they may have got part way or still finish, so they are
+   * stopped and closed too.
+   */
+  private final List<KubernetesMetricsAdapter> abandonedAdapters;
+
+  private ExecutorService executor;
 
   public KubernetesMetricsComponent() {
     this.setMetricsAdapters(ServiceLoader.load(KubernetesMetricsAdapter.class));
+    this.startupMillis = new ConcurrentHashMap<>();
+    this.activeAdapters = Collections.emptyList();
+    this.abandonedAdapters = new ArrayList<>();
   }
-  
+
   @Override
   public void init(@NonNull Properties config) throws Exception {
-    this.getMetricsAdapters().forEach(e -> {
-      e.setBootstrapProperties(config);
-      try {
-        LifecycleHelper.init(e);
-        log.info("Found and initializing metrics adapter {}", e.getImplementationName());
-      } catch (CoreException e1) {
-        log.error("Could not initialize metrics adapter {}", e.getImplementationName(), e1);
-      }
+    if(this.getLifecycleTimeoutMillis() == null) {
+      Long timeout = parse(config, LIFECYCLE_TIMEOUT_MILLIS_KEY, Long::valueOf);
+      this.setLifecycleTimeoutMillis(timeout == null ? LIFECYCLE_TIMEOUT_MILLIS_DEFAULT : timeout);
+    }
+    if(this.getMessageMetricsBus() == null) {
+      MessageMetricsBus bus = new MessageMetricsBus(createCollector(config));
+      Integer interval = parse(config, COLLECTOR_INTERVAL_SECONDS_KEY, Integer::valueOf);
+      if(interval != null)
+        bus.setIntervalSeconds(interval);
+      Integer queueSize = parse(config, LISTENER_QUEUE_SIZE_KEY, Integer::valueOf);
+      if(queueSize != null)
+        bus.setQueueSize(queueSize);
+      this.setMessageMetricsBus(bus);
+      MessageMetricsAggregator aggregator = createAggregator(config);
+      aggregator.setIntervalSeconds(this.getMessageMetricsBus().getIntervalSeconds());
+      if(aggregator.isEnabled())
+        this.getMessageMetricsBus().setAggregator(aggregator);
+    }
+    if(executor != null)
+      executor.shutdownNow();
+    executor = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "Kubernetes Metrics Lifecycle");
+      thread.setDaemon(true);
+      return thread;
     });
+    startupMillis.clear();
+    abandonedAdapters.clear();
+
+    List<KubernetesMetricsAdapter> adapters = new ArrayList<>();
+    for(KubernetesMetricsAdapter adapter : this.getMetricsAdapters()) {
+      adapter.setBootstrapProperties(config);
+      adapter.setMessageMetricsBus(this.getMessageMetricsBus());
+      log.info("Found and initializing metrics adapter {}", adapter.getImplementationName());
+      adapters.add(adapter);
+    }
+    activeAdapters = this.runConcurrently("initialize", adapters, LifecycleHelper::init, true);
   }
 
   @Override
   public void start() throws Exception {
-    this.getMetricsAdapters().forEach(e -> {
-      try {
-        LifecycleHelper.start(e);
-        log.info("Starting metrics adapter {}", e.getImplementationName());
-      } catch (CoreException e1) {
-        log.error("Could not start metrics adapter {}", e.getImplementationName(), e1);
-      }
-    });
+    activeAdapters.forEach(e -> log.info("Starting metrics adapter {}", e.getImplementationName()));
+    activeAdapters = this.runConcurrently("start", activeAdapters, LifecycleHelper::start, true);
+    activeAdapters.forEach(e -> log.info("Metrics adapter {} initialized and started in {}ms", e.getImplementationName(), startupMillis.get(e.getImplementationName())));
+    // in case any of them got as far as joining the bus
+    abandonedAdapters.forEach(this::leaveBus);
+    if(this.getMessageMetricsBus().hasListeners())
+      this.getMessageMetricsBus().start();
   }
 
   @Override
   public void stop() throws Exception {
-    this.getMetricsAdapters().forEach(e -> {
-      LifecycleHelper.stop(e);
-      log.info("Stopping metrics adapter {}", e.getImplementationName());
-    });
+    if(this.getMessageMetricsBus() != null)
+      this.getMessageMetricsBus().stop();
+    activeAdapters.forEach(e -> log.info("Stopping metrics adapter {}", e.getImplementationName()));
+    abandonedAdapters.forEach(e -> log.info("Stopping metrics adapter {} that did not start", e.getImplementationName()));
+    this.runConcurrently("stop", this.withAbandoned(activeAdapters), LifecycleHelper::stop, false);
   }
 
   @Override
   public void destroy() throws Exception {
-    this.getMetricsAdapters().forEach(e -> {
-      LifecycleHelper.close(e);
-      log.info("Destroying metrics adapter {}", e.getImplementationName());
-    });
+    activeAdapters.forEach(e -> log.info("Destroying metrics adapter {}", e.getImplementationName()));
+    abandonedAdapters.forEach(e -> log.info("Destroying metrics adapter {} that did not start", e.getImplementationName()));
+    this.runConcurrently("destroy", this.withAbandoned(activeAdapters), LifecycleHelper::close, false);
+    activeAdapters = Collections.emptyList();
+    abandonedAdapters.clear();
+    if(executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  private List<KubernetesMetricsAdapter> withAbandoned(List<KubernetesMetricsAdapter> adapters) {
+    List<KubernetesMetricsAdapter> all = new ArrayList<>(adapters);
+    all.addAll(abandonedAdapters);
+    return all;
+  }
+
+  private void abandon(KubernetesMetricsAdapter adapter) {
+    abandonedAdapters.add(adapter);
+    this.leaveBus(adapter);
+  }
+
+  private void leaveBus(KubernetesMetricsAdapter adapter) {
+    if(adapter instanceof MessageMetricsListener && this.getMessageMetricsBus() != null)
+      this.getMessageMetricsBus().deregisterListener((MessageMetricsListener) adapter);
+  }
+
+  /**
+   * Run the step on all of the adapters at once, waiting up to the timeout for each.
+   * @return the adapters that completed the step; those that failed or timed out in a timed step are kept aside to be stopped
+   *         later.
+   */
+  private List<KubernetesMetricsAdapter> runConcurrently(String step, List<KubernetesMetricsAdapter> adapters, LifecycleStep action, boolean timed) {
+    Map<KubernetesMetricsAdapter, Future<Long>> futures = new LinkedHashMap<>();
+    for(KubernetesMetricsAdapter adapter : adapters) {
+      futures.put(adapter, executor.submit(() -> {
+        long start = System.nanoTime();
+        action.apply(adapter);
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      }));
+    }
+
+    // they all started together, so a shared deadline gives each adapter the full timeout
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.getLifecycleTimeoutMillis());
+    List<KubernetesMetricsAdapter> completed = new ArrayList<>();
+    for(Map.Entry<KubernetesMetricsAdapter, Future<Long>> future : futures.entrySet()) {
+      String name = future.getKey().getImplementationName();
+      try {
+        long millis = future.getValue().get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+        if(timed)
+          startupMillis.merge(name, millis, Long::sum);
+        log.debug("Metrics adapter {} completed {} in {}ms", name, step, millis);
+        completed.add(future.getKey());
+      } catch (TimeoutException e) {
+        future.getValue().cancel(true);
+        if(timed)
+          this.abandon(future.getKey());
+        log.error("Metrics adapter {} did not {} within {}ms, carrying on without it", name, step, this.getLifecycleTimeoutMillis());
+      } catch (ExecutionException e) {
+        if(timed)
+          this.abandon(future.getKey());
+        log.error("Could not {} metrics adapter {}", step, name, e.getCause());
+      } catch (InterruptedException e) {
+        future.getValue().cancel(true);
+        Thread.currentThread().interrupt();
+        log.error("Interrupted waiting for metrics adapter {} to {}", name, step);
+      }
+    }
+    return completed;
+  }
+
+  /**
+   * The JMX message metrics collector, or the in-process one, with the in-flight and/or metadata metrics alongside if
+   * listed, e.g. {@code in-flight,metadata}.
+   */
+  private static MessageMetricsCollector createCollector(Properties config) throws CoreException {
+    String type = parse(config, COLLECTOR_KEY, KubernetesMetricsComponent::collectorType);
+    MessageMetricsCollector collector = IN_PROCESS_COLLECTOR.equals(type) ? new InProcessMessageMetricsCollector() : createJmxCollector(config);
+
+    String additional = getProperty(config, ADDITIONAL_COLLECTORS_KEY);
+    if(StringUtils.isBlank(additional))
+      return collector;
+    CompositeMessageMetricsCollector composite = new CompositeMessageMetricsCollector(collector);
+    for(String name : StringUtils.split(additional, ",")) {
+      if(IN_FLIGHT_COLLECTOR.equalsIgnoreCase(name.trim()))
+        composite.getCollectors().add(new JmxInFlightMetricsCollector());
+      else if(METADATA_COLLECTOR.equalsIgnoreCase(name.trim()))
+        composite.getCollectors().add(new JmxMetadataMetricsCollector());
+      else if(!StringUtils.isBlank(name))
+        log.warn("Unknown metrics collector '{}' in {}, ignoring.", name.trim(), ADDITIONAL_COLLECTORS_KEY);
+    }
+    return composite;
+  }
+
+  private static JmxMessageMetricsCollector createJmxCollector(Properties config) throws CoreException {
+    JmxMessageMetricsCollector collector = new JmxMessageMetricsCollector();
+    Integer parallelism = parse(config, COLLECTOR_PARALLELISM_KEY, Integer::valueOf);
+    if(parallelism != null)
+      collector.setParallelism(parallelism);
+    Long readTimeout = parse(config, COLLECTOR_READ_TIMEOUT_MILLIS_KEY, Long::valueOf);
+    if(readTimeout != null)
+      collector.setReadTimeoutMillis(readTimeout);
+    String incrementalFetch = getProperty(config, COLLECTOR_INCREMENTAL_FETCH_KEY);
+    if(!StringUtils.isBlank(incrementalFetch))
+      collector.setIncrementalFetch(Boolean.valueOf(incrementalFetch.trim()));
+    return collector;
+  }
+
+  private static String collectorType(String value) {
+    if(JMX_COLLECTOR.equalsIgnoreCase(value))
+      return JMX_COLLECTOR;
+    if(IN_PROCESS_COLLECTOR.equalsIgnoreCase(value))
+      return IN_PROCESS_COLLECTOR;
+    throw new IllegalArgumentException("Expected " + JMX_COLLECTOR + " or " + IN_PROCESS_COLLECTOR);
+  }
+
+  /**
+   * Patterns are separated by whitespace; relabels by {@code ;}, each as {@code label:regex=replacement}, e.g.
+   * {@code workflow:(.*)-[0-9]+=$1}.
+   */
+  private static MessageMetricsAggregator createAggregator(Properties config) throws CoreException {
+    MessageMetricsAggregator aggregator = new MessageMetricsAggregator();
+    List<Pattern> allow = parse(config, ALLOW_KEY, KubernetesMetricsComponent::patterns);
+    if(allow != null)
+      aggregator.getAllowPatterns().addAll(allow);
+    List<Pattern> deny = parse(config, DENY_KEY, KubernetesMetricsComponent::patterns);
+    if(deny != null)
+      aggregator.getDenyPatterns().addAll(deny);
+    List<MessageMetricsAggregator.Relabel> relabels = parse(config, RELABEL_KEY, KubernetesMetricsComponent::relabels);
+    if(relabels != null)
+      aggregator.getRelabels().addAll(relabels);
+    MessageMetricsAggregator.Rollup rollup = parse(config, ROLLUP_KEY, value -> MessageMetricsAggregator.Rollup.valueOf(value.toUpperCase()));
+    if(rollup != null)
+      aggregator.setRollup(rollup);
+    Integer topK = parse(config, TOP_K_KEY, Integer::valueOf);
+    if(topK != null)
+      aggregator.setTopK(topK);
+    Integer topKCapacity = parse(config, TOP_K_CAPACITY_KEY, Integer::valueOf);
+    if(topKCapacity != null)
+      aggregator.setTopKCapacity(topKCapacity);
+    Double topKDecay = parse(config, TOP_K_DECAY_KEY, Double::valueOf);
+    if(topKDecay != null)
+      aggregator.setTopKDecay(topKDecay);
+    return aggregator;
+  }
+
+  private static List<Pattern> patterns(String value) {
+    List<Pattern> patterns = new ArrayList<>();
+    for(String pattern : StringUtils.split(value))
+      patterns.add(Pattern.compile(pattern));
+    return patterns;
   }
-  
+
+  private static List<MessageMetricsAggregator.Relabel> relabels(String value) {
+    List<MessageMetricsAggregator.Relabel> relabels = new ArrayList<>();
+    for(String relabel : StringUtils.split(value, ';')) {
+      if(StringUtils.isBlank(relabel))
+        continue;
+      String label = StringUtils.substringBefore(relabel, ":").trim();
+      String rule = StringUtils.substringAfter(relabel, ":").trim();
+      relabels.add(new MessageMetricsAggregator.Relabel(MessageMetricsAggregator.Label.valueOf(label.toUpperCase()),
+          Pattern.compile(StringUtils.substringBeforeLast(rule, "=")), StringUtils.substringAfterLast(rule, "=")));
+    }
+    return relabels;
+  }
+
+  /**
+   * @return the property, parsed; null if it isn't set.
+   * @throws CoreException naming the property if it can't be parsed.
+   */
+  private static <T> T parse(Properties config, String key, Function<String, T> parser) throws CoreException {
+    String value = getProperty(config, key);
+    if(StringUtils.isBlank(value))
+      return null;
+    try {
+      return parser.apply(value.trim());
+    } catch (IllegalArgumentException e) {
+      throw new CoreException("Invalid " + key + " '" + value + "'", e);
+    }
+  }
+
+  private static String getProperty(Properties config, String key) {
+    return StringUtils.defaultIfEmpty(System.getProperty(key), config.getProperty(key));
+  }
+
+  @FunctionalInterface
+  private interface LifecycleStep {
+    void apply(KubernetesMetricsAdapter adapter) throws CoreException;
+  }
+
 }
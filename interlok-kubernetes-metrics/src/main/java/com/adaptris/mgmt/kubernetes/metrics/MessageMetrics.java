@@ -0,0 +1,88 @@
+package com.adaptris.mgmt.kubernetes.metrics;
+
+import lombok.Getter;
+
+/**
+ * The result of a {@link MetricsCalculator} pass over the new timeslices of a single statistic.
+ */
+public class MessageMetrics {
+
+  /**
+   * Nothing new to report.
+   */
+  public static final MessageMetrics NONE = new MessageMetrics(-1, 0, 0, 0);
+  
+  /**
+   * The number of messages in the new timeslices, or -1 if there is nothing to report.
+   */
+  @Getter
+  private final long messageCount;
+  
+  @Getter
+  private final long errorCount;
+  
+  /**
+   * The total size in bytes of the messages in the new timeslices.
+   */
+  @Getter
+  private final long messageSize;
+  
+  /**
+   * The number of messages in the new timeslices within the period, for the rates; the totals above can cover more if the
+   * calculation is late.
+   */
+  @Getter
+  private final long windowMessageCount;
+  
+  @Getter
+  private final long windowErrorCount;
+  
+  @Getter
+  private final long windowMessageSize;
+  
+  /**
+   * The number of seconds covered by the timeslices in the window counts, used for the per-second rates.
+   */
+  @Getter
+  private final long periodSeconds;
+  
+  public MessageMetrics(long messageCount, long errorCount, long messageSize, long periodSeconds) {
+    this(messageCount, errorCount, messageSize, Math.max(messageCount, 0), errorCount, messageSize, periodSeconds);
+  }
+  
+  public MessageMetrics(long messageCount, long errorCount, long messageSize, long windowMessageCount, long windowErrorCount, long windowMessageSize,
+      long periodSeconds) {
+    this.messageCount = messageCount;
+    this.errorCount = errorCount;
+    this.messageSize = messageSize;
+    this.windowMessageCount = windowMessageCount;
+    this.windowErrorCount = windowErrorCount;
+    this.windowMessageSize = windowMessageSize;
+    this.periodSeconds = periodSeconds;
+  }
+  
+  public boolean hasNewData() {
+    return this.getMessageCount() >= 0;
+  }
+  
+  public double messagesPerSecond() {
+    return this.getPeriodSeconds() > 0 ? (double) this.getWindowMessageCount() / this.getPeriodSeconds() : 0;
+  }
+  
+  public double errorsPerSecond() {
+    return this.getPeriodSeconds() > 0 ? (double) this.getWindowErrorCount() / this.getPeriodSeconds() : 0;
+  }
+  
+  public double errorRate() {
+    return this.getWindowMessageCount() > 0 ? (double) this.getWindowErrorCount() / this.getWindowMessageCount() : 0;
+  }
+  
+  public double bytesPerSecond() {
+    return this.getPeriodSeconds() > 0 ? (double) this.getWindowMessageSize() / this.getPeriodSeconds() : 0;
+  }
+  
+  public double averageMessageSize() {
+    return this.getWindowMessageCount() > 0 ? (double) this.getWindowMessageSize() / this.getWindowMessageCount() : 0;
+  }
+  
+}
@@ -0,0 +1,393 @@
+package com.adaptris.mgmt.kubernetes.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.adaptris.core.interceptor.MessageStatistic;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Cuts down the number of series exported, between the collector and the adapters.
+ * <p>
+ * Statistics are filtered by {@link #getAllowPatterns()} and {@link #getDenyPatterns()}, matched against
+ * {@code <channel>/<workflow>}. The adapter, channel and workflow labels are then rewritten by the {@link #getRelabels()}, and
+ * the workflow (or the channel and workflow) dropped for a {@link #getRollup()}. Statistics left with the same labels are
+ * summed into one, so the totals are kept: the counts of each timeslice, the in-flight counts or the metadata counts.
+ * </p>
+ * <p>
+ * With {@link #getTopK()} set, only the busiest workflows (or channels, for a channel rollup) are passed on individually and
+ * the rest are summed into one {@value #OTHER} series, so the number of series stays the same however many workflows there
+ * are. The busiest are found from each statistic's messages per second, by a {@link SpaceSavingSketch} of
+ * {@link #getTopKCapacity()} counters whose counts decay by {@link #getTopKDecay()} each cycle. Only the scheduled snapshots
+ * count towards the busiest; statistics pulled in between are split by the busiest found from the last snapshot.
+ * </p>
+ * <p>
+ * When a series moves in or out of the busiest, only its timeslices completed after the last snapshot follow it, so the
+ * timeslices already passed on under its old series aren't counted again under the new one, e.g. when a workflow drops into
+ * the other series and later comes back.
+ * </p>
+ */
+public class MessageMetricsAggregator {
+
+  static final String OTHER = "other";
+
+  private static final int TOP_K_CAPACITY_FACTOR = 4;
+
+  private static final double TOP_K_DECAY_DEFAULT = 0.9;
+
+  private static final int INTERVAL_SECONDS_DEFAULT = 10;
+
+  /**
+   * The level the statistics are summed to.
+   */
+  public enum Rollup {
+    WORKFLOW,
+    CHANNEL,
+    ADAPTER
+  }
+
+  /**
+   * If any are set, only statistics that match one of them are kept.
+   */
+  @Getter
+  @Setter
+  private List<Pattern> allowPatterns;
+
+  @Getter
+  @Setter
+  private List<Pattern> denyPatterns;
+
+  @Getter
+  @Setter
+  private List<Relabel> relabels;
+
+  @Getter
+  @Setter
+  private Rollup rollup;
+
+  /**
+   * The number of series passed on individually; 0, the default, passes them all on.
+   */
+  @Getter
+  @Setter
+  private int topK;
+
+  /**
+   * The number of series counted to find the top k; defaults to {@value #TOP_K_CAPACITY_FACTOR} times k.
+   */
+  @Getter
+  @Setter
+  private Integer topKCapacity;
+
+  @Getter
+  @Setter
+  private double topKDecay;
+
+  /**
+   * The period the messages per second are calculated over.
+   */
+  @Getter
+  @Setter
+  private int intervalSeconds;
+
+  @Getter
+  @Setter
+  private MetricsCalculator calculator;
+
+  private SpaceSavingSketch sketch;
+
+  /**
+   * Where each series went at the last snapshot, kept for the pulls until the next one.
+   */
+  private volatile Map<String, Route> routes = Collections.emptyMap();
+
+  public MessageMetricsAggregator() {
+    this.setAllowPatterns(new ArrayList<>());
+    this.setDenyPatterns(new ArrayList<>());
+    this.setRelabels(new ArrayList<>());
+    this.setRollup(Rollup.WORKFLOW);
+    this.setTopKDecay(TOP_K_DECAY_DEFAULT);
+    this.setIntervalSeconds(INTERVAL_SECONDS_DEFAULT);
+    this.setCalculator(new MessagesPerSecondCalculator());
+  }
+
+  public boolean isEnabled() {
+    return !this.getAllowPatterns().isEmpty() || !this.getDenyPatterns().isEmpty() || !this.getRelabels().isEmpty() || this.getRollup() != Rollup.WORKFLOW
+        || this.isTopKEnabled();
+  }
+
+  /**
+   * Aggregate a scheduled snapshot, updating the busiest series.
+   */
+  public List<MessageStatisticExtended> aggregate(List<MessageStatisticExtended> statistics) {
+    return this.aggregate(statistics, true);
+  }
+
+  /**
+   * Aggregate statistics pulled between the scheduled snapshots, e.g. on a scrape, keeping the busiest series of the last
+   * snapshot.
+   */
+  public List<MessageStatisticExtended> aggregatePulled(List<MessageStatisticExtended> statistics) {
+    return this.aggregate(statistics, false);
+  }
+
+  private List<MessageStatisticExtended> aggregate(List<MessageStatisticExtended> statistics, boolean snapshot) {
+    Map<String, List<MessageStatisticExtended>> groups = new LinkedHashMap<>();
+    Map<String, String[]> groupLabels = new LinkedHashMap<>();
+    for(MessageStatisticExtended statistic : statistics) {
+      String[] original = { StringUtils.defaultString(statistic.getAdapterId()), StringUtils.defaultString(statistic.getChannelId()), StringUtils.defaultString(statistic.getWorkflowId()) };
+      if(!this.isAllowed(original[1] + "/" + original[2]))
+        continue;
+      String[] labels = this.relabel(original);
+      String key = kind(statistic) + ":" + labels[0] + "/" + labels[1] + "/" + labels[2];
+      groups.computeIfAbsent(key, k -> new ArrayList<>()).add(statistic);
+      // a statistic whose labels are unchanged, and isn't merged with another, is passed on as is
+      groupLabels.put(key, groupLabels.containsKey(key) || !equalLabels(original, labels) ? labels : null);
+    }
+
+    List<MessageStatisticExtended> aggregated = new ArrayList<>(groups.size());
+    for(Map.Entry<String, List<MessageStatisticExtended>> group : groups.entrySet()) {
+      String[] labels = groupLabels.get(group.getKey());
+      if(labels == null)
+        aggregated.add(group.getValue().get(0));
+      else
+        aggregated.add(merge(group.getKey(), labels, group.getValue()));
+    }
+    return this.isTopKEnabled() ? this.topK(aggregated, snapshot) : aggregated;
+  }
+
+  private boolean isTopKEnabled() {
+    // there's only the one adapter, so nothing to pick from
+    return this.getTopK() > 0 && this.getRollup() != Rollup.ADAPTER;
+  }
+
+  /**
+   * Pass on the statistics of the busiest series and sum the rest, by kind, into the other series.
+   */
+  private List<MessageStatisticExtended> topK(List<MessageStatisticExtended> statistics, boolean snapshot) {
+    Map<String, Route> current = snapshot ? this.updateBusiest(statistics) : routes;
+    List<MessageStatisticExtended> kept = new ArrayList<>();
+    Map<String, List<MessageStatisticExtended>> others = new LinkedHashMap<>();
+    for(MessageStatisticExtended statistic : statistics) {
+      Route route = current.get(seriesKey(statistic));
+      MessageStatisticExtended routed = route == null ? statistic : route.trim(statistic);
+      if(route != null && route.busiest)
+        kept.add(routed);
+      else
+        others.computeIfAbsent(kind(statistic) + ":" + OTHER, k -> new ArrayList<>()).add(routed);
+    }
+    for(Map.Entry<String, List<MessageStatisticExtended>> other : others.entrySet()) {
+      String adapterId = StringUtils.defaultString(other.getValue().get(0).getAdapterId());
+      String[] labels = this.getRollup() == Rollup.CHANNEL ? new String[] { adapterId, OTHER, "" } : new String[] { adapterId, "", OTHER };
+      kept.add(merge(other.getKey(), labels, other.getValue()));
+    }
+    return kept;
+  }
+
+  /**
+   * Count the snapshot's messages per second towards the busiest series, and route each series for this snapshot and the
+   * pulls until the next one.
+   */
+  private synchronized Map<String, Route> updateBusiest(List<MessageStatisticExtended> statistics) {
+    long now = System.currentTimeMillis();
+    SpaceSavingSketch current = this.sketch();
+    List<MessageStatisticExtended> messageStatistics = new ArrayList<>();
+    boolean newData = false;
+    for(MessageStatisticExtended statistic : statistics) {
+      if(statistic.getInFlightCount() != null || statistic.getMetadataCounts() != null)
+        continue;
+      messageStatistics.add(statistic);
+      MessageMetrics metrics = this.getCalculator().calculate(this.getIntervalSeconds(), statistic);
+      if(metrics.hasNewData()) {
+        current.offer(seriesKey(statistic), metrics.messagesPerSecond());
+        newData = true;
+      }
+    }
+    this.getCalculator().retainStatistics(messageStatistics);
+    Set<String> busiest = new HashSet<>(current.top(this.getTopK()));
+    if(newData)
+      current.decay(this.getTopKDecay());
+
+    Map<String, Route> previous = routes;
+    Map<String, Route> next = new HashMap<>();
+    for(MessageStatisticExtended statistic : statistics) {
+      String key = seriesKey(statistic);
+      Route route = next.get(key);
+      if(route == null) {
+        route = new Route(busiest.contains(key), previous.get(key));
+        next.put(key, route);
+      }
+      route.completed(statistic, now);
+    }
+    routes = Collections.unmodifiableMap(next);
+    return routes;
+  }
+
+  private synchronized SpaceSavingSketch sketch() {
+    int capacity = this.getTopKCapacity() == null ? this.getTopK() * TOP_K_CAPACITY_FACTOR : Math.max(this.getTopKCapacity(), this.getTopK());
+    if(sketch == null || sketch.getCapacity() != capacity)
+      sketch = new SpaceSavingSketch(capacity);
+    return sketch;
+  }
+
+  private static String seriesKey(MessageStatisticExtended statistic) {
+    return StringUtils.defaultString(statistic.getAdapterId()) + "/" + StringUtils.defaultString(statistic.getChannelId()) + "/"
+        + StringUtils.defaultString(statistic.getWorkflowId());
+  }
+
+  /**
+   * Where a series goes, and the newest timeslice it had completed at the snapshot.
+   */
+  private static final class Route {
+    private final boolean busiest;
+    // the timeslices up to here went to the series' old route
+    private final long sinceMillis;
+    private long completedMillis = Long.MIN_VALUE;
+
+    private Route(boolean busiest, Route previous) {
+      this.busiest = busiest;
+      if(previous == null) {
+        sinceMillis = Long.MIN_VALUE;
+      } else {
+        sinceMillis = previous.busiest == busiest ? previous.sinceMillis : previous.completedMillis;
+        completedMillis = previous.completedMillis;
+      }
+    }
+
+    private void completed(MessageStatisticExtended statistic, long now) {
+      for(MessageStatistic timeslice : statistic.getStatistics()) {
+        if(timeslice.getEndMillis() < now)
+          completedMillis = Math.max(completedMillis, timeslice.getEndMillis());
+      }
+    }
+
+    private MessageStatisticExtended trim(MessageStatisticExtended statistic) {
+      if(sinceMillis == Long.MIN_VALUE || statistic.getInFlightCount() != null || statistic.getMetadataCounts() != null)
+        return statistic;
+      MessageStatisticExtended trimmed = new MessageStatisticExtended();
+      trimmed.setAdapterId(statistic.getAdapterId());
+      trimmed.setChannelId(statistic.getChannelId());
+      trimmed.setWorkflowId(statistic.getWorkflowId());
+      trimmed.setStatisticId(statistic.getStatisticId());
+      for(MessageStatistic timeslice : statistic.getStatistics()) {
+        if(timeslice.getEndMillis() > sinceMillis)
+          trimmed.getStatistics().add(timeslice);
+      }
+      return trimmed;
+    }
+  }
+
+  private boolean isAllowed(String subject) {
+    if(!this.getAllowPatterns().isEmpty() && this.getAllowPatterns().stream().noneMatch(pattern -> pattern.matcher(subject).matches()))
+      return false;
+    return this.getDenyPatterns().stream().noneMatch(pattern -> pattern.matcher(subject).matches());
+  }
+
+  private String[] relabel(String[] original) {
+    String[] labels = original.clone();
+    for(Relabel relabel : this.getRelabels()) {
+      int index = relabel.getLabel().ordinal();
+      Matcher matcher = relabel.getPattern().matcher(labels[index]);
+      if(matcher.matches())
+        labels[index] = matcher.replaceFirst(relabel.getReplacement());
+    }
+    if(this.getRollup() != Rollup.WORKFLOW)
+      labels[2] = "";
+    if(this.getRollup() == Rollup.ADAPTER)
+      labels[1] = "";
+    return labels;
+  }
+
+  private static MessageStatisticExtended merge(String key, String[] labels, List<MessageStatisticExtended> statistics) {
+    MessageStatisticExtended merged = new MessageStatisticExtended();
+    merged.setAdapterId(labels[0]);
+    merged.setChannelId(labels[1]);
+    merged.setWorkflowId(labels[2]);
+    merged.setStatisticId(key);
+
+    Map<Long, MessageStatistic> timeslices = new TreeMap<>();
+    for(MessageStatisticExtended statistic : statistics) {
+      if(statistic.getInFlightCount() != null) {
+        merged.setInFlightCount((merged.getInFlightCount() == null ? 0 : merged.getInFlightCount()) + statistic.getInFlightCount());
+      } else if(statistic.getMetadataCounts() != null) {
+        if(merged.getMetadataCounts() == null)
+          merged.setMetadataCounts(new LinkedHashMap<>());
+        statistic.getMetadataCounts().forEach((value, count) -> merged.getMetadataCounts().merge(value, count, Long::sum));
+      } else {
+        for(MessageStatistic timeslice : statistic.getStatistics())
+          add(timeslices.computeIfAbsent(timeslice.getEndMillis(), endMillis -> newTimeslice(timeslice)), timeslice);
+      }
+    }
+    merged.getStatistics().addAll(timeslices.values());
+    return merged;
+  }
+
+  private static MessageStatistic newTimeslice(MessageStatistic like) {
+    MessageStatistic timeslice = new MessageStatistic();
+    timeslice.setStartMillis(like.getStartMillis());
+    timeslice.setEndMillis(like.getEndMillis());
+    return timeslice;
+  }
+
+  private static void add(MessageStatistic total, MessageStatistic timeslice) {
+    total.setTotalMessageCount(total.getTotalMessageCount() + timeslice.getTotalMessageCount());
+    total.setTotalMessageErrorCount(total.getTotalMessageErrorCount() + timeslice.getTotalMessageErrorCount());
+    total.setTotalMessageSize(total.getTotalMessageSize() + timeslice.getTotalMessageSize());
+  }
+
+  private static String kind(MessageStatisticExtended statistic) {
+    if(statistic.getInFlightCount() != null)
+      return "in-flight";
+    return statistic.getMetadataCounts() != null ? "metadata" : "messages";
+  }
+
+  private static boolean equalLabels(String[] original, String[] labels) {
+    return original[0].equals(labels[0]) && original[1].equals(labels[1]) && original[2].equals(labels[2]);
+  }
+
+  /**
+   * The labels that can be rewritten.
+   */
+  public enum Label {
+    ADAPTER,
+    CHANNEL,
+    WORKFLOW
+  }
+
+  /**
+   * Rewrite a label whose whole value matches the pattern; the replacement can refer to the pattern's groups, e.g.
+   * {@code $1}, and an empty replacement strips the label.
+   */
+  public static class Relabel {
+
+    @Getter
+    private final Label label;
+
+    @Getter
+    private final Pattern pattern;
+
+    @Getter
+    private final String replacement;
+
+    public Relabel(Label label, Pattern pattern, String replacement) {
+      this.label = label;
+      this.pattern = pattern;
+      this.replacement = replacement;
+    }
+
+  }
+
+}
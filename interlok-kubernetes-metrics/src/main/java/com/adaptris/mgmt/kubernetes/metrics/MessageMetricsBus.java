@@ -0,0 +1,322 @@
+package com.adaptris.mgmt.kubernetes.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.adaptris.core.CoreException;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * One collection of the message metrics, shared by all of the metrics adapters.
+ * <p>
+ * The {@link #getCollector()} is run every {@link #getIntervalSeconds()}, lined up with the interceptors' timeslices by a
+ * {@link TimesliceSchedule}, and each snapshot of the statistics is handed to every listener through its own queue of up to
+ * {@link #getQueueSize()} snapshots, on its own thread. A listener that falls behind has its oldest snapshots dropped, so one
+ * slow backend can't hold up the collection or the other backends. Each snapshot comes with a {@link MessageMetricsCycle}
+ * saying when the collection started and how long it took.
+ * </p>
+ * <p>
+ * Adapters use the bus as their {@link MessageMetricsCollector}, so statistics pulled with {@link #collectStatistics()}, e.g.
+ * on a scrape, come from the shared collector too. Any {@link #getAggregator()} is applied to both.
+ * </p>
+ */
+@Slf4j
+public class MessageMetricsBus implements MessageMetricsCollector, MessageMetricsListener {
+
+  private static final int INTERVAL_SECONDS_DEFAULT = 10;
+
+  private static final int QUEUE_SIZE_DEFAULT = 2;
+
+  @Getter
+  private MessageMetricsCollector collector;
+
+  @Getter
+  @Setter
+  private int intervalSeconds;
+
+  /**
+   * The number of snapshots each listener can fall behind by before the oldest is dropped.
+   */
+  @Getter
+  @Setter
+  private int queueSize;
+
+  /**
+   * Applied to every snapshot before the listeners see it, if set.
+   */
+  @Getter
+  @Setter
+  private MessageMetricsAggregator aggregator;
+
+  private final List<Subscription> subscriptions;
+
+  private final TimesliceSchedule timesliceSchedule;
+
+  private final AtomicBoolean prepared;
+
+  private final ThreadMXBean threadMXBean;
+
+  private ScheduledExecutorService scheduler;
+
+  private volatile long cycleStartNanos;
+
+  private volatile long cycleStartCpuNanos;
+
+  public MessageMetricsBus() {
+    this(new JmxMessageMetricsCollector());
+  }
+
+  public MessageMetricsBus(MessageMetricsCollector collector) {
+    this.subscriptions = new CopyOnWriteArrayList<>();
+    this.timesliceSchedule = new TimesliceSchedule();
+    this.prepared = new AtomicBoolean();
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    this.threadMXBean = threads.isCurrentThreadCpuTimeSupported() ? threads : null;
+    this.setIntervalSeconds(INTERVAL_SECONDS_DEFAULT);
+    this.setQueueSize(QUEUE_SIZE_DEFAULT);
+    this.setCollector(collector);
+  }
+
+  /**
+   * Set the collector the bus shares, e.g. a {@link CompositeMessageMetricsCollector} to collect more than the message
+   * metrics.
+   */
+  public void setCollector(MessageMetricsCollector collector) {
+    if(this.collector != null)
+      this.collector.deregisterListener(this);
+    this.collector = collector;
+    if(collector != null)
+      collector.registerListener(this);
+  }
+
+  /**
+   * Prepare the collector once per start, however many adapters share it.
+   */
+  @Override
+  public void prepare() throws CoreException {
+    if(prepared.compareAndSet(false, true))
+      this.getCollector().prepare();
+  }
+
+  /**
+   * Run the collector, which hands the statistics back through {@link #notifyMessageMetrics(List)}, timing the collection.
+   */
+  @Override
+  public void run() {
+    cycleStartCpuNanos = this.currentThreadCpuNanos();
+    cycleStartNanos = System.nanoTime();
+    try {
+      this.getCollector().run();
+    } finally {
+      cycleStartNanos = 0;
+    }
+  }
+
+  @Override
+  public List<MessageStatisticExtended> collectStatistics() {
+    MessageMetricsAggregator current = this.getAggregator();
+    List<MessageStatisticExtended> statistics = this.getCollector().collectStatistics();
+    // a pull doesn't count towards the busiest series, only the scheduled snapshots do
+    return current == null ? statistics : current.aggregatePulled(statistics);
+  }
+
+  @Override
+  public void registerListener(MessageMetricsListener listener) {
+    Subscription subscription = new Subscription(listener, this.getQueueSize());
+    subscriptions.add(subscription);
+    if(scheduler != null)
+      subscription.start();
+  }
+
+  @Override
+  public void deregisterListener(MessageMetricsListener listener) {
+    for(Subscription subscription : subscriptions) {
+      if(subscription.listener == listener) {
+        subscriptions.remove(subscription);
+        subscription.stop();
+      }
+    }
+  }
+
+  /**
+   * Queue the snapshot for every listener.
+   */
+  @Override
+  public void notifyListeners(List<MessageStatisticExtended> stats) {
+    this.notifyListeners(stats, new MessageMetricsCycle(System.nanoTime(), 0, -1));
+  }
+
+  private void notifyListeners(List<MessageStatisticExtended> stats, MessageMetricsCycle cycle) {
+    Snapshot snapshot = new Snapshot(Collections.unmodifiableList(new ArrayList<>(stats)), cycle);
+    for(Subscription subscription : subscriptions)
+      subscription.offer(snapshot);
+  }
+
+  @Override
+  public void notifyMessageMetrics(List<MessageStatisticExtended> statistics) {
+    long startNanos = cycleStartNanos;
+    long startCpuNanos = cycleStartCpuNanos;
+    timesliceSchedule.observe(statistics);
+    List<MessageStatisticExtended> aggregated = this.aggregate(statistics);
+    if(startNanos == 0) {
+      // not one of our cycles
+      this.notifyListeners(aggregated);
+      return;
+    }
+    long endCpuNanos = this.currentThreadCpuNanos();
+    long cpuNanos = startCpuNanos >= 0 && endCpuNanos >= startCpuNanos ? endCpuNanos - startCpuNanos : -1;
+    this.notifyListeners(aggregated, new MessageMetricsCycle(startNanos, System.nanoTime() - startNanos, cpuNanos));
+  }
+
+  private long currentThreadCpuNanos() {
+    return threadMXBean == null ? -1 : threadMXBean.getCurrentThreadCpuTime();
+  }
+
+  private List<MessageStatisticExtended> aggregate(List<MessageStatisticExtended> statistics) {
+    MessageMetricsAggregator current = this.getAggregator();
+    return current == null ? statistics : current.aggregate(statistics);
+  }
+
+  public boolean hasListeners() {
+    return !subscriptions.isEmpty();
+  }
+
+  /**
+   * @return the number of snapshots dropped because the listener fell behind.
+   */
+  public long droppedSnapshots(MessageMetricsListener listener) {
+    for(Subscription subscription : subscriptions) {
+      if(subscription.listener == listener)
+        return subscription.dropped.get();
+    }
+    return 0;
+  }
+
+  public synchronized void start() {
+    if(scheduler != null)
+      return;
+    subscriptions.forEach(Subscription::start);
+    scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "Message Metrics Gatherer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.schedule(this::runScheduledCycle, this.getIntervalSeconds(), TimeUnit.SECONDS);
+  }
+
+  public synchronized void stop() {
+    if(scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+    subscriptions.forEach(Subscription::stop);
+    // the adapters prepare the collector again before the next start
+    prepared.set(false);
+  }
+
+  /**
+   * Run a cycle then schedule the next one for just after the timeslices it should pick up have completed.
+   */
+  private void runScheduledCycle() {
+    try {
+      this.run();
+    } finally {
+      long delay = timesliceSchedule.delayMillis(TimeUnit.SECONDS.toMillis(this.getIntervalSeconds()), System.currentTimeMillis());
+      ScheduledExecutorService current = scheduler;
+      if(current != null && !current.isShutdown()) {
+        try {
+          current.schedule(this::runScheduledCycle, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+          log.trace("Message metrics bus stopped, not scheduling another cycle.");
+        }
+      }
+    }
+  }
+
+  private static final class Snapshot {
+    private final List<MessageStatisticExtended> statistics;
+    private final MessageMetricsCycle cycle;
+
+    private Snapshot(List<MessageStatisticExtended> statistics, MessageMetricsCycle cycle) {
+      this.statistics = statistics;
+      this.cycle = cycle;
+    }
+  }
+
+  /**
+   * A listener's queue of snapshots and the thread that delivers them.
+   */
+  private static final class Subscription implements Runnable {
+    private final MessageMetricsListener listener;
+    private final LinkedBlockingDeque<Snapshot> queue;
+    private final AtomicLong dropped;
+    private volatile boolean running;
+    private Thread thread;
+
+    private Subscription(MessageMetricsListener listener, int capacity) {
+      this.listener = listener;
+      this.queue = new LinkedBlockingDeque<>(Math.max(capacity, 1));
+      this.dropped = new AtomicLong();
+    }
+
+    private void offer(Snapshot snapshot) {
+      synchronized (queue) {
+        while(!queue.offerLast(snapshot)) {
+          if(queue.pollFirst() != null) {
+            dropped.incrementAndGet();
+            log.debug("Message metrics listener {} is falling behind, dropping its oldest snapshot.", listener);
+          }
+        }
+      }
+    }
+
+    private synchronized void start() {
+      if(running)
+        return;
+      running = true;
+      thread = new Thread(this, "Message Metrics Listener " + listener.getClass().getSimpleName());
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    private synchronized void stop() {
+      running = false;
+      if(thread != null) {
+        thread.interrupt();
+        thread = null;
+      }
+      queue.clear();
+    }
+
+    @Override
+    public void run() {
+      while(running) {
+        try {
+          Snapshot snapshot = queue.pollFirst(1, TimeUnit.SECONDS);
+          if(snapshot != null)
+            listener.notifyMessageMetrics(snapshot.statistics, snapshot.cycle);
+        } catch (InterruptedException e) {
+          if(!running)
+            break;
+        } catch (Exception e) {
+          log.warn("Error notifying message metrics listener {}, continuing...", listener, e);
+        }
+      }
+    }
+  }
+
+}
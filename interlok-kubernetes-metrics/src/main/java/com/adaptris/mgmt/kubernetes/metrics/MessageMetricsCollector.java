@@ -0,0 +1,30 @@
+package com.adaptris.mgmt.kubernetes.metrics;
+
+import java.util.List;
+
+import com.adaptris.core.ComponentLifecycleExtension;
+
+public interface MessageMetricsCollector extends Runnable, MessageMetricsNotifier, ComponentLifecycleExtension {
+
+  /**
+   * Gather the current message statistics without notifying any of the registered listeners.
+   * <p>
+   * Used when the statistics are pulled (e.g. on a Prometheus scrape) rather than pushed on a schedule.
+   * </p>
+   * @return the statistics found, never null.
+   */
+  public List<MessageStatisticExtended> collectStatistics();
+  
+  /**
+   * Gather the message statistics for the scheduled collection that {@link #run()} notifies the listeners of.
+   * <p>
+   * Collectors that keep track of what they have already returned, e.g. to read only the new timeslices, move on here and
+   * never in {@link #collectStatistics()}, so a pull doesn't take timeslices away from the listeners.
+   * </p>
+   * @return the statistics found, never null.
+   */
+  public default List<MessageStatisticExtended> collectCycleStatistics() {
+    return this.collectStatistics();
+  }
+  
+}
@@ -0,0 +1,55 @@
+package com.adaptris.mgmt.kubernetes.metrics;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Base {@link MessageMetricsCollector} that handles the listeners; implementations only need to gather the statistics.
+ */
+@Slf4j
+public abstract class MessageMetricsCollectorImpl implements MessageMetricsCollector {
+
+  @Getter
+  @Setter
+  private List<MessageMetricsListener> listeners;
+  
+  public MessageMetricsCollectorImpl() {
+    // listeners may come and go while a collection is notifying them
+    this.setListeners(new CopyOnWriteArrayList<>());
+  }
+  
+  @Override
+  public void run() {
+    try {
+      this.notifyListeners(this.collectCycleStatistics());
+    } catch (Exception ex) {
+      log.warn("Error notifying message metrics listeners, continuing...", ex);
+    }
+  }
+
+  @Override
+  public void registerListener(MessageMetricsListener listener) {
+    this.getListeners().add(listener);
+  }
+
+  @Override
+  public void deregisterListener(MessageMetricsListener listener) {
+    this.getListeners().remove(listener);
+  }
+
+  @Override
+  public void notifyListeners(List<MessageStatisticExtended> stats) {
+    for(MessageMetricsListener listener : this.getListeners()) {
+      try {
+        listener.notifyMessageMetrics(stats);
+      } catch (Exception ex) {
+        log.warn("Error notifying message metrics listener {}, continuing...", listener, ex);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,35 @@
+package com.adaptris.mgmt.kubernetes.metrics;
+
+import lombok.Getter;
+
+/**
+ * How a {@link MessageMetricsBus} collection went, handed to the listeners with the snapshot so they can time the whole
+ * cycle, from the start of the collection to the end of their own processing.
+ */
+public class MessageMetricsCycle {
+
+  /**
+   * When the collection started, from {@link System#nanoTime()}.
+   */
+  @Getter
+  private final long startNanos;
+
+  /**
+   * How long the collection took.
+   */
+  @Getter
+  private final long collectionNanos;
+
+  /**
+   * The CPU time the collection used; -1 if the JVM can't measure it.
+   */
+  @Getter
+  private final long cpuNanos;
+
+  public MessageMetricsCycle(long startNanos, long collectionNanos, long cpuNanos) {
+    this.startNanos = startNanos;
+    this.collectionNanos = collectionNanos;
+    this.cpuNanos = cpuNanos;
+  }
+
+}
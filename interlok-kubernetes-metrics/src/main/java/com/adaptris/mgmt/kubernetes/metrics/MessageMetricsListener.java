@@ -0,0 +1,16 @@
+package com.adaptris.mgmt.kubernetes.metrics;
+
+import java.util.List;
+
+public interface MessageMetricsListener {
+
+  public void notifyMessageMetrics(List<MessageStatisticExtended> statistics);
+
+  /**
+   * Called by the {@link MessageMetricsBus} instead of {@link #notifyMessageMetrics(List)}, with how its collection went.
+   */
+  public default void notifyMessageMetrics(List<MessageStatisticExtended> statistics, MessageMetricsCycle cycle) {
+    this.notifyMessageMetrics(statistics);
+  }
+
+}
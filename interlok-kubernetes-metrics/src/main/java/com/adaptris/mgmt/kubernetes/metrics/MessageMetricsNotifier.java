@@ -1,4 +1,4 @@
-package com.adaptris.kubernetes.metrics.prometheus;
+package com.adaptris.mgmt.kubernetes.metrics;
 
 import java.util.List;
 
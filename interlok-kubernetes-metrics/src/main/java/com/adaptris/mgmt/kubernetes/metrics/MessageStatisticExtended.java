@@ -0,0 +1,65 @@
+package com.adaptris.mgmt.kubernetes.metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.adaptris.core.interceptor.MessageStatistic;
+
+import lombok.Getter;
+import lombok.Setter;
+
+public class MessageStatisticExtended {
+
+  @Getter
+  @Setter
+  private List<MessageStatistic> statistics;
+  
+  @Getter
+  @Setter
+  private String adapterId;
+  
+  @Getter
+  @Setter
+  private String channelId;
+  
+  @Getter
+  @Setter
+  private String workflowId;
+  
+  @Getter
+  @Setter
+  private String statisticId;
+  
+  /**
+   * The number of messages currently in flight, for statistics read from an in-flight interceptor; otherwise null.
+   */
+  @Getter
+  @Setter
+  private Long inFlightCount;
+  
+  /**
+   * The count per metadata value in the timeslices completed since the last collection, for statistics read from a
+   * metadata metrics interceptor; otherwise null.
+   */
+  @Getter
+  @Setter
+  private Map<String, Long> metadataCounts;
+  
+  public MessageStatisticExtended() {
+    this.setStatistics(new ArrayList<MessageStatistic>());
+  }
+
+  /**
+   * The statistic id is only unique within a workflow, so anything kept per statistic between collections is keyed by the
+   * adapter, channel, workflow and statistic id together.
+   */
+  public List<String> key() {
+    return Arrays.asList(StringUtils.defaultString(this.getAdapterId()), StringUtils.defaultString(this.getChannelId()),
+        StringUtils.defaultString(this.getWorkflowId()), StringUtils.defaultString(this.getStatisticId()));
+  }
+  
+}
@@ -0,0 +1,116 @@
+package com.adaptris.mgmt.kubernetes.metrics;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.adaptris.core.interceptor.MessageStatistic;
+
+import lombok.extern.slf4j.Slf4j;
+
+@Slf4j
+public class MessagesPerSecondCalculator implements MetricsCalculator {
+
+  /**
+   * The end of the newest timeslice we have already processed for each statistic.
+   */
+  private final Map<List<String>, Watermark> watermarks;
+
+  public MessagesPerSecondCalculator() {
+    watermarks = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Despite the name, this is the number of new messages rather than a rate; use {@link #calculate(long, MessageStatisticExtended)}
+   * for the rates as well.
+   *
+   * @param calculateForTheLastNumberOfSeconds the period the rates are calculated over, not used for the count.
+   * @param statistic the statistic to count the new messages of.
+   * @return the number of messages in the timeslices completed since the last calculation for this statistic; 0 the first
+   *         time there are none, when the workflow is idle; -1 if there is nothing new to report.
+   */
+  public long calculateMessagesPerSecond(long calculateForTheLastNumberOfSeconds, MessageStatisticExtended statistic) {
+    return this.calculate(calculateForTheLastNumberOfSeconds, statistic).getMessageCount();
+  }
+
+  /**
+   * Every completed timeslice since the last calculation is counted, however late this one is, so nothing is lost from
+   * the totals; the rates only take the timeslices within {@code calculateForTheLastNumberOfSeconds} of the newest, over
+   * the time those timeslices actually cover.
+   */
+  @Override
+  public MessageMetrics calculate(long calculateForTheLastNumberOfSeconds, MessageStatisticExtended statistic) {
+    long messageCount = -1;
+    long errorCount = 0;
+    long messageSize = 0;
+    long windowMessageCount = 0;
+    long windowErrorCount = 0;
+    long windowMessageSize = 0;
+    long windowMillis = 0;
+    boolean windowTimed = true;
+
+    long now = System.currentTimeMillis();
+    Watermark watermark = watermarks.computeIfAbsent(statistic.key(), k -> new Watermark());
+    synchronized (watermark) {
+      long newestEndMillis = -1;
+      boolean inProgress = false;
+
+      List<MessageStatistic> statistics = statistic.getStatistics();
+      for(int counter = statistics.size() - 1; counter >= 0; counter --) {
+        MessageStatistic messageStatistic = statistics.get(counter);
+
+        if(messageStatistic.getEndMillis() >= now) { // only handle completed time slices
+          inProgress = true;
+          continue;
+        }
+        if(messageStatistic.getEndMillis() <= watermark.endMillis)
+          break;  // we've processed this one before, so the others below it have been too
+        if(newestEndMillis == -1)
+          newestEndMillis = messageStatistic.getEndMillis();
+
+        messageCount = Math.max(messageCount, 0) + messageStatistic.getTotalMessageCount();
+        errorCount += messageStatistic.getTotalMessageErrorCount();
+        messageSize += messageStatistic.getTotalMessageSize();
+        if((newestEndMillis - messageStatistic.getEndMillis()) / 1000 < calculateForTheLastNumberOfSeconds) {
+          windowMessageCount += messageStatistic.getTotalMessageCount();
+          windowErrorCount += messageStatistic.getTotalMessageErrorCount();
+          windowMessageSize += messageStatistic.getTotalMessageSize();
+          if(messageStatistic.getStartMillis() > 0 && messageStatistic.getStartMillis() < messageStatistic.getEndMillis())
+            windowMillis += messageStatistic.getEndMillis() - messageStatistic.getStartMillis();
+          else
+            windowTimed = false;
+        }
+        log.trace("Adding {} from timeslice ending {}", messageStatistic.getTotalMessageCount(), messageStatistic.getEndMillis());
+      }
+
+      if(messageCount >= 0) {
+        watermark.endMillis = newestEndMillis;
+        watermark.idleReported = false;
+      } else if(!inProgress && watermark.endMillis != Long.MIN_VALUE && !watermark.idleReported) {
+        // we have already processed the latest time slice and it is completed and there are no new ones, then no new messages have come through.
+        // Report that once, after that there's nothing new to say until another time slice completes.
+        watermark.idleReported = true;
+        messageCount = 0;
+      }
+    }
+    // without the start of every timeslice counted, fall back to the time asked for
+    long periodSeconds = windowTimed && windowMillis > 0 ? Math.max(Math.round(windowMillis / 1000d), 1) : calculateForTheLastNumberOfSeconds;
+    return messageCount < 0 ? MessageMetrics.NONE : new MessageMetrics(messageCount, errorCount, messageSize, 
+        windowMessageCount, windowErrorCount, windowMessageSize, periodSeconds);
+  }
+
+  @Override
+  public void retainStatistics(List<MessageStatisticExtended> statistics) {
+    Set<List<String>> keys = new HashSet<>();
+    statistics.forEach(statistic -> keys.add(statistic.key()));
+    watermarks.keySet().retainAll(keys);
+  }
+
+  private static final class Watermark {
+    private long endMillis = Long.MIN_VALUE;
+    private boolean idleReported;
+  }
+
+}
@@ -0,0 +1,39 @@
+package com.adaptris.mgmt.kubernetes.metrics;
+
+import java.util.List;
+
+public interface MetricsCalculator {
+
+  /**
+   * Count the messages in the timeslices completed since the last calculation for the statistic.
+   *
+   * @param calculateForTheLastNumberOfSeconds the period the rates are calculated over.
+   * @param statistic the statistic to count the new messages of.
+   * @return the number of new messages, despite the name; -1 if there is nothing new to report.
+   */
+  public long calculateMessagesPerSecond(long calculateForTheLastNumberOfSeconds, MessageStatisticExtended statistic);
+  
+  /**
+   * Calculate all of the message metrics (throughput, errors and message sizes) from the new timeslices in a single pass.
+   * <p>
+   * The default implementation only knows about the message count, from
+   * {@link #calculateMessagesPerSecond(long, MessageStatisticExtended)}.
+   * </p>
+   * @param calculateForTheLastNumberOfSeconds
+   * @param statistic
+   * @return the metrics, never null; {@link MessageMetrics#NONE} if there is nothing new.
+   */
+  public default MessageMetrics calculate(long calculateForTheLastNumberOfSeconds, MessageStatisticExtended statistic) {
+    long messageCount = this.calculateMessagesPerSecond(calculateForTheLastNumberOfSeconds, statistic);
+    return messageCount < 0 ? MessageMetrics.NONE : new MessageMetrics(messageCount, 0, 0, calculateForTheLastNumberOfSeconds);
+  }
+  
+  /**
+   * Called once per collection cycle with every statistic that was found, so that any state held for statistics that no
+   * longer exist (e.g. a workflow that has been removed) can be discarded.
+   * @param statistics the statistics found in this collection cycle.
+   */
+  public default void retainStatistics(List<MessageStatisticExtended> statistics) {
+  }
+  
+}
@@ -0,0 +1,95 @@
+package com.adaptris.mgmt.kubernetes.metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import lombok.Getter;
+
+/**
+ * Finds the heaviest keys of a stream in bounded memory, with the Space-Saving algorithm.
+ * <p>
+ * At most {@link #getCapacity()} keys are counted. When a new key arrives and there's no room, it takes over the counter of
+ * the lightest key, inheriting its count as the possible over-estimate. Any key heavier than the total weight divided by the
+ * capacity is guaranteed to be counted. Counts can be decayed so that keys that were busy a while ago give way to those that
+ * are busy now.
+ * </p>
+ */
+public class SpaceSavingSketch {
+
+  @Getter
+  private final int capacity;
+
+  private final Map<String, Counter> counters;
+
+  public SpaceSavingSketch(int capacity) {
+    if(capacity < 1)
+      throw new IllegalArgumentException("Capacity must be at least 1");
+    this.capacity = capacity;
+    this.counters = new HashMap<>();
+  }
+
+  public synchronized void offer(String key, double weight) {
+    Counter counter = counters.get(key);
+    if(counter == null) {
+      counter = new Counter();
+      if(counters.size() >= capacity) {
+        Counter lightest = counters.values().stream().min(Comparator.comparingDouble(c -> c.count)).get();
+        counters.remove(lightest.key);
+        counter.count = lightest.count;
+        counter.error = lightest.count;
+      }
+      counter.key = key;
+      counters.put(key, counter);
+    }
+    counter.count += weight;
+  }
+
+  /**
+   * Multiply every count by the factor, e.g. 0.5 halves them.
+   */
+  public synchronized void decay(double factor) {
+    for(Counter counter : counters.values()) {
+      counter.count *= factor;
+      counter.error *= factor;
+    }
+  }
+
+  /**
+   * @return up to k of the heaviest keys, heaviest first.
+   */
+  public synchronized List<String> top(int k) {
+    return counters.values().stream()
+        .sorted(Comparator.comparingDouble((Counter c) -> c.count).reversed().thenComparing(c -> c.key))
+        .limit(k)
+        .map(c -> c.key)
+        .collect(Collectors.toCollection(ArrayList::new));
+  }
+
+  /**
+   * @return the estimated weight of the key, which may be over by up to {@link #error(String)}; 0 if it isn't counted.
+   */
+  public synchronized double count(String key) {
+    Counter counter = counters.get(key);
+    return counter == null ? 0 : counter.count;
+  }
+
+  public synchronized double error(String key) {
+    Counter counter = counters.get(key);
+    return counter == null ? 0 : counter.error;
+  }
+
+  public synchronized int size() {
+    return counters.size();
+  }
+
+  private static final class Counter {
+    private String key;
+    private double count;
+    private double error;
+  }
+
+}
@@ -0,0 +1,96 @@
+package com.adaptris.mgmt.kubernetes.metrics;
+
+import java.util.List;
+
+import com.adaptris.core.interceptor.MessageStatistic;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Lines the collection up with the interceptors' timeslices, so each cycle runs just after a timeslice completes.
+ * <p>
+ * The timeslice duration and a timeslice boundary are taken from the statistics read each cycle. A cycle then runs every
+ * whole number of timeslices that is at least the collection interval, {@link #getGraceMillis()} after the boundary. Until
+ * a timeslice has been seen the collection interval is used as is.
+ * </p>
+ */
+public class TimesliceSchedule {
+
+  private static final long GRACE_MILLIS_DEFAULT = 500;
+
+  /**
+   * How long after a timeslice boundary to collect, to give the interceptor time to roll over.
+   */
+  @Getter
+  @Setter
+  private long graceMillis;
+
+  private volatile long timesliceMillis;
+
+  private volatile long boundaryMillis;
+
+  public TimesliceSchedule() {
+    this.setGraceMillis(GRACE_MILLIS_DEFAULT);
+    this.timesliceMillis = -1;
+  }
+
+  /**
+   * Pick up the timeslice duration and the latest boundary from the statistics; the shortest timeslice wins, so no
+   * workflow's timeslices are missed.
+   */
+  public void observe(List<MessageStatisticExtended> statistics) {
+    long shortest = Long.MAX_VALUE;
+    long boundary = 0;
+    for(MessageStatisticExtended statistic : statistics) {
+      List<MessageStatistic> timeslices = statistic.getStatistics();
+      if(timeslices.isEmpty())
+        continue;
+      MessageStatistic newest = timeslices.get(timeslices.size() - 1);
+      long duration = -1;
+      if(newest.getStartMillis() > 0)
+        duration = newest.getEndMillis() - newest.getStartMillis();
+      else if(timeslices.size() > 1)
+        duration = newest.getEndMillis() - timeslices.get(timeslices.size() - 2).getEndMillis();
+      if(duration > 0 && duration < shortest) {
+        shortest = duration;
+        boundary = newest.getEndMillis();
+      }
+    }
+    if(shortest != Long.MAX_VALUE) {
+      boundaryMillis = boundary;
+      timesliceMillis = shortest;
+    }
+  }
+
+  /**
+   * @return the timeslice duration, or -1 if no timeslices have been seen.
+   */
+  public long timesliceMillis() {
+    return timesliceMillis;
+  }
+
+  /**
+   * @return the time between cycles; the interval rounded up to a whole number of timeslices.
+   */
+  public long periodMillis(long intervalMillis) {
+    long timeslice = timesliceMillis;
+    if(timeslice <= 0)
+      return intervalMillis;
+    return Math.max((intervalMillis + timeslice - 1) / timeslice, 1) * timeslice;
+  }
+
+  /**
+   * @return how long to wait from now until the next cycle should run.
+   */
+  public long delayMillis(long intervalMillis, long nowMillis) {
+    long timeslice = timesliceMillis;
+    if(timeslice <= 0)
+      return intervalMillis;
+    long boundary = boundaryMillis;
+    long nextBoundary = boundary + (Math.floorDiv(nowMillis - this.getGraceMillis() - boundary, timeslice) + 1) * timeslice;
+    long nextCycle = nextBoundary + this.periodMillis(intervalMillis) - timeslice + this.getGraceMillis();
+    return Math.max(nextCycle - nowMillis, 0);
+  }
+
+}
@@ -0,0 +1,39 @@
+package com.adaptris.mgmt.kubernetes.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+public class CompositeMessageMetricsCollectorTest {
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testNotifiesAllStatisticsTogether() throws Exception {
+    MessageMetricsCollector messages = mock(MessageMetricsCollector.class);
+    MessageMetricsCollector inFlight = mock(MessageMetricsCollector.class);
+    MessageStatisticExtended messageStatistic = new MessageStatisticExtended();
+    MessageStatisticExtended inFlightStatistic = new MessageStatisticExtended();
+    when(messages.collectCycleStatistics()).thenReturn(Arrays.asList(messageStatistic));
+    when(inFlight.collectCycleStatistics()).thenReturn(Arrays.asList(inFlightStatistic));
+    MessageMetricsListener listener = mock(MessageMetricsListener.class);
+
+    CompositeMessageMetricsCollector collector = new CompositeMessageMetricsCollector(messages, inFlight);
+    collector.registerListener(listener);
+    collector.prepare();
+    collector.run();
+
+    verify(messages).prepare();
+    verify(inFlight).prepare();
+    ArgumentCaptor<List<MessageStatisticExtended>> captor = ArgumentCaptor.forClass(List.class);
+    verify(listener).notifyMessageMetrics(captor.capture());
+    assertEquals(Arrays.asList(messageStatistic, inFlightStatistic), captor.getValue());
+  }
+
+}
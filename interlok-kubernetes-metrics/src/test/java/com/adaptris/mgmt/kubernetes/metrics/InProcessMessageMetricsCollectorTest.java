@@ -0,0 +1,127 @@
+package com.adaptris.mgmt.kubernetes.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.timer.Timer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.adaptris.core.Channel;
+import com.adaptris.core.Workflow;
+import com.adaptris.core.interceptor.MessageStatistic;
+import com.adaptris.core.util.JmxHelper;
+
+public class InProcessMessageMetricsCollectorTest {
+
+  private InProcessMessageMetricsCollector collector;
+
+  @Mock private Channel mockChannel;
+
+  @Mock private Workflow mockWorkflow;
+
+  @Mock private MessageMetricsListener mockListener;
+
+  private InProcessMessageMetricsInterceptor interceptor;
+
+  private MBeanServer mBeanServer;
+
+  private ObjectName objectName;
+
+  private AutoCloseable closeable;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    closeable = MockitoAnnotations.openMocks(this);
+    when(mockChannel.getUniqueId()).thenReturn("MyChannel");
+    when(mockWorkflow.getUniqueId()).thenReturn("MyWorkflow");
+
+    interceptor = new InProcessMessageMetricsInterceptor() {
+      {
+        this.getStats().add(new MessageStatistic());
+        this.getStats().add(null);
+      }
+    };
+    interceptor.setUniqueId("InProcessId");
+    interceptor.registerParentChannel(mockChannel);
+    interceptor.registerParentWorkflow(mockWorkflow);
+
+    mBeanServer = JmxHelper.findMBeanServer();
+    objectName = new ObjectName("com.adaptris:type=Metrics,adapter=MyAdapter,channel=MyChannel,workflow=MyWorkflow,id=InProcessId");
+    collector = new InProcessMessageMetricsCollector();
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    interceptor.stop();
+    if(mBeanServer.isRegistered(objectName))
+      mBeanServer.unregisterMBean(objectName);
+    closeable.close();
+  }
+
+  @Test
+  public void testFindsStartedInterceptors() throws Exception {
+    mBeanServer.registerMBean(new Timer(), objectName);
+    interceptor.start();
+
+    List<MessageStatisticExtended> statistics = collector.collectStatistics();
+
+    assertEquals(1, statistics.size());
+    assertEquals("MyAdapter", statistics.get(0).getAdapterId());
+    assertEquals("MyChannel", statistics.get(0).getChannelId());
+    assertEquals("MyWorkflow", statistics.get(0).getWorkflowId());
+    assertEquals("InProcessId", statistics.get(0).getStatisticId());
+    // the copy leaves out anything half added
+    assertEquals(1, statistics.get(0).getStatistics().size());
+
+    interceptor.stop();
+    assertEquals(0, collector.collectStatistics().size());
+  }
+
+  @Test
+  public void testOnlyTheConfiguredAdapter() throws Exception {
+    mBeanServer.registerMBean(new Timer(), objectName);
+    interceptor.start();
+
+    collector.setAdapterId("MyAdapter");
+    assertEquals(1, collector.collectStatistics().size());
+    collector.setAdapterId("OtherAdapter");
+    assertEquals(0, collector.collectStatistics().size());
+  }
+
+  @Test
+  public void testAdapterFoundOnceMBeanRegistered() throws Exception {
+    interceptor.start();
+
+    List<MessageStatisticExtended> statistics = collector.collectStatistics();
+    assertEquals(1, statistics.size());
+    assertNull(statistics.get(0).getAdapterId());
+
+    mBeanServer.registerMBean(new Timer(), objectName);
+    statistics = collector.collectStatistics();
+    assertEquals("MyAdapter", statistics.get(0).getAdapterId());
+    collector.setAdapterId("MyAdapter");
+    assertEquals(1, collector.collectStatistics().size());
+  }
+
+  @Test
+  public void testNotifyNewStats() throws Exception {
+    interceptor.start();
+    collector.registerListener(mockListener);
+    collector.run();
+
+    verify(mockListener).notifyMessageMetrics(any());
+  }
+
+}
@@ -0,0 +1,90 @@
+package com.adaptris.mgmt.kubernetes.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.adaptris.core.interceptor.InFlightWorkflowInterceptorMBean;
+
+public class JmxInFlightMetricsCollectorTest {
+
+  private JmxInFlightMetricsCollector collector;
+
+  @Mock private MBeanServer mockMBeanServer;
+
+  @Mock private InFlightWorkflowInterceptorMBean mockInFlightMBean;
+
+  private ObjectName realObjectName;
+
+  private AutoCloseable closeable;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    closeable = MockitoAnnotations.openMocks(this);
+
+    collector = new JmxInFlightMetricsCollector();
+    collector.setInterlokMBeanServer(mockMBeanServer);
+
+    realObjectName = new ObjectName("com.adaptris:type=InFlight,adapter=adapter,channel=channel,workflow=workflow,id=in-flight");
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    closeable.close();
+  }
+
+  @Test
+  public void testQueriesInFlightMBeans() throws Exception {
+    collector.collectStatistics();
+
+    verify(mockMBeanServer).queryMBeans(eq(new ObjectName("com.adaptris:type=InFlight,*")), isNull());
+  }
+
+  @Test
+  public void testReadsInFlightCount() throws Exception {
+    Map<ObjectName, InFlightWorkflowInterceptorMBean> mbeans = new HashMap<>();
+    mbeans.put(realObjectName, mockInFlightMBean);
+    collector.setMetricsMBeans(mbeans);
+    when(mockInFlightMBean.messagesInFlightCount()).thenReturn(7l);
+
+    List<MessageStatisticExtended> statistics = collector.collectStatistics();
+
+    assertEquals(1, statistics.size());
+    assertEquals(7l, statistics.get(0).getInFlightCount());
+    assertEquals("workflow", statistics.get(0).getWorkflowId());
+    assertEquals("in-flight", statistics.get(0).getStatisticId());
+    assertTrue(statistics.get(0).getStatistics().isEmpty());
+    assertNull(statistics.get(0).getMetadataCounts());
+  }
+
+  @Test
+  public void testFailedReadHasNoCount() throws Exception {
+    Map<ObjectName, InFlightWorkflowInterceptorMBean> mbeans = new HashMap<>();
+    mbeans.put(realObjectName, mockInFlightMBean);
+    collector.setMetricsMBeans(mbeans);
+    when(mockInFlightMBean.messagesInFlightCount()).thenThrow(new RuntimeException("expected"));
+
+    List<MessageStatisticExtended> statistics = collector.collectStatistics();
+
+    assertEquals(1, statistics.size());
+    assertNull(statistics.get(0).getInFlightCount());
+  }
+
+}
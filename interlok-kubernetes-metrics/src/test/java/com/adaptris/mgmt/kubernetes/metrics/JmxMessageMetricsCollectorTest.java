@@ -0,0 +1,300 @@
+package com.adaptris.mgmt.kubernetes.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+import javax.management.ObjectInstance;
+import javax.management.ObjectName;
+import javax.management.QueryExp;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.adaptris.core.CoreException;
+import com.adaptris.core.interceptor.MessageMetricsStatistics;
+import com.adaptris.core.interceptor.MessageMetricsStatisticsMBean;
+import com.adaptris.core.interceptor.MessageStatistic;
+
+public class JmxMessageMetricsCollectorTest {
+
+  private JmxMessageMetricsCollector collector;
+
+  @Mock private MBeanServer mockMBeanServer;
+
+  private Set<ObjectInstance> objectSet;
+
+  @Mock private ObjectInstance mockObjectInstance;
+
+  @Mock private ObjectName mockObjectName;
+
+  private ObjectName realObjectName;
+
+  @Mock private MessageMetricsStatisticsMBean mockMMSMBean;
+
+  private List<MessageStatistic> messagesStatisticsList;
+
+  @Mock MessageMetricsListener mockListener;
+
+  private AutoCloseable closeable;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    closeable = MockitoAnnotations.openMocks(this);
+
+    collector = new JmxMessageMetricsCollector();
+    collector.setInterlokMBeanServer(mockMBeanServer);
+
+    objectSet = new HashSet<>();
+    objectSet.add(mockObjectInstance);
+
+    realObjectName = new ObjectName("com.adaptris:type=Metrics,adapter=adapter,channel=channel,workflow=workflow");
+
+    messagesStatisticsList = new ArrayList<>();
+
+    when(mockMBeanServer.queryMBeans(any(ObjectName.class), any(QueryExp.class)))
+    .thenReturn(objectSet);
+
+    when(mockMMSMBean.getStatistics())
+    .thenReturn(messagesStatisticsList);
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    closeable.close();
+  }
+
+  @Test
+  public void testMBeansLoadedFirstExecution() {
+    when(mockObjectInstance.getClassName()).thenReturn(MessageMetricsStatistics.class.getName());
+    when(mockObjectInstance.getObjectName()).thenReturn(mockObjectName);
+
+    try {
+      collector.run();
+    } catch (Throwable t) {};
+
+    verify(mockMBeanServer).queryMBeans(any(ObjectName.class), isNull());
+  }
+
+  @Test
+  public void testNotifyNewStats() throws Exception {
+    Map<ObjectName, MessageMetricsStatisticsMBean> mbeans = new HashMap<>();
+    mbeans.put(realObjectName, mockMMSMBean);
+
+    collector.registerListener(mockListener);
+
+    collector.setMetricsMBeans(mbeans);
+    collector.run();
+
+    collector.deregisterListener(mockListener);
+
+    Thread.sleep(500);
+
+    verify(mockListener).notifyMessageMetrics(any());
+  }
+
+  @Test
+  public void testMBeansTrackedFromRegistrationNotifications() throws Exception {
+    when(mockObjectInstance.getClassName()).thenReturn(MessageMetricsStatistics.class.getName());
+    when(mockObjectInstance.getObjectName()).thenReturn(realObjectName);
+    objectSet.clear();
+
+    collector.run();
+
+    ArgumentCaptor<NotificationListener> listenerCaptor = ArgumentCaptor.forClass(NotificationListener.class);
+    ArgumentCaptor<NotificationFilter> filterCaptor = ArgumentCaptor.forClass(NotificationFilter.class);
+    verify(mockMBeanServer).addNotificationListener(eq(MBeanServerDelegate.DELEGATE_NAME), listenerCaptor.capture(), filterCaptor.capture(), isNull());
+    assertTrue(collector.getMetricsMBeans().isEmpty());
+
+    // A new workflow is started after the first collection.
+    when(mockMBeanServer.getObjectInstance(realObjectName)).thenReturn(mockObjectInstance);
+    MBeanServerNotification registered = new MBeanServerNotification(MBeanServerNotification.REGISTRATION_NOTIFICATION, MBeanServerDelegate.DELEGATE_NAME, 1, realObjectName);
+    assertTrue(filterCaptor.getValue().isNotificationEnabled(registered));
+    listenerCaptor.getValue().handleNotification(registered, null);
+
+    assertEquals(1, collector.getMetricsMBeans().size());
+    assertTrue(collector.getMetricsMBeans().containsKey(realObjectName));
+
+    MBeanServerNotification unregistered = new MBeanServerNotification(MBeanServerNotification.UNREGISTRATION_NOTIFICATION, MBeanServerDelegate.DELEGATE_NAME, 2, realObjectName);
+    listenerCaptor.getValue().handleNotification(unregistered, null);
+
+    assertTrue(collector.getMetricsMBeans().isEmpty());
+
+    // No rescans, only the initial query.
+    collector.run();
+    verify(mockMBeanServer, times(1)).queryMBeans(any(ObjectName.class), isNull());
+  }
+
+  @Test
+  public void testRegistrationFilterIgnoresOtherMBeans() throws Exception {
+    collector.run();
+
+    ArgumentCaptor<NotificationFilter> filterCaptor = ArgumentCaptor.forClass(NotificationFilter.class);
+    verify(mockMBeanServer).addNotificationListener(eq(MBeanServerDelegate.DELEGATE_NAME), any(NotificationListener.class), filterCaptor.capture(), isNull());
+
+    MBeanServerNotification other = new MBeanServerNotification(MBeanServerNotification.REGISTRATION_NOTIFICATION, MBeanServerDelegate.DELEGATE_NAME, 1, 
+        new ObjectName("com.adaptris:type=Workflow,adapter=adapter,channel=channel,id=workflow"));
+    assertFalse(filterCaptor.getValue().isNotificationEnabled(other));
+  }
+
+  @Test
+  public void testPrepareStopsListening() throws Exception {
+    collector.run();
+    collector.prepare();
+
+    verify(mockMBeanServer).removeNotificationListener(eq(MBeanServerDelegate.DELEGATE_NAME), any(NotificationListener.class));
+  }
+
+  @Test
+  public void testParallelReadsLeaveOutFailures() throws Exception {
+    ObjectName slowObjectName = new ObjectName("com.adaptris:type=Metrics,adapter=adapter,channel=channel,workflow=slow,id=slow");
+    ObjectName brokenObjectName = new ObjectName("com.adaptris:type=Metrics,adapter=adapter,channel=channel,workflow=broken,id=broken");
+    MessageMetricsStatisticsMBean slowMBean = mock(MessageMetricsStatisticsMBean.class);
+    MessageMetricsStatisticsMBean brokenMBean = mock(MessageMetricsStatisticsMBean.class);
+    when(slowMBean.getStatistics()).thenAnswer(invocation -> {
+      Thread.sleep(5000);
+      return messagesStatisticsList;
+    });
+    when(brokenMBean.getStatistics()).thenThrow(new CoreException("broken"));
+    messagesStatisticsList.add(new MessageStatistic());
+
+    Map<ObjectName, MessageMetricsStatisticsMBean> mbeans = new HashMap<>();
+    mbeans.put(realObjectName, mockMMSMBean);
+    mbeans.put(slowObjectName, slowMBean);
+    mbeans.put(brokenObjectName, brokenMBean);
+    collector.setMetricsMBeans(mbeans);
+    collector.setParallelism(3);
+    collector.setReadTimeoutMillis(200l);
+
+    long start = System.currentTimeMillis();
+    List<MessageStatisticExtended> statistics = collector.collectStatistics();
+    collector.prepare();
+
+    assertTrue(System.currentTimeMillis() - start < 4000);
+    // the failed reads aren't reported as idle workflows
+    assertEquals(1, statistics.size());
+    assertEquals("workflow", statistics.get(0).getWorkflowId());
+    assertEquals(1, statistics.get(0).getStatistics().size());
+  }
+
+  @Test
+  public void testParallelReadsShareOneDeadline() throws Exception {
+    Map<ObjectName, MessageMetricsStatisticsMBean> mbeans = new HashMap<>();
+    for(int counter = 0; counter < 6; counter ++) {
+      MessageMetricsStatisticsMBean slowMBean = mock(MessageMetricsStatisticsMBean.class);
+      when(slowMBean.getStatistics()).thenAnswer(invocation -> {
+        Thread.sleep(5000);
+        return messagesStatisticsList;
+      });
+      mbeans.put(new ObjectName("com.adaptris:type=Metrics,adapter=adapter,channel=channel,workflow=slow" + counter + ",id=slow" + counter), slowMBean);
+    }
+    collector.setMetricsMBeans(mbeans);
+    collector.setParallelism(2);
+    collector.setReadTimeoutMillis(300l);
+
+    long start = System.currentTimeMillis();
+    List<MessageStatisticExtended> statistics = collector.collectStatistics();
+    collector.prepare();
+
+    // not 3 rounds of the timeout for the reads queued behind the first two
+    assertTrue(System.currentTimeMillis() - start < 800);
+    assertTrue(statistics.isEmpty());
+  }
+
+  @Test
+  public void testIncrementalFetchOnlyReadsNewTimeslices() throws Exception {
+    long now = System.currentTimeMillis();
+    List<MessageStatistic> history = new ArrayList<>();
+    for(int counter = 10; counter > 0; counter --)
+      history.add(new MessageStatistic(now - (counter * 1000)));
+    when(mockMMSMBean.getNumberOfTimeslices()).thenAnswer(invocation -> history.size());
+    when(mockMMSMBean.getStatistic(any(Integer.class))).thenAnswer(invocation -> history.get(invocation.getArgument(0)));
+
+    Map<ObjectName, MessageMetricsStatisticsMBean> mbeans = new HashMap<>();
+    mbeans.put(realObjectName, mockMMSMBean);
+    collector.setMetricsMBeans(mbeans);
+    collector.setIncrementalFetch(true);
+
+    assertEquals(10, collector.collectCycleStatistics().get(0).getStatistics().size());
+
+    // one more completed and one in progress.
+    history.add(new MessageStatistic(now - 500));
+    MessageStatistic inProgress = new MessageStatistic(now + 60000);
+    history.add(inProgress);
+
+    List<MessageStatistic> newStatistics = collector.collectCycleStatistics().get(0).getStatistics();
+    assertEquals(2, newStatistics.size());
+    assertSame(inProgress, newStatistics.get(1));
+
+    // the in progress one is read again until it completes.
+    assertEquals(1, collector.collectCycleStatistics().get(0).getStatistics().size());
+
+    verify(mockMMSMBean, never()).getStatistics();
+  }
+
+  @Test
+  public void testPullDoesNotMoveIncrementalFetchOn() throws Exception {
+    long now = System.currentTimeMillis();
+    List<MessageStatistic> history = new ArrayList<>();
+    for(int counter = 10; counter > 0; counter --)
+      history.add(new MessageStatistic(now - (counter * 1000)));
+    when(mockMMSMBean.getNumberOfTimeslices()).thenAnswer(invocation -> history.size());
+    when(mockMMSMBean.getStatistic(any(Integer.class))).thenAnswer(invocation -> history.get(invocation.getArgument(0)));
+    when(mockMMSMBean.getStatistics()).thenReturn(history);
+
+    Map<ObjectName, MessageMetricsStatisticsMBean> mbeans = new HashMap<>();
+    mbeans.put(realObjectName, mockMMSMBean);
+    collector.setMetricsMBeans(mbeans);
+    collector.setIncrementalFetch(true);
+
+    assertEquals(10, collector.collectCycleStatistics().get(0).getStatistics().size());
+    history.add(new MessageStatistic(now - 500));
+
+    // a scrape sees the whole history, and the next cycle still gets the new timeslice.
+    assertEquals(11, collector.collectStatistics().get(0).getStatistics().size());
+    assertEquals(1, collector.collectCycleStatistics().get(0).getStatistics().size());
+  }
+
+  @Test
+  public void testIncrementalFetchFallsBackToFullHistory() throws Exception {
+    messagesStatisticsList.add(new MessageStatistic());
+    when(mockMMSMBean.getNumberOfTimeslices()).thenThrow(new UnsupportedOperationException());
+
+    Map<ObjectName, MessageMetricsStatisticsMBean> mbeans = new HashMap<>();
+    mbeans.put(realObjectName, mockMMSMBean);
+    collector.setMetricsMBeans(mbeans);
+    collector.setIncrementalFetch(true);
+
+    assertEquals(1, collector.collectCycleStatistics().get(0).getStatistics().size());
+    assertEquals(1, collector.collectCycleStatistics().get(0).getStatistics().size());
+
+    verify(mockMMSMBean, times(1)).getNumberOfTimeslices();
+    verify(mockMMSMBean, times(2)).getStatistics();
+  }
+
+}
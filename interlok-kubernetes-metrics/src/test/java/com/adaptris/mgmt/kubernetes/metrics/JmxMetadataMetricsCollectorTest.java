@@ -0,0 +1,108 @@
+package com.adaptris.mgmt.kubernetes.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.adaptris.core.interceptor.MetadataStatistic;
+import com.adaptris.core.interceptor.MetadataStatisticsMBean;
+
+public class JmxMetadataMetricsCollectorTest {
+
+  private JmxMetadataMetricsCollector collector;
+
+  @Mock private MBeanServer mockMBeanServer;
+
+  @Mock private MetadataStatisticsMBean mockMetadataMBean;
+
+  private List<MetadataStatistic> metadataStatisticsList;
+
+  private AutoCloseable closeable;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    closeable = MockitoAnnotations.openMocks(this);
+
+    collector = new JmxMetadataMetricsCollector();
+    collector.setInterlokMBeanServer(mockMBeanServer);
+
+    Map<ObjectName, MetadataStatisticsMBean> mbeans = new HashMap<>();
+    mbeans.put(new ObjectName("com.adaptris:type=Metrics,adapter=adapter,channel=channel,workflow=workflow,id=metadata"), mockMetadataMBean);
+    collector.setMetricsMBeans(mbeans);
+
+    metadataStatisticsList = new ArrayList<>();
+    when(mockMetadataMBean.getStatistics()).thenReturn(metadataStatisticsList);
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    closeable.close();
+  }
+
+  @Test
+  public void testFirstReadCountsNewestCompletedTimeslice() throws Exception {
+    long now = System.currentTimeMillis();
+    metadataStatisticsList.add(metadataStatistic(now - 20000, "order", 5));
+    metadataStatisticsList.add(metadataStatistic(now - 10000, "order", 3));
+    metadataStatisticsList.add(metadataStatistic(now + 10000, "order", 1)); // in progress
+
+    List<MessageStatisticExtended> statistics = collector.collectStatistics();
+
+    assertEquals(1, statistics.size());
+    assertEquals("metadata", statistics.get(0).getStatisticId());
+    assertEquals(3l, statistics.get(0).getMetadataCounts().get("order"));
+  }
+
+  @Test
+  public void testOnlyCountsTimeslicesCompletedSinceLastRead() throws Exception {
+    long now = System.currentTimeMillis();
+    metadataStatisticsList.add(metadataStatistic(now - 30000, "order", 5));
+    collector.collectStatistics();
+
+    metadataStatisticsList.add(metadataStatistic(now - 20000, "order", 2));
+    MetadataStatistic mixed = metadataStatistic(now - 10000, "order", 4);
+    mixed.putValue("invoice", 1);
+    metadataStatisticsList.add(mixed);
+
+    Map<String, Long> metadataCounts = collector.collectStatistics().get(0).getMetadataCounts();
+    assertEquals(6l, metadataCounts.get("order"));
+    assertEquals(1l, metadataCounts.get("invoice"));
+
+    assertTrue(collector.collectStatistics().get(0).getMetadataCounts().isEmpty());
+  }
+
+  @Test
+  public void testPullDoesNotMoveTheCycleOn() throws Exception {
+    long now = System.currentTimeMillis();
+    metadataStatisticsList.add(metadataStatistic(now - 30000, "order", 5));
+    collector.collectCycleStatistics();
+
+    metadataStatisticsList.add(metadataStatistic(now - 20000, "order", 2));
+    collector.collectStatistics();
+    collector.collectStatistics();
+
+    assertEquals(2l, collector.collectCycleStatistics().get(0).getMetadataCounts().get("order"));
+    assertTrue(collector.collectCycleStatistics().get(0).getMetadataCounts().isEmpty());
+  }
+
+  private MetadataStatistic metadataStatistic(long endMillis, String key, int count) {
+    MetadataStatistic statistic = new MetadataStatistic(endMillis);
+    statistic.putValue(key, count);
+    return statistic;
+  }
+
+}
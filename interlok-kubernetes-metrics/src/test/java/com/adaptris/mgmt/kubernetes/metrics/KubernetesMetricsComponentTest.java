@@ -1,32 +1,222 @@
 package com.adaptris.mgmt.kubernetes.metrics;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import com.adaptris.core.CoreException;
+
 public class KubernetesMetricsComponentTest {
 
   private KubernetesMetricsComponent component;
-  
+
   @BeforeEach
   public void setUp() throws Exception {
     component = new KubernetesMetricsComponent();
   }
-  
+
   @AfterEach
   public void tearDown() throws Exception {
-    
+
   }
-  
+
   @Test
   public void testNoImplementationsNoError() throws Exception {
     component.init(new Properties());
     component.start();
-    
+
+    component.stop();
+    component.destroy();
+  }
+
+  @Test
+  public void testStartsAdaptersConcurrently() throws Exception {
+    CountDownLatch bothStarting = new CountDownLatch(2);
+    KubernetesMetricsAdapter first = adapter("first");
+    KubernetesMetricsAdapter second = adapter("second");
+    for(KubernetesMetricsAdapter adapter : Arrays.asList(first, second)) {
+      doAnswer(invocation -> {
+        bothStarting.countDown();
+        // only returns if the other adapter is starting at the same time
+        assertTrue(bothStarting.await(5, TimeUnit.SECONDS));
+        return null;
+      }).when(adapter).start();
+    }
+    component.setMetricsAdapters(Arrays.asList(first, second));
+
+    component.init(new Properties());
+    component.start();
+
+    assertTrue(component.getStartupMillis().containsKey("first"));
+    assertTrue(component.getStartupMillis().containsKey("second"));
+    component.stop();
+    component.destroy();
+    verify(first).stop();
+    verify(second).close();
+  }
+
+  @Test
+  public void testCarriesOnWithoutAdapterThatTimesOut() throws Exception {
+    KubernetesMetricsAdapter slow = adapter("slow");
+    KubernetesMetricsAdapter fast = adapter("fast");
+    doAnswer(invocation -> {
+      Thread.sleep(10000);
+      return null;
+    }).when(slow).init();
+    component.setMetricsAdapters(Arrays.asList(slow, fast));
+
+    Properties config = new Properties();
+    config.put("kubernetesMetricsLifecycleTimeoutMillis", "200");
+    long start = System.currentTimeMillis();
+    component.init(config);
+    component.start();
+
+    assertTrue(System.currentTimeMillis() - start < 5000);
+    verify(slow, never()).start();
+    verify(fast).start();
+    assertFalse(component.getStartupMillis().containsKey("slow"));
+    assertTrue(component.getStartupMillis().containsKey("fast"));
+    component.stop();
+    component.destroy();
+    // its init may still complete, so it is stopped and closed with the rest
+    verify(slow).stop();
+    verify(slow).close();
+    verify(fast).stop();
+    verify(fast).close();
+  }
+
+  @Test
+  public void testCarriesOnWithoutAdapterThatFails() throws Exception {
+    KubernetesMetricsAdapter failing = mock(KubernetesMetricsAdapter.class, withSettings().extraInterfaces(MessageMetricsListener.class));
+    when(failing.getImplementationName()).thenReturn("failing");
+    KubernetesMetricsAdapter working = adapter("working");
+    doAnswer(invocation -> {
+      // got as far as joining the bus before failing
+      component.getMessageMetricsBus().registerListener((MessageMetricsListener) failing);
+      throw new CoreException("expected");
+    }).when(failing).start();
+    component.setMetricsAdapters(Arrays.asList(failing, working));
+
+    component.init(new Properties());
+    component.start();
+
+    assertFalse(component.getMessageMetricsBus().hasListeners());
     component.stop();
     component.destroy();
+    // it may have got part way, so it is stopped and closed with the rest
+    verify(failing).stop();
+    verify(failing).close();
+    verify(working).stop();
+    verify(working).close();
   }
-  
+
+  @Test
+  public void testInvalidPropertyNamed() throws Exception {
+    Properties config = new Properties();
+    config.put("kubernetesMetricsTopK", "ten");
+
+    CoreException e = assertThrows(CoreException.class, () -> component.init(config));
+    assertTrue(e.getMessage().contains("kubernetesMetricsTopK"));
+  }
+
+  @Test
+  public void testConfiguresAggregator() throws Exception {
+    Properties config = new Properties();
+    config.put("kubernetesMetricsDeny", "test/.* .*/debug");
+    config.put("kubernetesMetricsRelabel", "workflow:(.*)-[0-9]+=$1; channel:ch-(.*)=$1");
+    config.put("kubernetesMetricsRollup", "channel");
+    component.init(config);
+
+    MessageMetricsAggregator aggregator = component.getMessageMetricsBus().getAggregator();
+    assertEquals(2, aggregator.getDenyPatterns().size());
+    assertEquals(2, aggregator.getRelabels().size());
+    assertEquals(MessageMetricsAggregator.Label.CHANNEL, aggregator.getRelabels().get(1).getLabel());
+    assertEquals("$1", aggregator.getRelabels().get(0).getReplacement());
+    assertEquals(MessageMetricsAggregator.Rollup.CHANNEL, aggregator.getRollup());
+    component.destroy();
+  }
+
+  @Test
+  public void testConfiguresTopK() throws Exception {
+    Properties config = new Properties();
+    config.put("kubernetesMetricsCollectorIntervalSeconds", "30");
+    config.put("kubernetesMetricsTopK", "10");
+    config.put("kubernetesMetricsTopKDecay", "0.5");
+    component.init(config);
+
+    MessageMetricsAggregator aggregator = component.getMessageMetricsBus().getAggregator();
+    assertTrue(aggregator.isEnabled());
+    assertEquals(10, aggregator.getTopK());
+    assertEquals(0.5, aggregator.getTopKDecay());
+    assertEquals(30, aggregator.getIntervalSeconds());
+    component.destroy();
+  }
+
+  @Test
+  public void testNoAggregatorByDefault() throws Exception {
+    component.init(new Properties());
+
+    assertNull(component.getMessageMetricsBus().getAggregator());
+    component.destroy();
+  }
+
+  @Test
+  public void testConfiguresSharedCollector() throws Exception {
+    Properties config = new Properties();
+    config.put("kubernetesMetricsCollectorParallelism", "4");
+    config.put("kubernetesMetricsCollectorReadTimeoutMillis", "2000");
+    config.put("kubernetesMetricsCollectorIncrementalFetch", "true");
+    config.put("kubernetesMetricsAdditionalCollectors", "in-flight, metadata");
+    component.init(config);
+
+    MessageMetricsCollector collector = component.getMessageMetricsBus().getCollector();
+    assertTrue(collector instanceof CompositeMessageMetricsCollector);
+    List<MessageMetricsCollector> collectors = ((CompositeMessageMetricsCollector) collector).getCollectors();
+    assertEquals(3, collectors.size());
+    JmxMessageMetricsCollector messages = (JmxMessageMetricsCollector) collectors.get(0);
+    assertEquals(4, messages.getParallelism());
+    assertEquals(2000l, messages.getReadTimeoutMillis());
+    assertTrue(messages.getIncrementalFetch());
+    assertTrue(collectors.get(1) instanceof JmxInFlightMetricsCollector);
+    assertTrue(collectors.get(2) instanceof JmxMetadataMetricsCollector);
+    component.destroy();
+  }
+
+  @Test
+  public void testConfiguresInProcessCollector() throws Exception {
+    Properties config = new Properties();
+    config.put("kubernetesMetricsCollector", "in-process");
+    config.put("kubernetesMetricsAdditionalCollectors", "in-flight");
+    component.init(config);
+
+    List<MessageMetricsCollector> collectors = ((CompositeMessageMetricsCollector) component.getMessageMetricsBus().getCollector()).getCollectors();
+    assertTrue(collectors.get(0) instanceof InProcessMessageMetricsCollector);
+    assertTrue(collectors.get(1) instanceof JmxInFlightMetricsCollector);
+    component.destroy();
+  }
+
+  private static KubernetesMetricsAdapter adapter(String name) {
+    KubernetesMetricsAdapter adapter = mock(KubernetesMetricsAdapter.class);
+    when(adapter.getImplementationName()).thenReturn(name);
+    return adapter;
+  }
+
 }
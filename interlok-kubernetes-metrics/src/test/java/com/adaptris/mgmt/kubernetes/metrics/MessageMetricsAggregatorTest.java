@@ -0,0 +1,251 @@
+package com.adaptris.mgmt.kubernetes.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.adaptris.core.interceptor.MessageStatistic;
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetricsAggregator.Label;
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetricsAggregator.Relabel;
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetricsAggregator.Rollup;
+
+public class MessageMetricsAggregatorTest {
+
+  private MessageMetricsAggregator aggregator;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    aggregator = new MessageMetricsAggregator();
+  }
+
+  @Test
+  public void testNotEnabledByDefault() throws Exception {
+    MessageStatisticExtended statistic = statistic("channel1", "workflow1", 10);
+
+    assertFalse(aggregator.isEnabled());
+    assertSame(statistic, aggregator.aggregate(Arrays.asList(statistic)).get(0));
+  }
+
+  @Test
+  public void testDenyPatterns() throws Exception {
+    aggregator.getDenyPatterns().add(Pattern.compile(".*/debug-.*"));
+
+    List<MessageStatisticExtended> aggregated = aggregator.aggregate(Arrays.asList(statistic("channel1", "workflow1", 10), statistic("channel1", "debug-1", 5)));
+
+    assertTrue(aggregator.isEnabled());
+    assertEquals(1, aggregated.size());
+    assertEquals("workflow1", aggregated.get(0).getWorkflowId());
+  }
+
+  @Test
+  public void testAllowPatterns() throws Exception {
+    aggregator.getAllowPatterns().add(Pattern.compile("orders/.*"));
+
+    List<MessageStatisticExtended> aggregated = aggregator.aggregate(Arrays.asList(statistic("orders", "workflow1", 10), statistic("invoices", "workflow1", 5)));
+
+    assertEquals(1, aggregated.size());
+    assertEquals("orders", aggregated.get(0).getChannelId());
+  }
+
+  @Test
+  public void testRelabelMergesSameLabels() throws Exception {
+    aggregator.getRelabels().add(new Relabel(Label.WORKFLOW, Pattern.compile("(.*)-[0-9]+"), "$1"));
+
+    List<MessageStatisticExtended> aggregated = aggregator.aggregate(Arrays.asList(statistic("channel1", "poller-1", 10), statistic("channel1", "poller-2", 5),
+        statistic("channel1", "sender", 1)));
+
+    assertEquals(2, aggregated.size());
+    assertEquals("poller", aggregated.get(0).getWorkflowId());
+    assertEquals(15, aggregated.get(0).getStatistics().get(0).getTotalMessageCount());
+    assertEquals("sender", aggregated.get(1).getWorkflowId());
+  }
+
+  @Test
+  public void testRelabelStrip() throws Exception {
+    aggregator.getRelabels().add(new Relabel(Label.ADAPTER, Pattern.compile(".*"), ""));
+
+    List<MessageStatisticExtended> aggregated = aggregator.aggregate(Arrays.asList(statistic("channel1", "workflow1", 10)));
+
+    assertEquals("", aggregated.get(0).getAdapterId());
+    assertEquals("workflow1", aggregated.get(0).getWorkflowId());
+  }
+
+  @Test
+  public void testChannelRollupKeepsTotals() throws Exception {
+    aggregator.setRollup(Rollup.CHANNEL);
+    MessageStatisticExtended first = statistic("channel1", "workflow1", 10);
+    first.getStatistics().add(timeslice(2000, 4));
+    MessageStatisticExtended second = statistic("channel1", "workflow2", 5);
+
+    List<MessageStatisticExtended> aggregated = aggregator.aggregate(Arrays.asList(first, second, statistic("channel2", "workflow1", 1)));
+
+    assertEquals(2, aggregated.size());
+    MessageStatisticExtended channel = aggregated.get(0);
+    assertEquals("channel1", channel.getChannelId());
+    assertEquals("", channel.getWorkflowId());
+    assertEquals(2, channel.getStatistics().size());
+    assertEquals(15, channel.getStatistics().get(0).getTotalMessageCount());
+    assertEquals(2, channel.getStatistics().get(0).getTotalMessageErrorCount());
+    assertEquals(1500, channel.getStatistics().get(0).getTotalMessageSize());
+    assertEquals(4, channel.getStatistics().get(1).getTotalMessageCount());
+    // the same statistic id each cycle, so the calculator keeps its place
+    assertEquals(channel.getStatisticId(), aggregator.aggregate(Arrays.asList(first, second)).get(0).getStatisticId());
+  }
+
+  @Test
+  public void testAdapterRollupKeepsKindsApart() throws Exception {
+    aggregator.setRollup(Rollup.ADAPTER);
+    MessageStatisticExtended inFlight1 = statistic("channel1", "workflow1", 0);
+    inFlight1.setInFlightCount(2l);
+    MessageStatisticExtended inFlight2 = statistic("channel2", "workflow1", 0);
+    inFlight2.setInFlightCount(3l);
+    MessageStatisticExtended metadata1 = statistic("channel1", "workflow1", 0);
+    metadata1.setMetadataCounts(new HashMap<>());
+    metadata1.getMetadataCounts().put("order", 4l);
+    MessageStatisticExtended metadata2 = statistic("channel2", "workflow1", 0);
+    metadata2.setMetadataCounts(new HashMap<>());
+    metadata2.getMetadataCounts().put("order", 1l);
+    metadata2.getMetadataCounts().put("invoice", 1l);
+
+    List<MessageStatisticExtended> aggregated = aggregator.aggregate(Arrays.asList(statistic("channel1", "workflow1", 10), statistic("channel2", "workflow1", 5),
+        inFlight1, inFlight2, metadata1, metadata2));
+
+    assertEquals(3, aggregated.size());
+    assertEquals(15, aggregated.get(0).getStatistics().get(0).getTotalMessageCount());
+    assertEquals("", aggregated.get(0).getChannelId());
+    assertEquals(5l, aggregated.get(1).getInFlightCount());
+    assertEquals(5l, aggregated.get(2).getMetadataCounts().get("order"));
+    assertEquals(1l, aggregated.get(2).getMetadataCounts().get("invoice"));
+  }
+
+  @Test
+  public void testTopKWithOtherSeries() throws Exception {
+    aggregator.setTopK(2);
+    MessageStatisticExtended inFlight = statistic("channel2", "workflow4", 0);
+    inFlight.setInFlightCount(6l);
+
+    List<MessageStatisticExtended> aggregated = aggregator.aggregate(Arrays.asList(statistic("channel1", "workflow1", 2), statistic("channel1", "workflow2", 50),
+        statistic("channel2", "workflow3", 1), statistic("channel2", "workflow4", 40), inFlight, statistic("channel2", "workflow5", 30)));
+
+    assertTrue(aggregator.isEnabled());
+    assertEquals(4, aggregated.size());
+    assertEquals("workflow2", aggregated.get(0).getWorkflowId());
+    assertEquals("workflow4", aggregated.get(1).getWorkflowId());
+    assertEquals(6l, aggregated.get(2).getInFlightCount());
+    MessageStatisticExtended other = aggregated.get(3);
+    assertEquals("other", other.getWorkflowId());
+    assertEquals("", other.getChannelId());
+    assertEquals(33, other.getStatistics().get(0).getTotalMessageCount());
+  }
+
+  @Test
+  public void testTopKFollowsTheBusiest() throws Exception {
+    aggregator.setTopK(1);
+    aggregator.setTopKDecay(0.1);
+    MessageStatisticExtended first = statistic("channel1", "workflow1", 50);
+    MessageStatisticExtended second = statistic("channel1", "workflow2", 5);
+    assertEquals("workflow1", aggregator.aggregate(Arrays.asList(first, second)).get(0).getWorkflowId());
+
+    first.getStatistics().add(timeslice(2000, 1));
+    second.getStatistics().add(timeslice(2000, 100));
+    List<MessageStatisticExtended> aggregated = aggregator.aggregate(Arrays.asList(first, second));
+
+    assertEquals(2, aggregated.size());
+    assertEquals("workflow2", aggregated.get(0).getWorkflowId());
+    // only what completed since the last snapshot moves with them, the rest was passed on under their old series
+    assertEquals(1, aggregated.get(0).getStatistics().size());
+    assertEquals(100, aggregated.get(0).getStatistics().get(0).getTotalMessageCount());
+    assertEquals("other", aggregated.get(1).getWorkflowId());
+    assertEquals(1, aggregated.get(1).getStatistics().size());
+    assertEquals(1, aggregated.get(1).getStatistics().get(0).getTotalMessageCount());
+  }
+
+  @Test
+  public void testTopKReturningSeriesNotCountedTwice() throws Exception {
+    aggregator.setTopK(1);
+    aggregator.setTopKDecay(0.1);
+    MessagesPerSecondCalculator downstream = new MessagesPerSecondCalculator();
+    MessageStatisticExtended first = statistic("channel1", "workflow1", 50);
+    MessageStatisticExtended second = statistic("channel1", "workflow2", 5);
+    long total = count(downstream, aggregator.aggregate(Arrays.asList(first, second)));
+
+    // the second takes over, then the first comes back
+    first.getStatistics().add(timeslice(2000, 1));
+    second.getStatistics().add(timeslice(2000, 100));
+    total += count(downstream, aggregator.aggregate(Arrays.asList(first, second)));
+    first.getStatistics().add(timeslice(3000, 1000));
+    second.getStatistics().add(timeslice(3000, 1));
+    List<MessageStatisticExtended> aggregated = aggregator.aggregate(Arrays.asList(first, second));
+    total += count(downstream, aggregated);
+
+    assertEquals("workflow1", aggregated.get(0).getWorkflowId());
+    assertEquals(50 + 5 + 1 + 100 + 1000 + 1, total);
+  }
+
+  @Test
+  public void testTopKPullsKeepTheSnapshotsBusiest() throws Exception {
+    aggregator.setTopK(1);
+    aggregator.setTopKDecay(0.1);
+    MessageStatisticExtended first = statistic("channel1", "workflow1", 50);
+    MessageStatisticExtended second = statistic("channel1", "workflow2", 5);
+    // nothing is picked out before the first snapshot
+    assertEquals("other", aggregator.aggregatePulled(Arrays.asList(first, second)).get(0).getWorkflowId());
+    assertEquals("workflow1", aggregator.aggregate(Arrays.asList(first, second)).get(0).getWorkflowId());
+
+    // however busy the second is on the scrapes, only the next snapshot can change the busiest
+    second.getStatistics().add(timeslice(2000, 100));
+    for(int scrape = 0; scrape < 3; scrape ++)
+      assertEquals("workflow1", aggregator.aggregatePulled(Arrays.asList(first, second)).get(0).getWorkflowId());
+    assertEquals("workflow2", aggregator.aggregate(Arrays.asList(first, second)).get(0).getWorkflowId());
+  }
+
+  @Test
+  public void testTopKChannels() throws Exception {
+    aggregator.setRollup(Rollup.CHANNEL);
+    aggregator.setTopK(1);
+
+    List<MessageStatisticExtended> aggregated = aggregator.aggregate(Arrays.asList(statistic("channel1", "workflow1", 2), statistic("channel2", "workflow1", 20),
+        statistic("channel3", "workflow1", 3)));
+
+    assertEquals(2, aggregated.size());
+    assertEquals("channel2", aggregated.get(0).getChannelId());
+    assertEquals("other", aggregated.get(1).getChannelId());
+    assertEquals(5, aggregated.get(1).getStatistics().get(0).getTotalMessageCount());
+  }
+
+  private static long count(MetricsCalculator calculator, List<MessageStatisticExtended> statistics) {
+    long count = 0;
+    for(MessageStatisticExtended statistic : statistics)
+      count += Math.max(calculator.calculate(10, statistic).getMessageCount(), 0);
+    calculator.retainStatistics(statistics);
+    return count;
+  }
+
+  private static MessageStatisticExtended statistic(String channel, String workflow, long messages) {
+    MessageStatisticExtended statistic = new MessageStatisticExtended();
+    statistic.setAdapterId("adapter");
+    statistic.setChannelId(channel);
+    statistic.setWorkflowId(workflow);
+    statistic.setStatisticId(channel + "-" + workflow);
+    statistic.getStatistics().add(timeslice(1000, messages));
+    return statistic;
+  }
+
+  private static MessageStatistic timeslice(long endMillis, long messages) {
+    MessageStatistic timeslice = new MessageStatistic(endMillis);
+    timeslice.setTotalMessageCount(messages);
+    timeslice.setTotalMessageErrorCount(messages > 0 ? 1 : 0);
+    timeslice.setTotalMessageSize(messages * 100);
+    return timeslice;
+  }
+
+}
@@ -0,0 +1,202 @@
+package com.adaptris.mgmt.kubernetes.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+public class MessageMetricsBusTest {
+
+  private MessageMetricsCollector collector;
+
+  private MessageMetricsBus bus;
+
+  private List<MessageStatisticExtended> statistics;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    statistics = new ArrayList<>(Arrays.asList(new MessageStatisticExtended()));
+    collector = new MessageMetricsCollectorImpl() {
+      @Override
+      public List<MessageStatisticExtended> collectStatistics() {
+        return statistics;
+      }
+
+      @Override
+      public void prepare() {
+      }
+    };
+    bus = new MessageMetricsBus(collector);
+    bus.setIntervalSeconds(3600);
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    bus.stop();
+  }
+
+  @Test
+  public void testFansOutEachCollection() throws Exception {
+    MessageMetricsListener first = mock(MessageMetricsListener.class);
+    MessageMetricsListener second = mock(MessageMetricsListener.class);
+    bus.registerListener(first);
+    bus.registerListener(second);
+    bus.start();
+
+    bus.run();
+
+    verify(first, timeout(5000)).notifyMessageMetrics(eq(statistics), any());
+    verify(second, timeout(5000)).notifyMessageMetrics(eq(statistics), any());
+    assertTrue(bus.hasListeners());
+  }
+
+  @Test
+  public void testSlowListenerDoesNotHoldUpOthers() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    MessageMetricsListener slow = mock(MessageMetricsListener.class);
+    doAnswer(invocation -> release.await(10, TimeUnit.SECONDS)).when(slow).notifyMessageMetrics(any(), any());
+    MessageMetricsListener fast = mock(MessageMetricsListener.class);
+    bus.setQueueSize(1);
+    bus.registerListener(slow);
+    bus.registerListener(fast);
+    bus.start();
+
+    bus.run();
+    verify(slow, timeout(5000)).notifyMessageMetrics(any(), any());
+    verify(fast, timeout(5000)).notifyMessageMetrics(any(), any());
+    for(int cycle = 2; cycle <= 5; cycle ++) {
+      bus.run();
+      verify(fast, timeout(5000).times(cycle)).notifyMessageMetrics(any(), any());
+    }
+
+    release.countDown();
+    // one taken while blocked, one queued, the rest dropped
+    verify(slow, timeout(5000).times(2)).notifyMessageMetrics(any(), any());
+    assertEquals(3, bus.droppedSnapshots(slow));
+    assertEquals(0, bus.droppedSnapshots(fast));
+  }
+
+  @Test
+  public void testListenerErrorDoesNotStopDelivery() throws Exception {
+    MessageMetricsListener failing = mock(MessageMetricsListener.class);
+    doAnswer(invocation -> {
+      throw new IllegalStateException("expected");
+    }).when(failing).notifyMessageMetrics(any(), any());
+    bus.registerListener(failing);
+    bus.start();
+
+    bus.run();
+    bus.run();
+
+    verify(failing, timeout(5000).times(2)).notifyMessageMetrics(any(), any());
+  }
+
+  @Test
+  public void testDeregisterListener() throws Exception {
+    MessageMetricsListener listener = mock(MessageMetricsListener.class);
+    bus.registerListener(listener);
+    bus.deregisterListener(listener);
+    bus.start();
+
+    bus.run();
+
+    assertFalse(bus.hasListeners());
+    Thread.sleep(100);
+    verify(listener, never()).notifyMessageMetrics(any(), any());
+  }
+
+  @Test
+  public void testPreparesSharedCollectorOnce() throws Exception {
+    MessageMetricsCollector mockCollector = mock(MessageMetricsCollector.class);
+    when(mockCollector.collectStatistics()).thenReturn(statistics);
+    bus.setCollector(mockCollector);
+
+    bus.prepare();
+    bus.prepare();
+
+    verify(mockCollector, times(1)).prepare();
+    verify(mockCollector).registerListener(bus);
+    assertSame(statistics, bus.collectStatistics());
+  }
+
+  @Test
+  public void testPreparesAgainAfterStop() throws Exception {
+    MessageMetricsCollector mockCollector = mock(MessageMetricsCollector.class);
+    bus.setCollector(mockCollector);
+
+    bus.prepare();
+    bus.start();
+    bus.stop();
+    bus.prepare();
+
+    verify(mockCollector, times(2)).prepare();
+  }
+
+  @Test
+  public void testCollectionTimed() throws Exception {
+    MessageMetricsListener listener = mock(MessageMetricsListener.class);
+    bus.registerListener(listener);
+    bus.start();
+
+    long before = System.nanoTime();
+    bus.run();
+    long after = System.nanoTime();
+
+    ArgumentCaptor<MessageMetricsCycle> captor = ArgumentCaptor.forClass(MessageMetricsCycle.class);
+    verify(listener, timeout(5000)).notifyMessageMetrics(eq(statistics), captor.capture());
+    assertTrue(captor.getValue().getStartNanos() >= before);
+    assertTrue(captor.getValue().getCollectionNanos() >= 0);
+    assertTrue(captor.getValue().getStartNanos() + captor.getValue().getCollectionNanos() <= after);
+  }
+
+  @Test
+  public void testAggregatorAppliedBeforeListeners() throws Exception {
+    MessageMetricsAggregator aggregator = mock(MessageMetricsAggregator.class);
+    List<MessageStatisticExtended> aggregated = new ArrayList<>();
+    List<MessageStatisticExtended> pulled = new ArrayList<>();
+    when(aggregator.aggregate(statistics)).thenReturn(aggregated);
+    when(aggregator.aggregatePulled(statistics)).thenReturn(pulled);
+    MessageMetricsListener listener = mock(MessageMetricsListener.class);
+    bus.setAggregator(aggregator);
+    bus.registerListener(listener);
+    bus.start();
+
+    bus.run();
+
+    verify(listener, timeout(5000)).notifyMessageMetrics(eq(aggregated), any());
+    // a pull doesn't move the top k on
+    assertSame(pulled, bus.collectStatistics());
+    verify(aggregator, times(1)).aggregate(statistics);
+  }
+
+  @Test
+  public void testCollectsOnSchedule() throws Exception {
+    MessageMetricsListener listener = mock(MessageMetricsListener.class);
+    bus.setIntervalSeconds(0);
+    bus.registerListener(listener);
+    bus.start();
+
+    verify(listener, timeout(5000).atLeast(2)).notifyMessageMetrics(any(), any());
+  }
+
+}
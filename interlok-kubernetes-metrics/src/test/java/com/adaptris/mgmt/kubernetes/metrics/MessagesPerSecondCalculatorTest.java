@@ -0,0 +1,361 @@
+package com.adaptris.mgmt.kubernetes.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.adaptris.core.interceptor.MessageStatistic;
+
+public class MessagesPerSecondCalculatorTest {
+  
+  private static final long FIVE_SECONDS = 5000;
+  private static final long TWO_SECONDS = 2000;
+  
+  private MessagesPerSecondCalculator calculator;
+  
+  @BeforeEach
+  public void setUp() throws Exception {
+    calculator = new MessagesPerSecondCalculator();
+  }
+  
+  @Test
+  public void testNoStats() throws Exception {
+    // If there are no stats from JMX, then we should return -1, therefore send nothing to Prometheus.
+    long messagesPerSecond = calculator.calculateMessagesPerSecond(10l, new MessageStatisticExtended());
+    
+    assertEquals(-1, messagesPerSecond);
+  }
+  
+  @Test
+  public void testNoCompletedTimeSlices() throws Exception {
+    // If there are no completed time slice stats from JMX, then we should return -1, therefore send nothing to Prometheus.
+    
+    MessageStatisticExtended messageStatisticExtended = new MessageStatisticExtended();
+    MessageStatistic uncompletedStat = new MessageStatistic(System.currentTimeMillis() + FIVE_SECONDS);
+    messageStatisticExtended.getStatistics().add(uncompletedStat);
+    
+    long messagesPerSecond = calculator.calculateMessagesPerSecond(10l, messageStatisticExtended);
+    
+    assertEquals(-1, messagesPerSecond);
+  }
+  
+  @Test
+  public void testSingleCompletedTimeSlices() throws Exception {
+    // Adapter probably only just started and has processed all of the messages on a queue, lets say 10.
+    // No new messages for the last few seconds.
+    // We should send 10 to Prometheus, cos the time slice has completed.
+    
+    MessageStatisticExtended messageStatisticExtended = new MessageStatisticExtended();
+    messageStatisticExtended.setStatisticId("MyStatId");
+    // This time slice ended 5 seconds ago.
+    MessageStatistic completedStat = new MessageStatistic(System.currentTimeMillis() - FIVE_SECONDS);
+    completedStat.setTotalMessageCount(10);
+    messageStatisticExtended.getStatistics().add(completedStat);
+    
+    long messagesPerSecond = calculator.calculateMessagesPerSecond(10l, messageStatisticExtended);
+    
+    assertEquals(10, messagesPerSecond);
+  }
+  
+  @Test
+  public void testAlreadyProcessedTimeSlices() throws Exception {
+    // Adapter has processed say 10 messages, in a time slice that has ended a while ago.  We'll run the calculator.
+    // Then the adapter processes a further 12 messages, a few seconds later we re-run the calculator.
+    // We expect to get the result 10, followed by 12.
+    
+    MessageStatisticExtended messageStatisticExtended = new MessageStatisticExtended();
+    messageStatisticExtended.setStatisticId("MyStatId");
+    // This time slice ended 15 seconds ago.
+    MessageStatistic completedStat = new MessageStatistic(System.currentTimeMillis() - (FIVE_SECONDS * 3));
+    completedStat.setTotalMessageCount(10);
+    messageStatisticExtended.getStatistics().add(completedStat);
+        
+    assertEquals(10, calculator.calculateMessagesPerSecond(10l, messageStatisticExtended));
+    
+    // now we add a new time slice with 12 messages in it, that ended 5 seconds ago.
+    
+    MessageStatistic secondCompletedStat = new MessageStatistic(System.currentTimeMillis() - (FIVE_SECONDS));
+    secondCompletedStat.setTotalMessageCount(12);
+    messageStatisticExtended.getStatistics().add(secondCompletedStat);
+        
+    assertEquals(12, calculator.calculateMessagesPerSecond(10l, messageStatisticExtended));
+  }
+  
+  @Test
+  public void testAlreadyProcessedWithAnUncompletedTimeSlice() throws Exception {
+    // Similar to the above...
+    // Adapter has processed say 10 messages, in a time slice that has ended a while ago.  We'll run the calculator.
+    // Then the adapter processes a further 12 messages, a few seconds later we re-run the calculator.
+    // A new timeslice has been created but hasn't ended yet and has 6 procesed messages in it.
+    // We expect to return 10, then 12 and because our timeslice has not finished yet -1
+    // -1 Because we are not yet ready to send this metric (it hasn't finished).
+    
+    MessageStatisticExtended messageStatisticExtended = new MessageStatisticExtended();
+    messageStatisticExtended.setStatisticId("MyStatId");
+    // This time slice ended 15 seconds ago.
+    MessageStatistic completedStat = new MessageStatistic(System.currentTimeMillis() - (FIVE_SECONDS * 3));
+    completedStat.setTotalMessageCount(10);
+    messageStatisticExtended.getStatistics().add(completedStat);
+        
+    assertEquals(10, calculator.calculateMessagesPerSecond(10l, messageStatisticExtended));
+    
+    // now we add a new time slice with 12 messages in it, that ended 5 seconds ago.
+    
+    MessageStatistic secondCompletedStat = new MessageStatistic(System.currentTimeMillis() - (FIVE_SECONDS));
+    secondCompletedStat.setTotalMessageCount(12);
+    messageStatisticExtended.getStatistics().add(secondCompletedStat);
+        
+    assertEquals(12, calculator.calculateMessagesPerSecond(10l, messageStatisticExtended));
+    
+    MessageStatistic unCompletedStat = new MessageStatistic(System.currentTimeMillis() + (FIVE_SECONDS));
+    unCompletedStat.setTotalMessageCount(6);
+    messageStatisticExtended.getStatistics().add(unCompletedStat);
+        
+    assertEquals(-1, calculator.calculateMessagesPerSecond(10l, messageStatisticExtended));
+  }
+  
+  @Test
+  public void testAlreadyProcessedWithNoNewMessagesProcessed() throws Exception {
+    // Similar to the above...
+    // Adapter has processed say 10 messages, in a time slice that has ended a while ago.  We'll run the calculator.
+    // Then the adapter processes a further 12 messages, a few seconds later we re-run the calculator.
+    // But for the last 10 seconds no new messages have been processed, we need to reset the Prometheus stat to say we haven't processed any in a while, so zero returned.
+    
+    MessageStatisticExtended messageStatisticExtended = new MessageStatisticExtended();
+    messageStatisticExtended.setStatisticId("MyStatId");
+    // This time slice ended 15 seconds ago.
+    MessageStatistic completedStat = new MessageStatistic(System.currentTimeMillis() - (FIVE_SECONDS * 3));
+    completedStat.setTotalMessageCount(10);
+    messageStatisticExtended.getStatistics().add(completedStat);
+        
+    assertEquals(10, calculator.calculateMessagesPerSecond(10l, messageStatisticExtended));
+    
+    // now we add a new time slice with 12 messages in it, that ended 10 seconds ago.
+    MessageStatistic secondCompletedStat = new MessageStatistic(System.currentTimeMillis() - (FIVE_SECONDS * 2));
+    secondCompletedStat.setTotalMessageCount(12);
+    messageStatisticExtended.getStatistics().add(secondCompletedStat);
+        
+    assertEquals(12, calculator.calculateMessagesPerSecond(10l, messageStatisticExtended));
+
+    // You'll notice we have not created a new time slice with zero messages in it.  
+    // Simply because new time slices are only created when we process a message!  So there will
+    // never be a time slice with zero messages in it.
+    // The calculator runs and should return zero, because it has already processed the above two time slices
+    // and no new messages since (we know that because there is no active (uncompleted) timeslice).
+    assertEquals(0, calculator.calculateMessagesPerSecond(10l, messageStatisticExtended));
+  }
+  
+  @Test
+  public void testAlreadyProcessedWithNoNewMessagesProcessedMultipleCalInvocations() throws Exception {
+    // Almost identical to the above...
+    // This is for extra bonus points.  If we send zero to prometheus once, then we shouldn't continue to send zero time after time.
+    // We can save network IO by simply returning -1 instead of a second/third/millionth zero in a row.
+    // Remember if we return -1 from this method then nothing is sent to Prometheus.
+    
+    MessageStatisticExtended messageStatisticExtended = new MessageStatisticExtended();
+    messageStatisticExtended.setStatisticId("MyStatId");
+    // This time slice ended 15 seconds ago.
+    MessageStatistic completedStat = new MessageStatistic(System.currentTimeMillis() - (FIVE_SECONDS * 3));
+    completedStat.setTotalMessageCount(10);
+    messageStatisticExtended.getStatistics().add(completedStat);
+        
+    assertEquals(10, calculator.calculateMessagesPerSecond(10l, messageStatisticExtended));
+    
+    // now we add a new time slice with 12 messages in it, that ended 10 seconds ago.
+    MessageStatistic secondCompletedStat = new MessageStatistic(System.currentTimeMillis() - (FIVE_SECONDS * 2));
+    secondCompletedStat.setTotalMessageCount(12);
+    messageStatisticExtended.getStatistics().add(secondCompletedStat);
+        
+    assertEquals(12, calculator.calculateMessagesPerSecond(10l, messageStatisticExtended));
+
+    // You'll notice we have not created a new time slice with zero messages in it.  
+    // Simply because new time slices are only created when we process a message!  So there will
+    // never be a time slice with zero messages in it.
+    // The calculator runs and should return zero, because it has already processed the above two time slices and sent the values to Prometheus
+    // and no new messages since (we know that because there is no active (uncompleted) timeslice).
+    assertEquals(0, calculator.calculateMessagesPerSecond(10l, messageStatisticExtended));
+    
+    // We've sent zero previously, which is good because it resets the Prometheus stat.
+    // but now we still haven't processed any messages, so lets not send unnecessary IO and just return -1.
+    assertEquals(-1, calculator.calculateMessagesPerSecond(10l, messageStatisticExtended));
+  }
+  
+  @Test
+  public void testStateIsPerCalculatorInstance() throws Exception {
+    // Two adapters in the same JVM each have their own calculator, processing a time slice in one 
+    // must not hide it from the other.
+    MessageStatisticExtended messageStatisticExtended = new MessageStatisticExtended();
+    messageStatisticExtended.setStatisticId("MyStatId");
+    MessageStatistic completedStat = new MessageStatistic(System.currentTimeMillis() - FIVE_SECONDS);
+    completedStat.setTotalMessageCount(10);
+    messageStatisticExtended.getStatistics().add(completedStat);
+    
+    assertEquals(10, calculator.calculateMessagesPerSecond(10l, messageStatisticExtended));
+    assertEquals(10, new MessagesPerSecondCalculator().calculateMessagesPerSecond(10l, messageStatisticExtended));
+  }
+  
+  @Test
+  public void testRetainStatisticsEvictsMissingStatistics() throws Exception {
+    MessageStatisticExtended messageStatisticExtended = new MessageStatisticExtended();
+    messageStatisticExtended.setStatisticId("MyStatId");
+    MessageStatistic completedStat = new MessageStatistic(System.currentTimeMillis() - FIVE_SECONDS);
+    completedStat.setTotalMessageCount(10);
+    messageStatisticExtended.getStatistics().add(completedStat);
+    
+    assertEquals(10, calculator.calculateMessagesPerSecond(10l, messageStatisticExtended));
+    
+    // The workflow was removed, so its statistic was not found in the last collection cycle.
+    calculator.retainStatistics(new ArrayList<>());
+    
+    assertEquals(10, calculator.calculateMessagesPerSecond(10l, messageStatisticExtended));
+  }
+  
+  @Test
+  public void testSameStatisticIdInAnotherWorkflowCountedSeparately() throws Exception {
+    // Statistic ids are only unique within a workflow, two workflows with the same one must not share a watermark.
+    long now = System.currentTimeMillis();
+    MessageStatisticExtended first = new MessageStatisticExtended();
+    first.setWorkflowId("workflow1");
+    first.setStatisticId("MyStatId");
+    MessageStatistic firstStat = new MessageStatistic(now - TWO_SECONDS);
+    firstStat.setTotalMessageCount(10);
+    first.getStatistics().add(firstStat);
+    MessageStatisticExtended second = new MessageStatisticExtended();
+    second.setWorkflowId("workflow2");
+    second.setStatisticId("MyStatId");
+    MessageStatistic secondStat = new MessageStatistic(now - FIVE_SECONDS);
+    secondStat.setTotalMessageCount(7);
+    second.getStatistics().add(secondStat);
+    
+    assertEquals(10, calculator.calculateMessagesPerSecond(10l, first));
+    assertEquals(7, calculator.calculateMessagesPerSecond(10l, second));
+    
+    calculator.retainStatistics(Arrays.asList(first));
+    assertEquals(0, calculator.calculateMessagesPerSecond(10l, first));
+    assertEquals(7, calculator.calculateMessagesPerSecond(10l, second));
+  }
+  
+  @Test
+  public void testManyTimeslicesNotDoubleCounted() throws Exception {
+    // Well over the number of time slices the previous implementation could remember.
+    MessageStatisticExtended messageStatisticExtended = new MessageStatisticExtended();
+    messageStatisticExtended.setStatisticId("MyStatId");
+    long now = System.currentTimeMillis();
+    for(int counter = 2000; counter > 0; counter --) {
+      MessageStatistic completedStat = new MessageStatistic(now - counter);
+      completedStat.setTotalMessageCount(1);
+      messageStatisticExtended.getStatistics().add(completedStat);
+    }
+    
+    assertEquals(2000, calculator.calculateMessagesPerSecond(10l, messageStatisticExtended));
+    assertEquals(0, calculator.calculateMessagesPerSecond(10l, messageStatisticExtended));
+  }
+  
+  @Test
+  public void testCalculateErrorsAndSizesInSinglePass() throws Exception {
+    MessageStatisticExtended messageStatisticExtended = new MessageStatisticExtended();
+    messageStatisticExtended.setStatisticId("MyStatId");
+    
+    MessageStatistic completedStat = new MessageStatistic(System.currentTimeMillis() - (TWO_SECONDS * 3));
+    completedStat.setTotalMessageCount(15);
+    completedStat.setTotalMessageErrorCount(1);
+    completedStat.setTotalMessageSize(1500);
+    messageStatisticExtended.getStatistics().add(completedStat);
+    
+    MessageStatistic secondCompletedStat = new MessageStatistic(System.currentTimeMillis() - (TWO_SECONDS * 2));
+    secondCompletedStat.setTotalMessageCount(5);
+    secondCompletedStat.setTotalMessageErrorCount(4);
+    secondCompletedStat.setTotalMessageSize(500);
+    messageStatisticExtended.getStatistics().add(secondCompletedStat);
+    
+    MessageMetrics metrics = calculator.calculate(10l, messageStatisticExtended);
+    
+    assertEquals(20, metrics.getMessageCount());
+    assertEquals(5, metrics.getErrorCount());
+    assertEquals(2000, metrics.getMessageSize());
+    assertEquals(2d, metrics.messagesPerSecond());
+    assertEquals(0.25d, metrics.errorRate());
+    assertEquals(200d, metrics.bytesPerSecond());
+    assertEquals(100d, metrics.averageMessageSize());
+    
+    // all processed, nothing new.
+    assertEquals(0, calculator.calculate(10l, messageStatisticExtended).getMessageCount());
+    assertFalse(calculator.calculate(10l, messageStatisticExtended).hasNewData());
+  }
+  
+  @Test
+  public void testMultipleUnprocessedTimeslices() throws Exception {
+    // The calculator is called every 10 seconds.  But what if the user has configured their 
+    // Intercepter to have time slices of 2 seconds.
+    // And lets say they have 2 completed times slices (with 15 and 20 messages processed) that we have not calculated yet.
+    
+    MessageStatisticExtended messageStatisticExtended = new MessageStatisticExtended();
+    messageStatisticExtended.setStatisticId("MyStatId");
+    
+    // This time slice ended 6 seconds ago.
+    MessageStatistic completedStat = new MessageStatistic(System.currentTimeMillis() - (TWO_SECONDS * 3));
+    completedStat.setTotalMessageCount(15);
+    messageStatisticExtended.getStatistics().add(completedStat);
+            
+    // now we add a new time slice with 20 messages in it, that ended 4 seconds ago.
+    MessageStatistic secondCompletedStat = new MessageStatistic(System.currentTimeMillis() - (TWO_SECONDS * 2));
+    secondCompletedStat.setTotalMessageCount(20);
+    messageStatisticExtended.getStatistics().add(secondCompletedStat);
+        
+    // We expect that because this methid is called every 10 seconds, we should tally up all unprocessed
+    // and completed time slices into a single value.  So 15 + 20, we should return 35.
+    assertEquals(35, calculator.calculateMessagesPerSecond(10l, messageStatisticExtended));
+
+  }
+  
+  @Test
+  public void testLateCalculationCountsEveryNewTimeslice() throws Exception {
+    // The cycle ran late (a long GC pause, a failed cycle), so there are 30 seconds of new timeslices for a 10 second period.
+    // They all go in the totals, only the last 10 seconds go in the rates.
+    MessageStatisticExtended messageStatisticExtended = new MessageStatisticExtended();
+    messageStatisticExtended.setStatisticId("MyStatId");
+    long now = System.currentTimeMillis();
+    for(int counter = 6; counter > 0; counter --) {
+      MessageStatistic completedStat = new MessageStatistic(now - counter * FIVE_SECONDS);
+      completedStat.setTotalMessageCount(counter);
+      completedStat.setTotalMessageErrorCount(1);
+      messageStatisticExtended.getStatistics().add(completedStat);
+    }
+    
+    MessageMetrics metrics = calculator.calculate(10l, messageStatisticExtended);
+    
+    assertEquals(21, metrics.getMessageCount());
+    assertEquals(6, metrics.getErrorCount());
+    assertEquals(3, metrics.getWindowMessageCount());
+    assertEquals(2, metrics.getWindowErrorCount());
+    assertEquals(0.3d, metrics.messagesPerSecond(), 0.0001);
+    assertEquals(0, calculator.calculate(10l, messageStatisticExtended).getMessageCount());
+  }
+  
+  @Test
+  public void testRatesUseTheTimeTheTimeslicesCover() throws Exception {
+    // Two 2 second timeslices are all there is for a 10 second period, so the rates are over 4 seconds, not 10.
+    MessageStatisticExtended messageStatisticExtended = new MessageStatisticExtended();
+    messageStatisticExtended.setStatisticId("MyStatId");
+    long now = System.currentTimeMillis();
+    for(int counter = 2; counter > 0; counter --) {
+      MessageStatistic completedStat = new MessageStatistic(now - counter * TWO_SECONDS);
+      completedStat.setStartMillis(completedStat.getEndMillis() - TWO_SECONDS);
+      completedStat.setTotalMessageCount(8);
+      completedStat.setTotalMessageErrorCount(2);
+      messageStatisticExtended.getStatistics().add(completedStat);
+    }
+    
+    MessageMetrics metrics = calculator.calculate(10l, messageStatisticExtended);
+    
+    assertEquals(4, metrics.getPeriodSeconds());
+    assertEquals(4.0d, metrics.messagesPerSecond(), 0.0001);
+    assertEquals(1.0d, metrics.errorsPerSecond(), 0.0001);
+  }
+
+}
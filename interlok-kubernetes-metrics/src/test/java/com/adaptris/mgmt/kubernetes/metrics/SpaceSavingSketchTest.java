@@ -0,0 +1,73 @@
+package com.adaptris.mgmt.kubernetes.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class SpaceSavingSketchTest {
+
+  @Test
+  public void testCountsWithinCapacity() throws Exception {
+    SpaceSavingSketch sketch = new SpaceSavingSketch(3);
+    sketch.offer("a", 5);
+    sketch.offer("b", 2);
+    sketch.offer("a", 1);
+
+    assertEquals(Arrays.asList("a", "b"), sketch.top(5));
+    assertEquals(6, sketch.count("a"));
+    assertEquals(0, sketch.error("a"));
+  }
+
+  @Test
+  public void testBoundedAndFindsHeavyHitters() throws Exception {
+    SpaceSavingSketch sketch = new SpaceSavingSketch(4);
+    for(int round = 0; round < 50; round ++) {
+      sketch.offer("hot1", 20);
+      sketch.offer("hot2", 10);
+      for(int cold = 0; cold < 10; cold ++)
+        sketch.offer("cold" + round + "-" + cold, 1);
+    }
+
+    assertEquals(4, sketch.size());
+    assertEquals(Arrays.asList("hot1", "hot2"), sketch.top(2));
+    // never under-counted, and over by no more than the error
+    assertTrue(sketch.count("hot1") >= 1000);
+    assertTrue(sketch.count("hot1") - sketch.error("hot1") <= 1000);
+  }
+
+  @Test
+  public void testReplacedKeyInheritsLightestCount() throws Exception {
+    SpaceSavingSketch sketch = new SpaceSavingSketch(2);
+    sketch.offer("a", 5);
+    sketch.offer("b", 2);
+    sketch.offer("c", 1);
+
+    List<String> top = sketch.top(2);
+    assertEquals(Arrays.asList("a", "c"), top);
+    assertEquals(3, sketch.count("c"));
+    assertEquals(2, sketch.error("c"));
+    assertEquals(0, sketch.count("b"));
+  }
+
+  @Test
+  public void testDecay() throws Exception {
+    SpaceSavingSketch sketch = new SpaceSavingSketch(2);
+    sketch.offer("a", 10);
+    sketch.decay(0.5);
+    sketch.offer("b", 6);
+
+    assertEquals(5, sketch.count("a"));
+    assertEquals(Arrays.asList("b", "a"), sketch.top(2));
+  }
+
+  @Test
+  public void testInvalidCapacity() throws Exception {
+    assertThrows(IllegalArgumentException.class, () -> new SpaceSavingSketch(0));
+  }
+
+}
@@ -0,0 +1,82 @@
+package com.adaptris.mgmt.kubernetes.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.adaptris.core.interceptor.MessageStatistic;
+
+public class TimesliceScheduleTest {
+
+  private static final long BOUNDARY = 1_600_000_020_000l;
+
+  private TimesliceSchedule schedule;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    schedule = new TimesliceSchedule();
+  }
+
+  @Test
+  public void testIntervalUntilTimeslicesSeen() throws Exception {
+    schedule.observe(new ArrayList<>());
+
+    assertEquals(-1, schedule.timesliceMillis());
+    assertEquals(10000, schedule.periodMillis(10000));
+    assertEquals(10000, schedule.delayMillis(10000, BOUNDARY));
+  }
+
+  @Test
+  public void testDurationFromStartAndEnd() throws Exception {
+    schedule.observe(statistics(timeslice(BOUNDARY - 10000, BOUNDARY)));
+
+    assertEquals(10000, schedule.timesliceMillis());
+    assertEquals(10000, schedule.periodMillis(10000));
+    assertEquals(30000, schedule.periodMillis(25000));
+    // just after a boundary, the next cycle is just after the next boundary
+    assertEquals(10000, schedule.delayMillis(10000, BOUNDARY + 500));
+    assertEquals(7500, schedule.delayMillis(10000, BOUNDARY + 3000));
+    assertEquals(27500, schedule.delayMillis(25000, BOUNDARY + 3000));
+  }
+
+  @Test
+  public void testDurationFromTimesliceSpacing() throws Exception {
+    schedule.observe(statistics(timeslice(0, BOUNDARY - 60000), timeslice(0, BOUNDARY)));
+
+    assertEquals(60000, schedule.timesliceMillis());
+    // no empty cycles when the timeslices are longer than the interval
+    assertEquals(60000, schedule.periodMillis(10000));
+    assertEquals(60000, schedule.delayMillis(10000, BOUNDARY + 500));
+  }
+
+  @Test
+  public void testShortestTimesliceWins() throws Exception {
+    MessageStatisticExtended longer = statistics(timeslice(BOUNDARY - 60000, BOUNDARY)).get(0);
+    List<MessageStatisticExtended> statistics = statistics(timeslice(BOUNDARY - 5000, BOUNDARY + 5000));
+    statistics.add(longer);
+    schedule.observe(statistics);
+
+    assertEquals(10000, schedule.timesliceMillis());
+    assertEquals(7500, schedule.delayMillis(10000, BOUNDARY + 8000));
+  }
+
+  private static MessageStatistic timeslice(long startMillis, long endMillis) {
+    MessageStatistic timeslice = new MessageStatistic(endMillis);
+    timeslice.setStartMillis(startMillis);
+    return timeslice;
+  }
+
+  private static List<MessageStatisticExtended> statistics(MessageStatistic... timeslices) {
+    MessageStatisticExtended statistic = new MessageStatisticExtended();
+    for(MessageStatistic timeslice : timeslices)
+      statistic.getStatistics().add(timeslice);
+    List<MessageStatisticExtended> statistics = new ArrayList<>();
+    statistics.add(statistic);
+    return statistics;
+  }
+
+}
@@ -0,0 +1,336 @@
+package com.adaptris.kubernetes.metrics.otlp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.adaptris.core.CoreException;
+import com.adaptris.core.interceptor.MessageStatistic;
+import com.adaptris.mgmt.kubernetes.metrics.JmxMessageMetricsCollector;
+import com.adaptris.mgmt.kubernetes.metrics.KubernetesMetricsAdapter;
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetricsBus;
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetricsCollector;
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetricsListener;
+import com.adaptris.mgmt.kubernetes.metrics.MessageStatisticExtended;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Exports the message metrics to an OpenTelemetry collector over OTLP/HTTP.
+ * <p>
+ * Enabled by setting the bootstrap or system property {@value #ENDPOINT_KEY}, e.g.
+ * {@code http://otel-collector:4318/v1/metrics}; {@code /v1/metrics} is added if the endpoint has no path. Each completed
+ * timeslice becomes a data point of a monotonic sum with delta temporality, covering the timeslice's own start and end, so
+ * nothing has to be accumulated between cycles; we only remember the newest timeslice sent for each statistic. Every cycle's
+ * data points go in a single gzipped protobuf request, and nothing is marked as sent until the collector accepts it, so the
+ * next cycle retries whatever a failed export carried.
+ * </p>
+ */
+@Slf4j
+public class OtlpMetricsAdapter implements KubernetesMetricsAdapter, MessageMetricsListener {
+
+  private static final String IMPLEMENTATION_NAME = OtlpMetricsAdapter.class.getSimpleName();
+
+  private static final String ENDPOINT_KEY = "otlpEndpoint";
+
+  private static final String HEADERS_KEY = "otlpHeaders";
+
+  private static final String TIMEOUT_SECONDS_KEY = "otlpTimeoutSeconds";
+
+  private static final String SERVICE_NAME_KEY = "otlpServiceName";
+
+  private static final String METRICS_PATH = "/v1/metrics";
+
+  private static final int TIMEOUT_SECONDS_DEFAULT = 10;
+
+  private static final String SERVICE_NAME_DEFAULT = "interlok";
+
+  private static final String SCOPE_NAME = "com.adaptris.kubernetes.metrics";
+
+  private static final String K8S_POD_NAME_ENV = "K8S_POD_NAME";
+
+  private static final String K8S_POD_NAME_DEFAULT = "interlok";
+
+  private static final String K8S_NAMESPACE_ENV = "K8S_NAMESPACE";
+
+  private static final String K8S_NAMESPACE_DEFAULT = "default";
+
+  private static final Integer METRICS_COLLECTOR_INTERVAL_SECONDS_DEFAULT = 10;
+
+  @Getter
+  @Setter
+  private Properties bootstrapProperties;
+
+  @Getter
+  private MessageMetricsCollector messageMetricsCollector;
+
+  @Getter
+  @Setter
+  private MessageMetricsBus messageMetricsBus;
+
+  @Getter
+  @Setter
+  private Integer collectorIntervalSeconds;
+
+  /**
+   * The end of the newest timeslice sent for each statistic.
+   */
+  private final Map<List<String>, Long> watermarks;
+
+  /**
+   * Metadata counts from an export the collector didn't accept, added to the next one.
+   */
+  private Map<Map<String, String>, Long> unsentMetadataCounts;
+
+  private URI endpoint;
+
+  private Map<String, String> headers;
+
+  private Duration timeout;
+
+  private Map<String, String> resourceAttributes;
+
+  private HttpClient httpClient;
+
+  private long lastCycleMillis;
+
+  private ScheduledExecutorService scheduler;
+
+  public OtlpMetricsAdapter() {
+    watermarks = new ConcurrentHashMap<>();
+    unsentMetadataCounts = new HashMap<>();
+    this.setMessageMetricsCollector(new JmxMessageMetricsCollector());
+    this.setBootstrapProperties(new Properties());
+  }
+
+  public void setMessageMetricsCollector(MessageMetricsCollector messageMetricsCollector) {
+    if(this.messageMetricsCollector != null)
+      this.messageMetricsCollector.deregisterListener(this);
+    this.messageMetricsCollector = messageMetricsCollector;
+    if(messageMetricsCollector != null)
+      messageMetricsCollector.registerListener(this);
+  }
+
+  @Override
+  public void init() throws CoreException {
+    String configuredEndpoint = this.getConfiguredProperty(ENDPOINT_KEY);
+    if(StringUtils.isEmpty(configuredEndpoint)) {
+      log.debug("OTLP metrics not exported because neither the bootstrap property or system property {} was set.", ENDPOINT_KEY);
+      return;
+    }
+    try {
+      endpoint = URI.create(StringUtils.removeEnd(configuredEndpoint.trim(), "/"));
+    } catch (IllegalArgumentException e) {
+      throw new CoreException("Invalid OTLP endpoint " + configuredEndpoint, e);
+    }
+    if(StringUtils.isEmpty(endpoint.getPath()))
+      endpoint = URI.create(endpoint + METRICS_PATH);
+    headers = this.parseHeaders(this.getConfiguredProperty(HEADERS_KEY));
+    String timeoutSeconds = this.getConfiguredProperty(TIMEOUT_SECONDS_KEY);
+    timeout = Duration.ofSeconds(StringUtils.isEmpty(timeoutSeconds) ? TIMEOUT_SECONDS_DEFAULT : Integer.parseInt(timeoutSeconds.trim()));
+
+    resourceAttributes = new LinkedHashMap<>();
+    resourceAttributes.put("service.name", StringUtils.defaultIfEmpty(this.getConfiguredProperty(SERVICE_NAME_KEY), SERVICE_NAME_DEFAULT));
+    resourceAttributes.put("k8s.pod.name", this.loadProperty(K8S_POD_NAME_ENV, K8S_POD_NAME_DEFAULT));
+    resourceAttributes.put("k8s.namespace.name", this.loadProperty(K8S_NAMESPACE_ENV, K8S_NAMESPACE_DEFAULT));
+    httpClient = HttpClient.newBuilder().connectTimeout(timeout).build();
+    lastCycleMillis = System.currentTimeMillis();
+
+    // share the collection with the other adapters, rather than reading the statistics again
+    if(this.getMessageMetricsBus() != null)
+      this.setMessageMetricsCollector(this.getMessageMetricsBus());
+    this.getMessageMetricsCollector().prepare();
+  }
+
+  @Override
+  public void start() throws CoreException {
+    if(httpClient == null || this.getMessageMetricsCollector() instanceof MessageMetricsBus)
+      return;
+    scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "OTLP Metric Gatherer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleAtFixedRate(this.getMessageMetricsCollector(), this.collectorIntervalSeconds(), this.collectorIntervalSeconds(), TimeUnit.SECONDS);
+  }
+
+  @Override
+  public void stop() {
+    if(scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+  }
+
+  @Override
+  public void close() {
+    httpClient = null;
+  }
+
+  @Override
+  public String getImplementationName() {
+    return IMPLEMENTATION_NAME;
+  }
+
+  @Override
+  public void notifyMessageMetrics(List<MessageStatisticExtended> statistics) {
+    HttpClient client = httpClient;
+    if(client == null)
+      return;
+    long now = System.currentTimeMillis();
+    Export export = this.buildExport(statistics, now);
+    if(export.request.dataPoints() == 0 || this.send(client, export.request)) {
+      watermarks.keySet().retainAll(export.watermarks.keySet());
+      watermarks.putAll(export.watermarks);
+      unsentMetadataCounts = new HashMap<>();
+      lastCycleMillis = now;
+    } else {
+      // the timeslices are still in the history, so only the metadata counts need keeping for the retry
+      unsentMetadataCounts = export.metadataCounts;
+    }
+  }
+
+  private boolean send(HttpClient client, OtlpMetricsRequest request) {
+    try {
+      HttpRequest.Builder builder = HttpRequest.newBuilder(endpoint)
+          .timeout(timeout)
+          .header("Content-Type", "application/x-protobuf")
+          .header("Content-Encoding", "gzip")
+          .POST(HttpRequest.BodyPublishers.ofByteArray(gzip(request.toByteArray())));
+      headers.forEach(builder::header);
+      HttpResponse<Void> response = client.send(builder.build(), HttpResponse.BodyHandlers.discarding());
+      if(response.statusCode() / 100 != 2) {
+        log.warn("OTLP collector at {} rejected {} data points with status {}, they will be sent again next cycle.", endpoint, request.dataPoints(), response.statusCode());
+        return false;
+      }
+      log.trace("Exported {} data points to {}.", request.dataPoints(), endpoint);
+      return true;
+    } catch (IOException e) {
+      log.warn("Could not export the message metrics to the OTLP collector at {}, they will be sent again next cycle.", endpoint, e);
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Map the statistics to data points; any timeslices sent before or still in progress are skipped. The watermarks are only
+   * moved on once the export is accepted.
+   */
+  private Export buildExport(List<MessageStatisticExtended> statistics, long now) {
+    Export export = new Export(new OtlpMetricsRequest(resourceAttributes, SCOPE_NAME));
+    Map<Map<String, String>, Long> metadataCounts = new LinkedHashMap<>();
+    for(MessageStatisticExtended statistic : statistics) {
+      Map<String, String> attributes = attributes(statistic);
+      if(statistic.getInFlightCount() != null) {
+        export.request.gauge("interlok.messages.in_flight", "{message}", attributes, now, statistic.getInFlightCount());
+      } else if(statistic.getMetadataCounts() != null) {
+        for(Map.Entry<String, Long> count : statistic.getMetadataCounts().entrySet()) {
+          Map<String, String> metadataAttributes = new LinkedHashMap<>(attributes);
+          metadataAttributes.put("interlok.metadata", count.getKey());
+          metadataCounts.merge(metadataAttributes, count.getValue(), Long::sum);
+        }
+      } else {
+        this.addTimeslices(export, statistic.key(), statistic.getStatistics(), attributes, now);
+      }
+    }
+    unsentMetadataCounts.forEach((attributes, count) -> metadataCounts.merge(attributes, count, Long::sum));
+    metadataCounts.forEach((attributes, count) -> {
+      export.request.sum("interlok.message.metadata", "{message}", attributes, lastCycleMillis, now, count);
+      export.metadataCounts.put(attributes, count);
+    });
+    return export;
+  }
+
+  private void addTimeslices(Export export, List<String> key, List<MessageStatistic> timeslices, Map<String, String> attributes, long now) {
+    long watermark = watermarks.getOrDefault(key, Long.MIN_VALUE);
+    long previousEndMillis = 0;
+    for(MessageStatistic timeslice : timeslices) {
+      long startMillis = timeslice.getStartMillis() > 0 ? timeslice.getStartMillis() : previousEndMillis;
+      previousEndMillis = timeslice.getEndMillis();
+      if(timeslice.getEndMillis() >= now || timeslice.getEndMillis() <= watermark)
+        continue; // still in progress or already sent
+      export.request.sum("interlok.messages", "{message}", attributes, startMillis, timeslice.getEndMillis(), timeslice.getTotalMessageCount());
+      export.request.sum("interlok.message.errors", "{message}", attributes, startMillis, timeslice.getEndMillis(), timeslice.getTotalMessageErrorCount());
+      export.request.sum("interlok.message.size", "By", attributes, startMillis, timeslice.getEndMillis(), timeslice.getTotalMessageSize());
+      watermark = timeslice.getEndMillis();
+    }
+    export.watermarks.put(key, watermark);
+  }
+
+  /**
+   * A request and the watermarks and metadata counts it carries, committed once the collector accepts it.
+   */
+  private static final class Export {
+    private final OtlpMetricsRequest request;
+    private final Map<List<String>, Long> watermarks;
+    private final Map<Map<String, String>, Long> metadataCounts;
+
+    private Export(OtlpMetricsRequest request) {
+      this.request = request;
+      this.watermarks = new HashMap<>();
+      this.metadataCounts = new HashMap<>();
+    }
+  }
+
+  private static Map<String, String> attributes(MessageStatisticExtended statistic) {
+    Map<String, String> attributes = new LinkedHashMap<>();
+    attributes.put("interlok.adapter", StringUtils.defaultString(statistic.getAdapterId()));
+    attributes.put("interlok.channel", StringUtils.defaultString(statistic.getChannelId()));
+    attributes.put("interlok.workflow", StringUtils.defaultString(statistic.getWorkflowId()));
+    return attributes;
+  }
+
+  private static byte[] gzip(byte[] body) throws IOException {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4 + 64);
+    try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+      out.write(body);
+    }
+    return compressed.toByteArray();
+  }
+
+  /**
+   * Parse headers given as {@code key=value,key=value}, as with {@code OTEL_EXPORTER_OTLP_HEADERS}.
+   */
+  private Map<String, String> parseHeaders(String value) {
+    Map<String, String> parsed = new LinkedHashMap<>();
+    for(String header : StringUtils.split(StringUtils.defaultString(value), ',')) {
+      String name = StringUtils.substringBefore(header, "=").trim();
+      if(!name.isEmpty())
+        parsed.put(name, StringUtils.substringAfter(header, "=").trim());
+    }
+    return parsed;
+  }
+
+  protected int collectorIntervalSeconds() {
+    return this.getCollectorIntervalSeconds() == null ? METRICS_COLLECTOR_INTERVAL_SECONDS_DEFAULT : this.getCollectorIntervalSeconds();
+  }
+
+  private String getConfiguredProperty(String key) {
+    return StringUtils.defaultIfEmpty(System.getProperty(key), this.getBootstrapProperties().getProperty(key));
+  }
+
+  private String loadProperty(String propertyName, String defaultValue) {
+    return StringUtils.defaultIfEmpty(System.getenv(propertyName), StringUtils.defaultIfEmpty(System.getProperty(propertyName), defaultValue));
+  }
+
+}
@@ -0,0 +1,113 @@
+package com.adaptris.kubernetes.metrics.otlp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds an OTLP {@code ExportMetricsServiceRequest} holding every data point of a collection cycle.
+ * <p>
+ * Data points are grouped by metric name, under a single resource and instrumentation scope. Sums are monotonic with
+ * delta temporality, each data point covering its own start and end time.
+ * </p>
+ */
+public class OtlpMetricsRequest {
+
+  // opentelemetry/proto/metrics/v1/metrics.proto
+  private static final int AGGREGATION_TEMPORALITY_DELTA = 1;
+
+  private final Map<String, String> resourceAttributes;
+
+  private final String scopeName;
+
+  private final Map<String, Metric> metrics;
+
+  private int dataPoints;
+
+  public OtlpMetricsRequest(Map<String, String> resourceAttributes, String scopeName) {
+    this.resourceAttributes = resourceAttributes;
+    this.scopeName = scopeName;
+    this.metrics = new LinkedHashMap<>();
+  }
+
+  /**
+   * Add a delta sum data point, the count between the start and end times.
+   */
+  public void sum(String name, String unit, Map<String, String> attributes, long startMillis, long endMillis, long value) {
+    this.metric(name, unit, true).dataPoints.add(dataPoint(attributes, startMillis, endMillis, value));
+  }
+
+  /**
+   * Add a gauge data point, the value at the given time.
+   */
+  public void gauge(String name, String unit, Map<String, String> attributes, long timeMillis, long value) {
+    this.metric(name, unit, false).dataPoints.add(dataPoint(attributes, 0, timeMillis, value));
+  }
+
+  public int dataPoints() {
+    return dataPoints;
+  }
+
+  public byte[] toByteArray() {
+    ProtobufWriter resource = new ProtobufWriter();
+    resourceAttributes.forEach((key, value) -> resource.message(1, keyValue(key, value)));
+
+    ProtobufWriter scopeMetrics = new ProtobufWriter().message(1, new ProtobufWriter().string(1, scopeName));
+    for(Metric metric : metrics.values())
+      scopeMetrics.message(2, metric.encode());
+
+    ProtobufWriter resourceMetrics = new ProtobufWriter().message(1, resource).message(2, scopeMetrics);
+    return new ProtobufWriter().message(1, resourceMetrics).toByteArray();
+  }
+
+  private Metric metric(String name, String unit, boolean sum) {
+    dataPoints ++;
+    return metrics.computeIfAbsent(name, k -> new Metric(name, unit, sum));
+  }
+
+  private static ProtobufWriter dataPoint(Map<String, String> attributes, long startMillis, long timeMillis, long value) {
+    ProtobufWriter dataPoint = new ProtobufWriter();
+    if(startMillis > 0)
+      dataPoint.fixed64(2, nanos(startMillis));
+    dataPoint.fixed64(3, nanos(timeMillis));
+    dataPoint.fixed64(6, value); // as_int
+    attributes.forEach((key, attribute) -> dataPoint.message(7, keyValue(key, attribute)));
+    return dataPoint;
+  }
+
+  private static ProtobufWriter keyValue(String key, String value) {
+    // string_value is in a oneof, so it's written even when empty
+    ProtobufWriter anyValue = new ProtobufWriter().bytes(1, value.getBytes(StandardCharsets.UTF_8));
+    return new ProtobufWriter().string(1, key).message(2, anyValue);
+  }
+
+  private static long nanos(long millis) {
+    return millis * 1_000_000L;
+  }
+
+  private static final class Metric {
+    private final String name;
+    private final String unit;
+    private final boolean sum;
+    private final List<ProtobufWriter> dataPoints;
+
+    private Metric(String name, String unit, boolean sum) {
+      this.name = name;
+      this.unit = unit;
+      this.sum = sum;
+      this.dataPoints = new ArrayList<>();
+    }
+
+    private ProtobufWriter encode() {
+      ProtobufWriter data = new ProtobufWriter();
+      dataPoints.forEach(dataPoint -> data.message(1, dataPoint));
+      ProtobufWriter metric = new ProtobufWriter().string(1, name).string(3, unit);
+      if(sum)
+        return metric.message(7, data.varint(2, AGGREGATION_TEMPORALITY_DELTA).varint(3, 1));
+      return metric.message(5, data);
+    }
+  }
+
+}
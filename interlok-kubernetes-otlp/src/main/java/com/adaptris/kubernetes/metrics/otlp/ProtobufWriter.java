@@ -0,0 +1,91 @@
+package com.adaptris.kubernetes.metrics.otlp;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Just enough of the protobuf wire format to write an OTLP request, so we don't need the generated classes.
+ * <p>
+ * Nested messages are written to their own writer and added with {@link #message(int, ProtobufWriter)}, which prefixes
+ * them with their length.
+ * </p>
+ */
+public class ProtobufWriter {
+
+  private static final int WIRE_TYPE_VARINT = 0;
+
+  private static final int WIRE_TYPE_FIXED64 = 1;
+
+  private static final int WIRE_TYPE_LENGTH_DELIMITED = 2;
+
+  private final ByteArrayOutputStream out;
+
+  public ProtobufWriter() {
+    out = new ByteArrayOutputStream(64);
+  }
+
+  public ProtobufWriter varint(int field, long value) {
+    this.tag(field, WIRE_TYPE_VARINT);
+    this.writeVarint(value);
+    return this;
+  }
+
+  public ProtobufWriter fixed64(int field, long value) {
+    this.tag(field, WIRE_TYPE_FIXED64);
+    for(int shift = 0; shift < 64; shift += 8)
+      out.write((int) (value >>> shift) & 0xFF);
+    return this;
+  }
+
+  public ProtobufWriter doubleValue(int field, double value) {
+    return this.fixed64(field, Double.doubleToRawLongBits(value));
+  }
+
+  /**
+   * Strings are left out when empty, as proto3 does for default values.
+   */
+  public ProtobufWriter string(int field, String value) {
+    if(value == null || value.isEmpty())
+      return this;
+    return this.bytes(field, value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  public ProtobufWriter bytes(int field, byte[] value) {
+    this.tag(field, WIRE_TYPE_LENGTH_DELIMITED);
+    this.writeVarint(value.length);
+    out.write(value, 0, value.length);
+    return this;
+  }
+
+  public ProtobufWriter message(int field, ProtobufWriter message) {
+    this.tag(field, WIRE_TYPE_LENGTH_DELIMITED);
+    this.writeVarint(message.size());
+    message.writeTo(out);
+    return this;
+  }
+
+  public int size() {
+    return out.size();
+  }
+
+  public byte[] toByteArray() {
+    return out.toByteArray();
+  }
+
+  private void writeTo(ByteArrayOutputStream target) {
+    target.write(out.toByteArray(), 0, out.size());
+  }
+
+  private void tag(int field, int wireType) {
+    this.writeVarint((field << 3) | wireType);
+  }
+
+  private void writeVarint(long value) {
+    while((value & ~0x7FL) != 0) {
+      out.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+}
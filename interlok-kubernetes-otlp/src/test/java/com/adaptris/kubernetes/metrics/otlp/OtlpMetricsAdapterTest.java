@@ -0,0 +1,306 @@
+package com.adaptris.kubernetes.metrics.otlp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.adaptris.core.interceptor.MessageStatistic;
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetricsBus;
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetricsCollector;
+import com.adaptris.mgmt.kubernetes.metrics.MessageStatisticExtended;
+import com.sun.net.httpserver.HttpServer;
+
+public class OtlpMetricsAdapterTest {
+
+  private OtlpMetricsAdapter adapter;
+
+  @Mock private MessageMetricsCollector mockCollector;
+
+  private AutoCloseable closeable;
+
+  private HttpServer receiver;
+
+  private BlockingQueue<Received> received;
+
+  private MessageStatisticExtended statistic;
+
+  private long now;
+
+  private volatile int status;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    closeable = MockitoAnnotations.openMocks(this);
+    received = new LinkedBlockingQueue<>();
+    status = 200;
+    receiver = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    receiver.createContext("/v1/metrics", exchange -> {
+      try (InputStream body = exchange.getRequestBody()) {
+        received.add(new Received(exchange.getRequestHeaders().getFirst("Content-Type"), exchange.getRequestHeaders().getFirst("Content-Encoding"),
+            exchange.getRequestHeaders().getFirst("Authorization"), IOUtils.toByteArray(body)));
+      }
+      exchange.sendResponseHeaders(status, -1);
+      exchange.close();
+    });
+    receiver.start();
+
+    adapter = new OtlpMetricsAdapter();
+    adapter.setMessageMetricsCollector(mockCollector);
+
+    now = System.currentTimeMillis();
+    statistic = new MessageStatisticExtended();
+    statistic.setAdapterId("adapter");
+    statistic.setChannelId("channel1");
+    statistic.setWorkflowId("workflow1");
+    statistic.setStatisticId("workflow1-metrics");
+    statistic.getStatistics().add(this.timeslice(now - 20000, 5, 1));
+    statistic.getStatistics().add(this.timeslice(now - 10000, 7, 0));
+    statistic.getStatistics().add(this.timeslice(now + 10000, 3, 0));
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    adapter.stop();
+    adapter.close();
+    receiver.stop(0);
+    closeable.close();
+  }
+
+  @Test
+  public void testNotEnabledWithoutEndpoint() throws Exception {
+    adapter.init();
+    adapter.start();
+    adapter.notifyMessageMetrics(Arrays.asList(statistic));
+
+    verify(mockCollector, never()).prepare();
+    assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testExportsCompletedTimeslicesAsDeltaSums() throws Exception {
+    adapter.setBootstrapProperties(this.properties(new HashMap<>()));
+    adapter.init();
+    adapter.notifyMessageMetrics(Arrays.asList(statistic));
+
+    Received request = received.poll(5, TimeUnit.SECONDS);
+    assertEquals("application/x-protobuf", request.contentType);
+    assertEquals("gzip", request.contentEncoding);
+
+    Map<Integer, List<Object>> resourceMetrics = field(parse(request.body), 1);
+    Map<String, String> resource = attributes(field(resourceMetrics, 1));
+    assertEquals("interlok", resource.get("service.name"));
+    assertEquals("default", resource.get("k8s.namespace.name"));
+
+    Map<String, Map<Integer, List<Object>>> metrics = metrics(field(resourceMetrics, 2));
+    Map<Integer, List<Object>> messages = field(metrics.get("interlok.messages"), 7);
+    assertEquals(1l, messages.get(2).get(0)); // delta
+    assertEquals(1l, messages.get(3).get(0)); // monotonic
+    List<Object> dataPoints = messages.get(1);
+    assertEquals(2, dataPoints.size());
+
+    Map<Integer, List<Object>> first = parse((byte[]) dataPoints.get(0));
+    assertEquals(5l, first.get(6).get(0));
+    assertEquals((now - 30000) * 1_000_000, first.get(2).get(0));
+    assertEquals((now - 20000) * 1_000_000, first.get(3).get(0));
+    Map<String, String> attributes = attributes(first);
+    assertEquals("channel1", attributes.get("interlok.channel"));
+    assertEquals("workflow1", attributes.get("interlok.workflow"));
+    assertEquals(7l, parse((byte[]) dataPoints.get(1)).get(6).get(0));
+
+    Map<Integer, List<Object>> errors = field(metrics.get("interlok.message.errors"), 7);
+    assertEquals(1l, parse((byte[]) errors.get(1).get(0)).get(6).get(0));
+    assertTrue(metrics.containsKey("interlok.message.size"));
+  }
+
+  @Test
+  public void testOnlyNewTimeslicesExported() throws Exception {
+    adapter.setBootstrapProperties(this.properties(new HashMap<>()));
+    adapter.init();
+    adapter.notifyMessageMetrics(Arrays.asList(statistic));
+    received.poll(5, TimeUnit.SECONDS);
+
+    adapter.notifyMessageMetrics(Arrays.asList(statistic));
+    assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+
+    statistic.getStatistics().add(2, this.timeslice(now - 1, 11, 0));
+    adapter.notifyMessageMetrics(Arrays.asList(statistic));
+
+    Map<Integer, List<Object>> resourceMetrics = field(parse(received.poll(5, TimeUnit.SECONDS).body), 1);
+    List<Object> dataPoints = field(metrics(field(resourceMetrics, 2)).get("interlok.messages"), 7).get(1);
+    assertEquals(1, dataPoints.size());
+    assertEquals(11l, parse((byte[]) dataPoints.get(0)).get(6).get(0));
+  }
+
+  @Test
+  public void testRejectedExportSentAgain() throws Exception {
+    adapter.setBootstrapProperties(this.properties(new HashMap<>()));
+    adapter.init();
+    MessageStatisticExtended metadata = new MessageStatisticExtended();
+    metadata.setWorkflowId("workflow1");
+    metadata.setMetadataCounts(new HashMap<>(Collections.singletonMap("key=value", 2l)));
+    status = 503;
+    adapter.notifyMessageMetrics(Arrays.asList(statistic, metadata));
+    received.poll(5, TimeUnit.SECONDS);
+
+    status = 200;
+    metadata.setMetadataCounts(new HashMap<>(Collections.singletonMap("key=value", 3l)));
+    adapter.notifyMessageMetrics(Arrays.asList(statistic, metadata));
+
+    Map<String, Map<Integer, List<Object>>> metrics = metrics(field(field(parse(received.poll(5, TimeUnit.SECONDS).body), 1), 2));
+    assertEquals(2, field(metrics.get("interlok.messages"), 7).get(1).size());
+    assertEquals(5l, parse((byte[]) field(metrics.get("interlok.message.metadata"), 7).get(1).get(0)).get(6).get(0));
+
+    adapter.notifyMessageMetrics(Arrays.asList(statistic));
+    assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testInFlightGaugeAndHeaders() throws Exception {
+    Map<String, String> extra = new HashMap<>();
+    extra.put("otlpHeaders", "Authorization=Bearer abc, X-Tenant=interlok");
+    adapter.setBootstrapProperties(this.properties(extra));
+    adapter.init();
+    MessageStatisticExtended inFlight = new MessageStatisticExtended();
+    inFlight.setWorkflowId("workflow1");
+    inFlight.setInFlightCount(4l);
+    adapter.notifyMessageMetrics(Arrays.asList(inFlight));
+
+    Received request = received.poll(5, TimeUnit.SECONDS);
+    assertEquals("Bearer abc", request.authorization);
+    Map<Integer, List<Object>> resourceMetrics = field(parse(request.body), 1);
+    Map<Integer, List<Object>> gauge = field(metrics(field(resourceMetrics, 2)).get("interlok.messages.in_flight"), 5);
+    assertEquals(4l, parse((byte[]) gauge.get(1).get(0)).get(6).get(0));
+  }
+
+  @Test
+  public void testUsesMessageMetricsBus() throws Exception {
+    MessageMetricsBus bus = new MessageMetricsBus(mockCollector);
+    adapter.setMessageMetricsBus(bus);
+    adapter.setBootstrapProperties(this.properties(new HashMap<>()));
+    adapter.init();
+    adapter.start();
+
+    assertTrue(bus.hasListeners());
+  }
+
+  private MessageStatistic timeslice(long endMillis, long messages, long errors) {
+    MessageStatistic timeslice = new MessageStatistic(endMillis);
+    timeslice.setStartMillis(endMillis - 10000);
+    timeslice.setTotalMessageCount(messages);
+    timeslice.setTotalMessageErrorCount(errors);
+    timeslice.setTotalMessageSize(messages * 100);
+    return timeslice;
+  }
+
+  private Properties properties(Map<String, String> extra) {
+    Properties properties = new Properties();
+    // no path, so /v1/metrics is added
+    properties.put("otlpEndpoint", "http://localhost:" + receiver.getAddress().getPort());
+    properties.putAll(extra);
+    return properties;
+  }
+
+  private static Map<String, Map<Integer, List<Object>>> metrics(Map<Integer, List<Object>> scopeMetrics) {
+    Map<String, Map<Integer, List<Object>>> metrics = new HashMap<>();
+    for(Object metric : scopeMetrics.get(2)) {
+      Map<Integer, List<Object>> parsed = parse((byte[]) metric);
+      metrics.put(new String((byte[]) parsed.get(1).get(0), StandardCharsets.UTF_8), parsed);
+    }
+    return metrics;
+  }
+
+  private static Map<String, String> attributes(Map<Integer, List<Object>> message) {
+    Map<String, String> attributes = new HashMap<>();
+    List<Object> keyValues = message.containsKey(7) ? message.get(7) : message.get(1);
+    for(Object keyValue : keyValues) {
+      Map<Integer, List<Object>> parsed = parse((byte[]) keyValue);
+      attributes.put(new String((byte[]) parsed.get(1).get(0), StandardCharsets.UTF_8),
+          new String((byte[]) field(parsed, 2).get(1).get(0), StandardCharsets.UTF_8));
+    }
+    return attributes;
+  }
+
+  private static Map<Integer, List<Object>> field(Map<Integer, List<Object>> message, int field) {
+    return parse((byte[]) message.get(field).get(0));
+  }
+
+  private static Map<Integer, List<Object>> parse(byte[] message) {
+    Map<Integer, List<Object>> fields = new HashMap<>();
+    ByteBuffer buffer = ByteBuffer.wrap(message).order(ByteOrder.LITTLE_ENDIAN);
+    while(buffer.hasRemaining()) {
+      long tag = varint(buffer);
+      Object value;
+      switch((int) (tag & 0x7)) {
+        case 0:
+          value = varint(buffer);
+          break;
+        case 1:
+          value = buffer.getLong();
+          break;
+        case 2:
+          byte[] bytes = new byte[(int) varint(buffer)];
+          buffer.get(bytes);
+          value = bytes;
+          break;
+        default:
+          throw new IllegalArgumentException("Unexpected wire type in " + tag);
+      }
+      fields.computeIfAbsent((int) (tag >>> 3), k -> new ArrayList<>()).add(value);
+    }
+    return fields;
+  }
+
+  private static long varint(ByteBuffer buffer) {
+    long value = 0;
+    for(int shift = 0; ; shift += 7) {
+      byte next = buffer.get();
+      value |= (long) (next & 0x7F) << shift;
+      if((next & 0x80) == 0)
+        return value;
+    }
+  }
+
+  private static final class Received {
+    private final String contentType;
+    private final String contentEncoding;
+    private final String authorization;
+    private final byte[] body;
+
+    private Received(String contentType, String contentEncoding, String authorization, byte[] gzipped) throws IOException {
+      this.contentType = contentType;
+      this.contentEncoding = contentEncoding;
+      this.authorization = authorization;
+      this.body = IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(gzipped)));
+    }
+  }
+
+}
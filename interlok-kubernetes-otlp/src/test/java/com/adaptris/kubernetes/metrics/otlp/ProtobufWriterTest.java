@@ -0,0 +1,34 @@
+package com.adaptris.kubernetes.metrics.otlp;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class ProtobufWriterTest {
+
+  @Test
+  public void testVarint() throws Exception {
+    // the example from the protobuf encoding guide
+    assertArrayEquals(new byte[] { 0x08, (byte) 0x96, 0x01 }, new ProtobufWriter().varint(1, 150).toByteArray());
+  }
+
+  @Test
+  public void testString() throws Exception {
+    assertArrayEquals(new byte[] { 0x12, 0x07, 't', 'e', 's', 't', 'i', 'n', 'g' }, new ProtobufWriter().string(2, "testing").toByteArray());
+    assertEquals(0, new ProtobufWriter().string(2, "").size());
+  }
+
+  @Test
+  public void testFixed64IsLittleEndian() throws Exception {
+    assertArrayEquals(new byte[] { 0x31, 0x01, 0x02, 0, 0, 0, 0, 0, 0 }, new ProtobufWriter().fixed64(6, 0x0201).toByteArray());
+  }
+
+  @Test
+  public void testNestedMessage() throws Exception {
+    ProtobufWriter nested = new ProtobufWriter().varint(1, 150);
+
+    assertArrayEquals(new byte[] { 0x1a, 0x03, 0x08, (byte) 0x96, 0x01 }, new ProtobufWriter().message(3, nested).toByteArray());
+  }
+
+}
@@ -0,0 +1,271 @@
+package com.adaptris.kubernetes.metrics.prometheus;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.exporter.PushGateway;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Pushes snapshots of the metrics to the push gateway on its own thread, so a slow or unavailable push gateway doesn't hold
+ * up the collection.
+ * <p>
+ * Snapshots are queued up to {@link #getCapacity()}; when the queue is full the oldest is dropped. A failed push is retried
+ * with an exponential backoff, and after {@link #getFailureThreshold()} failures in a row the circuit opens and nothing is
+ * sent for {@link #getOpenMillis()}, after which a single push is tried to see if the push gateway is back.
+ * </p>
+ * <p>
+ * If there is a {@link DiskPushSpool}, a snapshot that fails is spooled rather than retried from memory, replacing any
+ * earlier one for its grouping key; the push gateway only keeps the last push anyway. Queued snapshots go first, and once
+ * one is pushed the spooled snapshot for its grouping key is out of date and removed. All of the disk access happens on
+ * the sender's thread.
+ * </p>
+ */
+@Slf4j
+public class AsyncPushSender implements Runnable {
+
+  private static final long INITIAL_BACKOFF_MILLIS_DEFAULT = 1000;
+
+  private static final long MAX_BACKOFF_MILLIS_DEFAULT = 60000;
+
+  private static final int FAILURE_THRESHOLD_DEFAULT = 5;
+
+  private static final long OPEN_MILLIS_DEFAULT = 30000;
+
+  @Getter
+  @Setter
+  private PushGateway pushGateway;
+
+  @Getter
+  @Setter
+  private String job;
+
+  @Getter
+  @Setter
+  private Map<String, String> groupingKey;
+
+  @Getter
+  private final int capacity;
+
+  @Getter
+  @Setter
+  private long initialBackoffMillis;
+
+  @Getter
+  @Setter
+  private long maxBackoffMillis;
+
+  @Getter
+  @Setter
+  private int failureThreshold;
+
+  @Getter
+  @Setter
+  private long openMillis;
+
+  @Getter
+  @Setter
+  private PrometheusExporterMetrics exporterMetrics;
+
+  @Getter
+  @Setter
+  private DiskPushSpool spool;
+
+  private final LinkedBlockingDeque<PushRequest> queue;
+
+  private int consecutiveFailures;
+
+  private volatile boolean running;
+
+  private Thread thread;
+
+  public AsyncPushSender(PushGateway pushGateway, String job, Map<String, String> groupingKey, int capacity) {
+    this.setPushGateway(pushGateway);
+    this.setJob(job);
+    this.setGroupingKey(groupingKey);
+    this.capacity = capacity;
+    this.setInitialBackoffMillis(INITIAL_BACKOFF_MILLIS_DEFAULT);
+    this.setMaxBackoffMillis(MAX_BACKOFF_MILLIS_DEFAULT);
+    this.setFailureThreshold(FAILURE_THRESHOLD_DEFAULT);
+    this.setOpenMillis(OPEN_MILLIS_DEFAULT);
+    this.queue = new LinkedBlockingDeque<>(capacity);
+  }
+
+  /**
+   * Queue a snapshot to be pushed, dropping the oldest queued snapshot if the queue is full.
+   */
+  public void offer(List<Collector.MetricFamilySamples> samples, int metricCount) {
+    PushRequest request = new PushRequest(samples, metricCount);
+    synchronized (queue) {
+      while(!queue.offerLast(request)) {
+        PushRequest dropped = queue.pollFirst();
+        if(dropped != null)
+          this.dropped(dropped);
+      }
+    }
+  }
+
+  /**
+   * @return the number of snapshots waiting to be pushed.
+   */
+  public int queued() {
+    return queue.size();
+  }
+
+  public boolean isRunning() {
+    return running;
+  }
+
+  public synchronized void start() {
+    if(running)
+      return;
+    running = true;
+    thread = new Thread(this, "Prometheus Metric Pusher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public synchronized void stop() {
+    running = false;
+    if(thread != null) {
+      thread.interrupt();
+      thread = null;
+    }
+  }
+
+  @Override
+  public void run() {
+    while(running) {
+      try {
+        PushRequest request = queue.pollFirst();
+        boolean spooled = request == null && this.getSpool() != null && !this.getSpool().isEmpty();
+        if(spooled)
+          request = this.nextSpooled();
+        if(request == null)
+          request = queue.pollFirst(1, TimeUnit.SECONDS);
+        if(request == null)
+          continue;
+
+        if(this.send(request)) {
+          if(this.getSpool() != null)
+            this.getSpool().remove(this.groupingKey(request));
+          consecutiveFailures = 0;
+          continue;
+        }
+
+        consecutiveFailures ++;
+        if(!spooled)
+          this.retry(request);
+        if(consecutiveFailures >= this.getFailureThreshold()) {
+          log.warn("Prometheus push gateway failed {} times in a row, not pushing for {}ms.", consecutiveFailures, this.getOpenMillis());
+          Thread.sleep(this.getOpenMillis());
+          // half open; the next push decides whether it opens again
+          consecutiveFailures = this.getFailureThreshold() - 1;
+        } else {
+          Thread.sleep(this.backoffMillis());
+        }
+      } catch (InterruptedException e) {
+        if(!running)
+          break;
+      }
+    }
+  }
+
+  private PushRequest nextSpooled() {
+    try {
+      return this.getSpool().peek();
+    } catch (IOException e) {
+      log.warn("Could not read from the Prometheus push spool.", e);
+      return null;
+    }
+  }
+
+  private void retry(PushRequest request) {
+    if(this.getSpool() != null) {
+      this.spool(request);
+      return;
+    }
+    synchronized (queue) {
+      // retry it first, unless newer snapshots have filled the queue in the meantime
+      if(!queue.offerFirst(request))
+        this.dropped(request);
+    }
+  }
+
+  private void spool(PushRequest request) {
+    try {
+      this.getSpool().put(this.groupingKey(request), request.samples, request.metricCount);
+    } catch (IOException e) {
+      log.warn("Could not write to the Prometheus push spool, dropping a snapshot of {} metrics.", request.metricCount, e);
+      this.dropped(request);
+    }
+  }
+
+  private Map<String, String> groupingKey(PushRequest request) {
+    return request.groupingKey != null ? request.groupingKey : this.getGroupingKey();
+  }
+
+  long backoffMillis() {
+    int doublings = Math.min(Math.max(consecutiveFailures - 1, 0), 30);
+    return Math.min(this.getInitialBackoffMillis() << doublings, this.getMaxBackoffMillis());
+  }
+
+  boolean send(PushRequest request) {
+    long bodyBytes = this.getExporterMetrics() == null ? -1 : PrometheusExporterMetrics.bodyBytes(Collections.enumeration(request.samples));
+    long pushStart = System.nanoTime();
+    try {
+      this.getPushGateway().pushAdd(request, this.getJob(), this.groupingKey(request));
+      this.observePush(System.nanoTime() - pushStart, request.metricCount, bodyBytes, true);
+      log.debug("Pushed {} metrics to Prometheus in {}ms.", request.metricCount, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pushStart));
+      return true;
+    } catch (IOException e) {
+      this.observePush(System.nanoTime() - pushStart, request.metricCount, bodyBytes, false);
+      log.warn("Could not push {} metrics to Prometheus after {}ms, {} queued.", request.metricCount, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pushStart), queue.size() + 1, e);
+      return false;
+    }
+  }
+
+  private void observePush(long durationNanos, int metricCount, long bodyBytes, boolean succeeded) {
+    if(this.getExporterMetrics() != null)
+      this.getExporterMetrics().observePush(durationNanos, metricCount, bodyBytes, succeeded);
+  }
+
+  private void dropped(PushRequest request) {
+    log.debug("Prometheus push queue full, dropping the oldest snapshot of {} metrics.", request.metricCount);
+    if(this.getExporterMetrics() != null)
+      this.getExporterMetrics().observeDropped();
+  }
+
+  /**
+   * A snapshot of the registry, taken when the metrics were collected; pushed with the sender's grouping key unless it was
+   * spooled with its own.
+   */
+  static class PushRequest extends Collector {
+    private final List<MetricFamilySamples> samples;
+    private final int metricCount;
+    private final Map<String, String> groupingKey;
+
+    PushRequest(List<MetricFamilySamples> samples, int metricCount) {
+      this(samples, metricCount, null);
+    }
+
+    PushRequest(List<MetricFamilySamples> samples, int metricCount, Map<String, String> groupingKey) {
+      this.samples = samples;
+      this.metricCount = metricCount;
+      this.groupingKey = groupingKey;
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+      return samples;
+    }
+  }
+
+}
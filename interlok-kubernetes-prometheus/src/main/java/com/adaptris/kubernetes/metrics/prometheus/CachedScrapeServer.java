@@ -0,0 +1,148 @@
+package com.adaptris.kubernetes.metrics.prometheus;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Serves the scrape registry from a copy rendered once per collection cycle, rather than collecting on every scrape.
+ * <p>
+ * {@link #render()}, called at the end of each collection cycle, writes the exposition text and a gzipped copy into working
+ * buffers kept from one render to the next, then copies them out once and swaps the copies in for the scrapes in one go.
+ * The copies can't be reused, a slow scrape may still be writing out the previous ones. Scrapes only ever read the current
+ * copies, so they never wait on a collection and any number of them cost about the same as one.
+ * </p>
+ */
+@Slf4j
+public class CachedScrapeServer {
+
+  private static final String[] CONTEXTS = {"/", "/metrics"};
+
+  private final CollectorRegistry registry;
+
+  private final AtomicReference<Rendered> rendered;
+
+  private final ByteArrayOutputStream renderBuffer;
+
+  private final ByteArrayOutputStream gzipBuffer;
+
+  private HttpServer server;
+
+  private ExecutorService executor;
+
+  public CachedScrapeServer(CollectorRegistry registry) {
+    this.registry = registry;
+    this.rendered = new AtomicReference<>();
+    this.renderBuffer = new ByteArrayOutputStream(64 * 1024);
+    this.gzipBuffer = new ByteArrayOutputStream(16 * 1024);
+  }
+
+  /**
+   * Collect the registry and swap in the new copies for the scrapes.
+   */
+  public synchronized void render() throws IOException {
+    renderBuffer.reset();
+    Writer writer = new OutputStreamWriter(renderBuffer, StandardCharsets.UTF_8);
+    TextFormat.write004(writer, registry.metricFamilySamples());
+    writer.flush();
+
+    gzipBuffer.reset();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(gzipBuffer)) {
+      renderBuffer.writeTo(gzip);
+    }
+    rendered.set(new Rendered(renderBuffer.toByteArray(), gzipBuffer.toByteArray()));
+  }
+
+  public void start(InetSocketAddress address) throws IOException {
+    server = HttpServer.create(address, 3);
+    for(String context : CONTEXTS)
+      server.createContext(context, this::handle);
+    executor = Executors.newFixedThreadPool(2, runnable -> {
+      Thread thread = new Thread(runnable, "Prometheus Scrape Server");
+      thread.setDaemon(true);
+      return thread;
+    });
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  public int getPort() {
+    return server == null ? -1 : server.getAddress().getPort();
+  }
+
+  public void stop() {
+    if(server != null) {
+      server.stop(0);
+      executor.shutdownNow();
+      server = null;
+    }
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      Rendered current = rendered.get();
+      if(current == null) {
+        // scraped before the first collection cycle
+        this.render();
+        current = rendered.get();
+      }
+      boolean gzip = acceptsGzip(exchange.getRequestHeaders().get("Accept-Encoding"));
+      byte[] body = gzip ? current.gzipped : current.text;
+      exchange.getResponseHeaders().set("Content-Type", TextFormat.CONTENT_TYPE_004);
+      if(gzip)
+        exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+      if("HEAD".equals(exchange.getRequestMethod())) {
+        exchange.sendResponseHeaders(200, -1);
+      } else {
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+          out.write(body);
+        }
+      }
+    } catch (IOException e) {
+      log.debug("Could not serve the Prometheus scrape.", e);
+      throw e;
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private static boolean acceptsGzip(List<String> acceptEncodings) {
+    if(acceptEncodings == null)
+      return false;
+    for(String acceptEncoding : acceptEncodings) {
+      for(String encoding : acceptEncoding.split(",")) {
+        if(encoding.trim().toLowerCase().startsWith("gzip"))
+          return true;
+      }
+    }
+    return false;
+  }
+
+  private static final class Rendered {
+    private final byte[] text;
+    private final byte[] gzipped;
+
+    private Rendered(byte[] text, byte[] gzipped) {
+      this.text = text;
+      this.gzipped = gzipped;
+    }
+  }
+
+}
@@ -0,0 +1,204 @@
+package com.adaptris.kubernetes.metrics.prometheus;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import io.prometheus.client.Collector.MetricFamilySamples;
+import io.prometheus.client.Collector.Type;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps the latest snapshot that could not be pushed for each grouping key on disk, e.g. on the pod's emptyDir, so it can be
+ * pushed once the push gateway is back, even after a restart.
+ * <p>
+ * The push gateway keeps only the last push for a grouping key and the samples have no timestamps, so there is no point in
+ * keeping older snapshots; each grouping key has one file, replaced by writing a new file and moving it over the old one.
+ * </p>
+ */
+@Slf4j
+public class DiskPushSpool {
+
+  private static final String SNAPSHOT_PREFIX = "latest-";
+
+  private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+  @Getter
+  private final File directory;
+
+  public DiskPushSpool(File directory) throws IOException {
+    this.directory = directory;
+    if(!directory.isDirectory() && !directory.mkdirs())
+      throw new IOException("Could not create the push spool directory " + directory);
+    if(!this.isEmpty())
+      log.info("Found {} bytes of unsent metrics in the push spool {}.", this.size(), directory);
+  }
+
+  /**
+   * Keep a snapshot in place of any earlier one for the same grouping key.
+   */
+  public synchronized void put(Map<String, String> groupingKey, List<MetricFamilySamples> samples, int metricCount) throws IOException {
+    File snapshot = this.snapshotFile(groupingKey);
+    File partial = new File(directory, snapshot.getName() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partial)))) {
+      writeGroupingKey(out, groupingKey);
+      out.write(encode(samples, metricCount));
+    }
+    Files.move(partial.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * @return a snapshot in the spool without removing it, or null if it is empty.
+   */
+  public synchronized AsyncPushSender.PushRequest peek() throws IOException {
+    for(File snapshot : this.snapshotFiles()) {
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot)))) {
+        Map<String, String> groupingKey = readGroupingKey(in);
+        return decode(groupingKey, in);
+      } catch (IOException e) {
+        log.warn("Discarding the unreadable push spool snapshot {}.", snapshot, e);
+        delete(snapshot);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Remove the snapshot for the grouping key, once it, or a newer one, has been pushed.
+   */
+  public synchronized void remove(Map<String, String> groupingKey) {
+    File snapshot = this.snapshotFile(groupingKey);
+    if(snapshot.exists())
+      delete(snapshot);
+  }
+
+  public synchronized boolean isEmpty() {
+    return this.snapshotFiles().length == 0;
+  }
+
+  /**
+   * @return the number of bytes the spool is using on disk.
+   */
+  public synchronized long size() {
+    long size = 0;
+    for(File snapshot : this.snapshotFiles())
+      size += snapshot.length();
+    return size;
+  }
+
+  private File snapshotFile(Map<String, String> groupingKey) {
+    String name = UUID.nameUUIDFromBytes(new TreeMap<>(groupingKey).toString().getBytes(StandardCharsets.UTF_8)).toString();
+    return new File(directory, SNAPSHOT_PREFIX + name + SNAPSHOT_SUFFIX);
+  }
+
+  private File[] snapshotFiles() {
+    File[] files = directory.listFiles((dir, name) -> name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX));
+    return files == null ? new File[0] : files;
+  }
+
+  private static void delete(File snapshot) {
+    if(!snapshot.delete())
+      log.warn("Could not delete push spool snapshot {}.", snapshot);
+  }
+
+  private static void writeGroupingKey(DataOutputStream out, Map<String, String> groupingKey) throws IOException {
+    out.writeInt(groupingKey.size());
+    for(Map.Entry<String, String> entry : groupingKey.entrySet()) {
+      out.writeUTF(entry.getKey());
+      out.writeUTF(entry.getValue());
+    }
+  }
+
+  private static Map<String, String> readGroupingKey(DataInputStream in) throws IOException {
+    int count = in.readInt();
+    Map<String, String> groupingKey = new LinkedHashMap<>();
+    for(int index = 0; index < count; index ++)
+      groupingKey.put(in.readUTF(), in.readUTF());
+    return groupingKey;
+  }
+
+  static byte[] encode(List<MetricFamilySamples> samples, int metricCount) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeInt(metricCount);
+      out.writeInt(samples.size());
+      for(MetricFamilySamples family : samples) {
+        out.writeUTF(family.name);
+        out.writeUTF(family.type.name());
+        out.writeUTF(family.help);
+        out.writeInt(family.samples.size());
+        for(MetricFamilySamples.Sample sample : family.samples) {
+          out.writeUTF(sample.name);
+          writeStrings(out, sample.labelNames);
+          writeStrings(out, sample.labelValues);
+          out.writeDouble(sample.value);
+          out.writeBoolean(sample.timestampMs != null);
+          if(sample.timestampMs != null)
+            out.writeLong(sample.timestampMs);
+        }
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  static AsyncPushSender.PushRequest decode(byte[] record) throws IOException {
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+      return decode(null, in);
+    }
+  }
+
+  private static AsyncPushSender.PushRequest decode(Map<String, String> groupingKey, DataInputStream in) throws IOException {
+    int metricCount = in.readInt();
+    int familyCount = in.readInt();
+    List<MetricFamilySamples> samples = new ArrayList<>(familyCount);
+    for(int family = 0; family < familyCount; family ++) {
+      String name = in.readUTF();
+      Type type = Type.valueOf(in.readUTF());
+      String help = in.readUTF();
+      int sampleCount = in.readInt();
+      List<MetricFamilySamples.Sample> familySamples = new ArrayList<>(sampleCount);
+      for(int sample = 0; sample < sampleCount; sample ++) {
+        String sampleName = in.readUTF();
+        List<String> labelNames = readStrings(in);
+        List<String> labelValues = readStrings(in);
+        double value = in.readDouble();
+        Long timestampMs = in.readBoolean() ? in.readLong() : null;
+        familySamples.add(new MetricFamilySamples.Sample(sampleName, labelNames, labelValues, value, timestampMs));
+      }
+      samples.add(new MetricFamilySamples(name, type, help, familySamples));
+    }
+    return new AsyncPushSender.PushRequest(samples, metricCount, groupingKey);
+  }
+
+  private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+    out.writeInt(strings.size());
+    for(String string : strings)
+      out.writeUTF(string);
+  }
+
+  private static List<String> readStrings(DataInputStream in) throws IOException {
+    int count = in.readInt();
+    List<String> strings = new ArrayList<>(count);
+    for(int index = 0; index < count; index ++)
+      strings.add(in.readUTF());
+    return strings;
+  }
+
+}
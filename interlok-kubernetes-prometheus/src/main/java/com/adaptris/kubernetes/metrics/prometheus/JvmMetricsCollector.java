@@ -0,0 +1,121 @@
+package com.adaptris.kubernetes.metrics.prometheus;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.apache.commons.lang3.StringUtils;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.hotspot.BufferPoolsExports;
+import io.prometheus.client.hotspot.ClassLoadingExports;
+import io.prometheus.client.hotspot.GarbageCollectorExports;
+import io.prometheus.client.hotspot.MemoryAllocationExports;
+import io.prometheus.client.hotspot.MemoryPoolsExports;
+import io.prometheus.client.hotspot.StandardExports;
+import io.prometheus.client.hotspot.ThreadExports;
+import io.prometheus.client.hotspot.VersionInfoExports;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The JVM runtime metrics from the {@code simpleclient_hotspot} collectors, labelled with the same labels as the message
+ * metrics.
+ * <p>
+ * Groups are chosen by name, comma separated: {@code gc}, {@code memory}, {@code allocation}, {@code threads},
+ * {@code buffers}, {@code classloading}, {@code process} and {@code version}; or {@code default} for
+ * {@value #DEFAULT_GROUPS}, {@code all} or {@code none}. None are enabled unless chosen.
+ * </p>
+ */
+@Slf4j
+public class JvmMetricsCollector extends Collector {
+
+  static final String DEFAULT_GROUPS = "gc,memory,allocation,threads,buffers";
+
+  private static final String DEFAULT = "default";
+
+  private static final String ALL_GROUPS = "all";
+
+  private static final Map<String, Supplier<Collector>> GROUPS = new LinkedHashMap<>();
+  static {
+    GROUPS.put("gc", GarbageCollectorExports::new);
+    GROUPS.put("memory", MemoryPoolsExports::new);
+    GROUPS.put("allocation", () -> Allocation.EXPORTS);
+    GROUPS.put("threads", ThreadExports::new);
+    GROUPS.put("buffers", BufferPoolsExports::new);
+    GROUPS.put("classloading", ClassLoadingExports::new);
+    GROUPS.put("process", StandardExports::new);
+    GROUPS.put("version", VersionInfoExports::new);
+  }
+
+  private final List<String> labelNames;
+
+  private final List<String> labelValues;
+
+  private final List<Collector> collectors;
+
+  /**
+   * @param groups the groups to enable; if empty none.
+   * @param constantLabels labels added to every metric, e.g. the pod name when these aren't pushed with a grouping key.
+   */
+  public JvmMetricsCollector(String groups, Map<String, String> constantLabels) {
+    this.labelNames = new ArrayList<>(constantLabels.keySet());
+    this.labelValues = new ArrayList<>(constantLabels.values());
+    this.collectors = new ArrayList<>();
+
+    String enabled = StringUtils.defaultString(groups).trim();
+    if(DEFAULT.equalsIgnoreCase(enabled))
+      enabled = DEFAULT_GROUPS;
+    else if(ALL_GROUPS.equalsIgnoreCase(enabled))
+      enabled = String.join(",", GROUPS.keySet());
+    for(String group : enabled.split(",")) {
+      Supplier<Collector> collector = GROUPS.get(group.trim().toLowerCase());
+      if(collector != null)
+        collectors.add(collector.get());
+      else if(!"none".equalsIgnoreCase(group.trim()) && !StringUtils.isBlank(group))
+        log.warn("Unknown JVM metrics group '{}', ignoring.", group.trim());
+    }
+  }
+
+  /**
+   * @return true if no groups are enabled.
+   */
+  public boolean isEmpty() {
+    return collectors.isEmpty();
+  }
+
+  List<Collector> collectors() {
+    return collectors;
+  }
+
+  @Override
+  public List<MetricFamilySamples> collect() {
+    List<MetricFamilySamples> samples = new ArrayList<>();
+    for(Collector collector : collectors) {
+      for(MetricFamilySamples family : collector.collect())
+        samples.add(labelNames.isEmpty() ? family : this.addLabels(family));
+    }
+    return samples;
+  }
+
+  private MetricFamilySamples addLabels(MetricFamilySamples family) {
+    List<MetricFamilySamples.Sample> labelled = new ArrayList<>(family.samples.size());
+    for(MetricFamilySamples.Sample sample : family.samples) {
+      List<String> sampleLabelNames = new ArrayList<>(labelNames);
+      sampleLabelNames.addAll(sample.labelNames);
+      List<String> sampleLabelValues = new ArrayList<>(labelValues);
+      sampleLabelValues.addAll(sample.labelValues);
+      labelled.add(new MetricFamilySamples.Sample(sample.name, sampleLabelNames, sampleLabelValues, sample.value, sample.timestampMs));
+    }
+    return new MetricFamilySamples(family.name, family.type, family.help, labelled);
+  }
+
+  /**
+   * {@link MemoryAllocationExports} adds GC notification listeners that are never removed, so every registry shares the one.
+   */
+  private static final class Allocation {
+    private static final Collector EXPORTS = new MemoryAllocationExports();
+  }
+
+}
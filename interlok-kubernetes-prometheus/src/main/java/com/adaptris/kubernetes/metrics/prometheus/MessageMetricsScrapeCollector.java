@@ -0,0 +1,87 @@
+package com.adaptris.kubernetes.metrics.prometheus;
+
+import java.util.List;
+import java.util.Map;
+
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetrics;
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetricsCollector;
+import com.adaptris.mgmt.kubernetes.metrics.MessageStatisticExtended;
+import com.adaptris.mgmt.kubernetes.metrics.MetricsCalculator;
+
+import io.prometheus.client.Collector;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Prometheus {@link Collector} that reads the message metrics only when Prometheus scrapes.
+ * <p>
+ * No background thread is involved; each scrape asks the {@link MessageMetricsCollector} for the current statistics, runs them
+ * through the {@link MetricsCalculator} and records any newly completed timeslices in the {@link PrometheusMessageMetrics}.
+ * </p>
+ * <p>
+ * Without a collector, the statistics are {@link #record(List)}ed as they are collected elsewhere, e.g. by each cycle of the
+ * bus, and each scrape returns what was last recorded.
+ * </p>
+ */
+@Slf4j
+public class MessageMetricsScrapeCollector extends Collector {
+
+  @Getter
+  @Setter
+  private MessageMetricsCollector messageMetricsCollector;
+
+  @Getter
+  @Setter
+  private MetricsCalculator calculator;
+
+  @Getter
+  @Setter
+  private long collectorIntervalSeconds;
+
+  /**
+   * If set, records how long each scrape takes to collect and calculate the message metrics.
+   */
+  @Getter
+  @Setter
+  private PrometheusExporterMetrics exporterMetrics;
+
+  private final PrometheusMessageMetrics metrics;
+
+  public MessageMetricsScrapeCollector(MessageMetricsCollector messageMetricsCollector, MetricsCalculator calculator, Map<String, String> metricLabels, long collectorIntervalSeconds) {
+    this.setMessageMetricsCollector(messageMetricsCollector);
+    this.setCalculator(calculator);
+    this.setCollectorIntervalSeconds(collectorIntervalSeconds);
+    this.metrics = new PrometheusMessageMetrics(metricLabels);
+  }
+
+  @Override
+  public synchronized List<MetricFamilySamples> collect() {
+    if(this.getMessageMetricsCollector() != null) {
+      long collectionStart = System.nanoTime();
+      List<MessageStatisticExtended> statistics = this.getMessageMetricsCollector().collectStatistics();
+      if(this.getExporterMetrics() != null)
+        this.getExporterMetrics().observeCollection(System.nanoTime() - collectionStart, statistics.size());
+      this.record(statistics);
+    }
+    return metrics.collect();
+  }
+
+  /**
+   * Calculate and record the statistics, ready for the next scrape.
+   */
+  public synchronized void record(List<MessageStatisticExtended> statistics) {
+    long calculationStart = System.nanoTime();
+    statistics.forEach(statistic -> {
+      MessageMetrics calculated = this.getCalculator().calculate(this.getCollectorIntervalSeconds(), statistic);
+      metrics.record(statistic, calculated);
+      log.trace("Scraped metric '{}' with new value '{}'.", statistic.getStatisticId(), calculated.getMessageCount());
+    });
+    this.getCalculator().retainStatistics(statistics);
+    metrics.retainStatistics(statistics);
+
+    if(this.getExporterMetrics() != null)
+      this.getExporterMetrics().observeCalculation(System.nanoTime() - calculationStart);
+  }
+
+}
@@ -0,0 +1,154 @@
+package com.adaptris.kubernetes.metrics.prometheus;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetrics;
+import com.adaptris.mgmt.kubernetes.metrics.MessageStatisticExtended;
+import com.adaptris.mgmt.kubernetes.metrics.MetricsCalculator;
+
+/**
+ * Smoothed message rates over the last 1, 5 and 15 minutes for each statistic, to sit alongside the single timeslice rate
+ * from the {@link MetricsCalculator}.
+ * <p>
+ * Keeps both an exponentially weighted moving average, like the Unix load average, and a fixed window rate, the number of
+ * messages in the window divided by its length. The window counts are kept in a ring of {@value #BUCKET_SECONDS} second
+ * buckets. All of the state for a statistic is allocated when it is first seen, so updates don't allocate.
+ * </p>
+ * <p>
+ * Both are read as of a given time, so they keep falling between updates, e.g. once the traffic stops; an average below
+ * {@value #IDLE_RATE} messages per second reads as 0.
+ * </p>
+ */
+public class MessageRateCalculator {
+
+  static final String[] WINDOW_NAMES = {"1m", "5m", "15m"};
+
+  static final int[] WINDOW_SECONDS = {60, 300, 900};
+
+  static final int BUCKET_SECONDS = 10;
+
+  static final double IDLE_RATE = 0.001;
+
+  private static final int BUCKETS = 900 / BUCKET_SECONDS;
+
+  private final Map<List<String>, Rates> rates;
+
+  public MessageRateCalculator() {
+    rates = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Add the result of a calculation; a count of 0 decays the rates when the workflow is idle.
+   * @param nowMillis when the calculation happened.
+   */
+  public void update(MessageStatisticExtended statistic, MessageMetrics metrics, long nowMillis) {
+    if(!metrics.hasNewData())
+      return;
+    Rates rate = rates.computeIfAbsent(statistic.key(), key -> new Rates());
+    rate.update(metrics.getMessageCount(), metrics.getPeriodSeconds(), nowMillis);
+  }
+
+  /**
+   * @return the exponentially weighted messages per second for the window as of the last update; 0 if the statistic hasn't
+   *         been seen.
+   */
+  public double ewmaRate(MessageStatisticExtended statistic, int window) {
+    Rates rate = rates.get(statistic.key());
+    return rate == null ? 0 : rate.ewma(window);
+  }
+
+  /**
+   * @return the exponentially weighted messages per second for the window, decayed up to the given time as if nothing has
+   *         been processed since the last update; 0 if the statistic hasn't been seen.
+   */
+  public double ewmaRate(MessageStatisticExtended statistic, int window, long nowMillis) {
+    Rates rate = rates.get(statistic.key());
+    return rate == null ? 0 : rate.ewma(window, nowMillis);
+  }
+
+  /**
+   * @return true if the statistic has been seen.
+   */
+  public boolean contains(MessageStatisticExtended statistic) {
+    return rates.containsKey(statistic.key());
+  }
+
+  /**
+   * @return the messages per second over the last window, up to the given time; 0 if the statistic hasn't been seen.
+   */
+  public double windowRate(MessageStatisticExtended statistic, int window, long nowMillis) {
+    Rates rate = rates.get(statistic.key());
+    return rate == null ? 0 : rate.window(window, nowMillis);
+  }
+
+  public void retainStatistics(List<MessageStatisticExtended> statistics) {
+    Set<List<String>> keys = new HashSet<>();
+    statistics.forEach(statistic -> keys.add(statistic.key()));
+    rates.keySet().retainAll(keys);
+  }
+
+  private static final class Rates {
+    private final double[] ewma = new double[WINDOW_SECONDS.length];
+    private final long[] buckets = new long[BUCKETS];
+    private long lastUpdateMillis = Long.MIN_VALUE;
+    // the bucket number (time / bucket size) that buckets[bucket % BUCKETS] was last written for
+    private long currentBucket = Long.MIN_VALUE;
+
+    private synchronized void update(long count, long periodSeconds, long nowMillis) {
+      double elapsedSeconds = lastUpdateMillis == Long.MIN_VALUE ? periodSeconds : (nowMillis - lastUpdateMillis) / 1000d;
+      if(elapsedSeconds <= 0)
+        elapsedSeconds = Math.max(periodSeconds, 1);
+      double instantRate = count / elapsedSeconds;
+      for(int window = 0; window < ewma.length; window ++) {
+        if(lastUpdateMillis == Long.MIN_VALUE)
+          ewma[window] = instantRate;
+        else
+          ewma[window] += (1 - Math.exp(-elapsedSeconds / WINDOW_SECONDS[window])) * (instantRate - ewma[window]);
+      }
+      lastUpdateMillis = nowMillis;
+
+      this.advance(nowMillis);
+      buckets[(int) Math.floorMod(currentBucket, (long) BUCKETS)] += count;
+    }
+
+    private synchronized double ewma(int window) {
+      return ewma[window];
+    }
+
+    private synchronized double ewma(int window, long nowMillis) {
+      double elapsedSeconds = Math.max(nowMillis - lastUpdateMillis, 0) / 1000d;
+      double decayed = ewma[window] * Math.exp(-elapsedSeconds / WINDOW_SECONDS[window]);
+      return decayed < IDLE_RATE ? 0 : decayed;
+    }
+
+    private synchronized double window(int window, long nowMillis) {
+      this.advance(nowMillis);
+      int windowBuckets = WINDOW_SECONDS[window] / BUCKET_SECONDS;
+      long total = 0;
+      for(int bucket = 0; bucket < windowBuckets; bucket ++)
+        total += buckets[(int) Math.floorMod(currentBucket - bucket, (long) BUCKETS)];
+      return (double) total / WINDOW_SECONDS[window];
+    }
+
+    /**
+     * Move the ring on to the bucket for now, clearing any buckets skipped over.
+     */
+    private void advance(long nowMillis) {
+      long bucket = Math.max(nowMillis, 0) / 1000 / BUCKET_SECONDS;
+      if(currentBucket == Long.MIN_VALUE || bucket - currentBucket >= BUCKETS) {
+        Arrays.fill(buckets, 0);
+      } else {
+        for(long skipped = currentBucket + 1; skipped <= bucket; skipped ++)
+          buckets[(int) Math.floorMod(skipped, (long) BUCKETS)] = 0;
+      }
+      if(currentBucket == Long.MIN_VALUE || bucket > currentBucket)
+        currentBucket = bucket;
+    }
+  }
+
+}
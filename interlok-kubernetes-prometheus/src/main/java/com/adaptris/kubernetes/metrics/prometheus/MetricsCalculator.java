@@ -1,7 +0,0 @@
-package com.adaptris.kubernetes.metrics.prometheus;
-
-public interface MetricsCalculator {
-
-  public long calculateMessagesPerSecond(long calculateForTheLastNumberOfSeconds, MessageStatisticExtended statistic);
-  
-}
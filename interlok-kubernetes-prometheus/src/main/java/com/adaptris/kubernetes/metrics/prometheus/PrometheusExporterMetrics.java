@@ -0,0 +1,182 @@
+package com.adaptris.kubernetes.metrics.prometheus;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+import io.prometheus.client.exporter.common.TextFormat;
+
+/**
+ * Metrics about the exporter itself; how long collecting, calculating and pushing take, how many statistics were read, how
+ * big the pushes are, how many failed and whether it is keeping up with the collection interval.
+ */
+public class PrometheusExporterMetrics extends Collector {
+
+  static final String COLLECTION_DURATION_METRIC_NAME = "interlok_exporter_collection_duration_seconds";
+
+  static final String COLLECTED_STATISTICS_METRIC_NAME = "interlok_exporter_collected_statistics";
+
+  static final String CALCULATION_DURATION_METRIC_NAME = "interlok_exporter_calculation_duration_seconds";
+
+  static final String PUSH_DURATION_METRIC_NAME = "interlok_exporter_push_duration_seconds";
+
+  static final String PUSH_STATISTICS_METRIC_NAME = "interlok_exporter_push_statistics";
+
+  static final String PUSH_SIZE_METRIC_NAME = "interlok_exporter_push_size_bytes";
+
+  static final String PUSH_FAILURES_METRIC_NAME = "interlok_exporter_push_failures";
+
+  static final String PUSH_DROPPED_METRIC_NAME = "interlok_exporter_push_dropped";
+
+  static final String CYCLE_DURATION_METRIC_NAME = "interlok_exporter_cycle_duration_seconds";
+
+  static final String CYCLE_OVERRUNS_METRIC_NAME = "interlok_exporter_cycle_overruns";
+
+  static final String CPU_METRIC_NAME = "interlok_exporter_cpu_seconds";
+
+  private static final double NANOS_PER_SECOND = 1_000_000_000d;
+
+  private final Histogram.Child collectionDuration;
+
+  private final Gauge.Child collectedStatistics;
+
+  private final Histogram.Child calculationDuration;
+
+  private final Histogram.Child pushDuration;
+
+  private final Gauge.Child pushStatistics;
+
+  private final Histogram.Child pushSize;
+
+  private final Counter.Child pushFailures;
+
+  private final Counter.Child pushDropped;
+
+  private final Histogram.Child cycleDuration;
+
+  private final Counter.Child cycleOverruns;
+
+  private final Counter.Child cpu;
+
+  private final List<Collector> families;
+
+  private final ThreadMXBean threadMXBean;
+
+  /**
+   * @param constantLabels labels added to every metric, e.g. the pod name when these aren't pushed with a grouping key.
+   */
+  public PrometheusExporterMetrics(Map<String, String> constantLabels) {
+    String[] labels = constantLabels.keySet().toArray(new String[0]);
+    String[] labelValues = constantLabels.values().toArray(new String[0]);
+    families = new ArrayList<>();
+    collectionDuration = this.family(Histogram.build(COLLECTION_DURATION_METRIC_NAME, "Time taken to read the message metrics.").labelNames(labels).create()).labels(labelValues);
+    collectedStatistics = this.family(Gauge.build(COLLECTED_STATISTICS_METRIC_NAME, "Number of statistics (metrics mbeans or interceptors) read in the last collection.").labelNames(labels).create()).labels(labelValues);
+    calculationDuration = this.family(Histogram.build(CALCULATION_DURATION_METRIC_NAME, "Time taken to calculate and record the message metrics.").labelNames(labels).create()).labels(labelValues);
+    pushDuration = this.family(Histogram.build(PUSH_DURATION_METRIC_NAME, "Time taken to push the metrics to the Prometheus push gateway.").labelNames(labels).create()).labels(labelValues);
+    pushStatistics = this.family(Gauge.build(PUSH_STATISTICS_METRIC_NAME, "Number of statistics with new data sent in the last push.").labelNames(labels).create()).labels(labelValues);
+    pushSize = this.family(Histogram.build(PUSH_SIZE_METRIC_NAME, "Size of the body pushed to the Prometheus push gateway.").exponentialBuckets(1024, 4, 8).labelNames(labels).create()).labels(labelValues);
+    pushFailures = this.family(Counter.build(PUSH_FAILURES_METRIC_NAME, "Number of pushes to the Prometheus push gateway that failed.").labelNames(labels).create()).labels(labelValues);
+    pushDropped = this.family(Counter.build(PUSH_DROPPED_METRIC_NAME, "Number of snapshots dropped because the push queue was full.").labelNames(labels).create()).labels(labelValues);
+    cycleDuration = this.family(Histogram.build(CYCLE_DURATION_METRIC_NAME, "Time taken by a whole collect, calculate and push cycle.").labelNames(labels).create()).labels(labelValues);
+    cycleOverruns = this.family(Counter.build(CYCLE_OVERRUNS_METRIC_NAME, "Number of cycles that took longer than the collection interval.").labelNames(labels).create()).labels(labelValues);
+    cpu = this.family(Counter.build(CPU_METRIC_NAME, "CPU time used by the collect, calculate and push cycles.").labelNames(labels).create()).labels(labelValues);
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    threadMXBean = threads.isCurrentThreadCpuTimeSupported() ? threads : null;
+  }
+
+  public void observeCollection(long durationNanos, int statisticCount) {
+    collectionDuration.observe(durationNanos / NANOS_PER_SECOND);
+    collectedStatistics.set(statisticCount);
+  }
+
+  public void observeCalculation(long durationNanos) {
+    calculationDuration.observe(durationNanos / NANOS_PER_SECOND);
+  }
+
+  /**
+   * @param bodyBytes the size of the body pushed, from {@link #bodyBytes(Enumeration)}; -1 if it isn't known.
+   */
+  public void observePush(long durationNanos, int statisticCount, long bodyBytes, boolean succeeded) {
+    pushDuration.observe(durationNanos / NANOS_PER_SECOND);
+    pushStatistics.set(statisticCount);
+    if(bodyBytes >= 0)
+      pushSize.observe(bodyBytes);
+    if(!succeeded)
+      pushFailures.inc();
+  }
+
+  public void observeDropped() {
+    pushDropped.inc();
+  }
+
+  /**
+   * @return the CPU time used by the current thread so far; -1 if the JVM can't measure it.
+   */
+  public long currentThreadCpuNanos() {
+    return threadMXBean == null ? -1 : threadMXBean.getCurrentThreadCpuTime();
+  }
+
+  /**
+   * @param cpuNanos the CPU time the cycle used, across the threads it ran on; -1 if it isn't known.
+   */
+  public void observeCycle(long durationNanos, long intervalSeconds, long cpuNanos) {
+    cycleDuration.observe(durationNanos / NANOS_PER_SECOND);
+    if(durationNanos / NANOS_PER_SECOND > intervalSeconds)
+      cycleOverruns.inc();
+    if(cpuNanos >= 0)
+      cpu.inc(cpuNanos / NANOS_PER_SECOND);
+  }
+
+  /**
+   * The size of the body the push gateway client sends for the samples, which it writes in the text format as UTF-8.
+   * @return the size in bytes; -1 if it couldn't be measured.
+   */
+  public static long bodyBytes(Enumeration<MetricFamilySamples> samples) {
+    CountingOutputStream counter = new CountingOutputStream();
+    try(Writer writer = new OutputStreamWriter(counter, StandardCharsets.UTF_8)) {
+      TextFormat.write004(writer, samples);
+    } catch (IOException e) {
+      return -1;
+    }
+    return counter.count;
+  }
+
+  private <T extends Collector> T family(T family) {
+    families.add(family);
+    return family;
+  }
+
+  @Override
+  public List<MetricFamilySamples> collect() {
+    List<MetricFamilySamples> samples = new ArrayList<>();
+    families.forEach(family -> samples.addAll(family.collect()));
+    return samples;
+  }
+
+  private static final class CountingOutputStream extends OutputStream {
+    private long count;
+
+    @Override
+    public void write(int b) {
+      count ++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      count += len;
+    }
+  }
+
+}
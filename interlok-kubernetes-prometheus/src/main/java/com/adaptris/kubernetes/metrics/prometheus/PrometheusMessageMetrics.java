@@ -0,0 +1,293 @@
+package com.adaptris.kubernetes.metrics.prometheus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetrics;
+import com.adaptris.mgmt.kubernetes.metrics.MessageStatisticExtended;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+
+/**
+ * The long lived Prometheus metric families for the message, smoothed rate, in-flight and metadata metrics, labelled by
+ * adapter, channel, workflow and id.
+ * <p>
+ * Used by both the push and the pull (scrape) paths, so both export the same metric names.
+ * </p>
+ */
+public class PrometheusMessageMetrics extends Collector {
+
+  static final String MESSAGES_METRIC_NAME = "interlok_messages";
+
+  static final String ERRORS_METRIC_NAME = "interlok_message_errors";
+
+  static final String MESSAGES_PER_SECOND_METRIC_NAME = "interlok_messages_per_second";
+
+  static final String ERROR_RATE_METRIC_NAME = "interlok_message_error_rate";
+
+  static final String BYTES_PER_SECOND_METRIC_NAME = "interlok_message_bytes_per_second";
+
+  static final String AVERAGE_SIZE_METRIC_NAME = "interlok_message_average_size_bytes";
+
+  static final String EWMA_RATE_METRIC_NAME = "interlok_messages_per_second_ewma";
+
+  static final String WINDOW_RATE_METRIC_NAME = "interlok_messages_per_second_window";
+
+  static final String IN_FLIGHT_METRIC_NAME = "interlok_messages_in_flight";
+
+  static final String METADATA_METRIC_NAME = "interlok_message_metadata";
+
+  static final String ADAPTER_LABEL_KEY = "adapter";
+
+  static final String CHANNEL_LABEL_KEY = "channel";
+
+  static final String WORKFLOW_LABEL_KEY = "workflow";
+
+  static final String ID_LABEL_KEY = "id";
+
+  static final String METADATA_KEY_LABEL_KEY = "metadata_key";
+
+  static final String WINDOW_LABEL_KEY = "window";
+
+  private final List<String> constantLabelValues;
+
+  private final Counter messages;
+
+  private final Counter errors;
+
+  private final Gauge messagesPerSecond;
+
+  private final Gauge errorRate;
+
+  private final Gauge bytesPerSecond;
+
+  private final Gauge averageSize;
+
+  private final Gauge ewmaRate;
+
+  private final Gauge windowRate;
+
+  private final Gauge inFlight;
+
+  private final Counter metadata;
+
+  private final Map<List<String>, Children> children;
+
+  private final MessageRateCalculator rates;
+
+  /**
+   * @param constantLabels labels added to every metric, e.g. the pod name when these aren't pushed with a grouping key.
+   */
+  public PrometheusMessageMetrics(Map<String, String> constantLabels) {
+    List<String> labelNames = new ArrayList<>(constantLabels.keySet());
+    labelNames.add(ADAPTER_LABEL_KEY);
+    labelNames.add(CHANNEL_LABEL_KEY);
+    labelNames.add(WORKFLOW_LABEL_KEY);
+    labelNames.add(ID_LABEL_KEY);
+    String[] labels = labelNames.toArray(new String[0]);
+    labelNames.add(METADATA_KEY_LABEL_KEY);
+    String[] metadataLabels = labelNames.toArray(new String[0]);
+    labelNames.set(labelNames.size() - 1, WINDOW_LABEL_KEY);
+    String[] windowLabels = labelNames.toArray(new String[0]);
+    this.constantLabelValues = new ArrayList<>(constantLabels.values());
+
+    messages = Counter.build(MESSAGES_METRIC_NAME, "Number of messages processed by the Interlok workflow interceptor.").labelNames(labels).create();
+    errors = Counter.build(ERRORS_METRIC_NAME, "Number of messages that failed in the Interlok workflow interceptor.").labelNames(labels).create();
+    messagesPerSecond = Gauge.build(MESSAGES_PER_SECOND_METRIC_NAME, "Messages per second over the last completed timeslices.").labelNames(labels).create();
+    errorRate = Gauge.build(ERROR_RATE_METRIC_NAME, "Ratio of failed to processed messages over the last completed timeslices.").labelNames(labels).create();
+    bytesPerSecond = Gauge.build(BYTES_PER_SECOND_METRIC_NAME, "Message bytes per second over the last completed timeslices.").labelNames(labels).create();
+    averageSize = Gauge.build(AVERAGE_SIZE_METRIC_NAME, "Average message size in bytes over the last completed timeslices.").labelNames(labels).create();
+    ewmaRate = Gauge.build(EWMA_RATE_METRIC_NAME, "Exponentially weighted moving average of messages per second over the window.").labelNames(windowLabels).create();
+    windowRate = Gauge.build(WINDOW_RATE_METRIC_NAME, "Messages per second over the last window.").labelNames(windowLabels).create();
+    inFlight = Gauge.build(IN_FLIGHT_METRIC_NAME, "Number of messages currently in flight in the Interlok workflow.").labelNames(labels).create();
+    metadata = Counter.build(METADATA_METRIC_NAME, "Number of messages per metadata value counted by the Interlok metadata interceptor.").labelNames(metadataLabels).create();
+    children = new ConcurrentHashMap<>();
+    rates = new MessageRateCalculator();
+  }
+
+  /**
+   * Record the result of a calculation, if it has anything new, along with any in-flight count or metadata counts. The
+   * smoothed rates of a statistic that has been seen before move on every time, new data or not.
+   * @return true if anything was recorded or any of the smoothed rates changed.
+   */
+  public boolean record(MessageStatisticExtended statistic, MessageMetrics metrics) {
+    long now = System.currentTimeMillis();
+    if(!metrics.hasNewData() && statistic.getInFlightCount() == null && statistic.getMetadataCounts() == null) {
+      Children child = children.get(statistic.key());
+      MessageChildren messageChild = child == null ? null : child.existingMessageChildren();
+      return messageChild != null && this.updateRates(statistic, messageChild, now);
+    }
+    Children child = children.computeIfAbsent(statistic.key(), key -> new Children(this.labelValues(statistic)));
+    if(metrics.hasNewData()) {
+      MessageChildren messageChild = child.messageChildren();
+      messageChild.messages.inc(metrics.getMessageCount());
+      messageChild.errors.inc(metrics.getErrorCount());
+      messageChild.messagesPerSecond.set(metrics.messagesPerSecond());
+      messageChild.errorRate.set(metrics.errorRate());
+      messageChild.bytesPerSecond.set(metrics.bytesPerSecond());
+      messageChild.averageSize.set(metrics.averageMessageSize());
+
+      rates.update(statistic, metrics, now);
+      this.updateRates(statistic, messageChild, now);
+    }
+    if(statistic.getInFlightCount() != null)
+      inFlight.labels(child.labelValues).set(statistic.getInFlightCount());
+    if(statistic.getMetadataCounts() != null) {
+      statistic.getMetadataCounts().forEach((key, count) -> {
+        child.metadataKeys.add(key);
+        metadata.labels(child.metadataLabelValues(key)).inc(count);
+      });
+    }
+    return true;
+  }
+
+  /**
+   * @return true if any of the smoothed rates changed.
+   */
+  private boolean updateRates(MessageStatisticExtended statistic, MessageChildren messageChild, long now) {
+    if(!rates.contains(statistic))
+      return false;
+    boolean changed = false;
+    for(int window = 0; window < MessageRateCalculator.WINDOW_NAMES.length; window ++) {
+      changed |= set(messageChild.ewmaRates[window], rates.ewmaRate(statistic, window, now));
+      changed |= set(messageChild.windowRates[window], rates.windowRate(statistic, window, now));
+    }
+    return changed;
+  }
+
+  private static boolean set(Gauge.Child gauge, double value) {
+    if(gauge.get() == value)
+      return false;
+    gauge.set(value);
+    return true;
+  }
+
+  /**
+   * Remove the metrics for any statistic not in this list, e.g. a workflow that has been removed.
+   */
+  public void retainStatistics(List<MessageStatisticExtended> statistics) {
+    rates.retainStatistics(statistics);
+    Set<List<String>> keys = new HashSet<>();
+    statistics.forEach(statistic -> keys.add(statistic.key()));
+    children.entrySet().removeIf(entry -> {
+      if(keys.contains(entry.getKey()))
+        return false;
+      String[] labelValues = entry.getValue().labelValues;
+      messages.remove(labelValues);
+      errors.remove(labelValues);
+      messagesPerSecond.remove(labelValues);
+      errorRate.remove(labelValues);
+      bytesPerSecond.remove(labelValues);
+      averageSize.remove(labelValues);
+      inFlight.remove(labelValues);
+      for(String window : MessageRateCalculator.WINDOW_NAMES) {
+        ewmaRate.remove(entry.getValue().windowLabelValues(window));
+        windowRate.remove(entry.getValue().windowLabelValues(window));
+      }
+      entry.getValue().metadataKeys.forEach(key -> metadata.remove(entry.getValue().metadataLabelValues(key)));
+      return true;
+    });
+  }
+
+  @Override
+  public List<MetricFamilySamples> collect() {
+    List<MetricFamilySamples> samples = new ArrayList<>();
+    samples.addAll(messages.collect());
+    samples.addAll(errors.collect());
+    samples.addAll(messagesPerSecond.collect());
+    samples.addAll(errorRate.collect());
+    samples.addAll(bytesPerSecond.collect());
+    samples.addAll(averageSize.collect());
+    samples.addAll(ewmaRate.collect());
+    samples.addAll(windowRate.collect());
+    samples.addAll(inFlight.collect());
+    samples.addAll(metadata.collect());
+    return samples;
+  }
+
+  private String[] labelValues(MessageStatisticExtended statistic) {
+    List<String> labelValues = new ArrayList<>(constantLabelValues);
+    labelValues.add(StringUtils.defaultString(statistic.getAdapterId()));
+    labelValues.add(StringUtils.defaultString(statistic.getChannelId()));
+    labelValues.add(StringUtils.defaultString(statistic.getWorkflowId()));
+    labelValues.add(StringUtils.defaultString(statistic.getStatisticId()));
+    return labelValues.toArray(new String[0]);
+  }
+
+  /**
+   * The series of a statistic, so they can be removed once the statistic has gone.
+   */
+  private class Children {
+    private final String[] labelValues;
+    private final Set<String> metadataKeys;
+    private MessageChildren messageChildren;
+
+    private Children(String[] labelValues) {
+      this.labelValues = labelValues;
+      this.metadataKeys = ConcurrentHashMap.newKeySet();
+    }
+
+    // Only created for statistics that have message metrics, so in-flight and metadata statistics don't export empty ones.
+    private synchronized MessageChildren messageChildren() {
+      if(messageChildren == null)
+        messageChildren = new MessageChildren(labelValues);
+      return messageChildren;
+    }
+
+    private synchronized MessageChildren existingMessageChildren() {
+      return messageChildren;
+    }
+
+    private String[] metadataLabelValues(String key) {
+      return this.withLabel(key);
+    }
+
+    private String[] windowLabelValues(String window) {
+      return this.withLabel(window);
+    }
+
+    private String[] withLabel(String value) {
+      String[] extendedLabelValues = Arrays.copyOf(labelValues, labelValues.length + 1);
+      extendedLabelValues[labelValues.length] = value;
+      return extendedLabelValues;
+    }
+  }
+
+  private class MessageChildren {
+    private final Counter.Child messages;
+    private final Counter.Child errors;
+    private final Gauge.Child messagesPerSecond;
+    private final Gauge.Child errorRate;
+    private final Gauge.Child bytesPerSecond;
+    private final Gauge.Child averageSize;
+    private final Gauge.Child[] ewmaRates;
+    private final Gauge.Child[] windowRates;
+
+    private MessageChildren(String[] labelValues) {
+      this.messages = PrometheusMessageMetrics.this.messages.labels(labelValues);
+      this.errors = PrometheusMessageMetrics.this.errors.labels(labelValues);
+      this.messagesPerSecond = PrometheusMessageMetrics.this.messagesPerSecond.labels(labelValues);
+      this.errorRate = PrometheusMessageMetrics.this.errorRate.labels(labelValues);
+      this.bytesPerSecond = PrometheusMessageMetrics.this.bytesPerSecond.labels(labelValues);
+      this.averageSize = PrometheusMessageMetrics.this.averageSize.labels(labelValues);
+      this.ewmaRates = new Gauge.Child[MessageRateCalculator.WINDOW_NAMES.length];
+      this.windowRates = new Gauge.Child[MessageRateCalculator.WINDOW_NAMES.length];
+      for(int window = 0; window < MessageRateCalculator.WINDOW_NAMES.length; window ++) {
+        String[] windowLabelValues = Arrays.copyOf(labelValues, labelValues.length + 1);
+        windowLabelValues[labelValues.length] = MessageRateCalculator.WINDOW_NAMES[window];
+        this.ewmaRates[window] = PrometheusMessageMetrics.this.ewmaRate.labels(windowLabelValues);
+        this.windowRates[window] = PrometheusMessageMetrics.this.windowRate.labels(windowLabelValues);
+      }
+    }
+  }
+
+}
@@ -1,23 +1,37 @@
 package com.adaptris.kubernetes.metrics.prometheus;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.StringUtils;
 
 import com.adaptris.core.CoreException;
+import com.adaptris.mgmt.kubernetes.metrics.InProcessMessageMetricsCollector;
+import com.adaptris.mgmt.kubernetes.metrics.JmxMessageMetricsCollector;
 import com.adaptris.mgmt.kubernetes.metrics.KubernetesMetricsAdapter;
+import com.adaptris.mgmt.kubernetes.metrics.KubernetesMetricsComponent;
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetrics;
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetricsBus;
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetricsCollector;
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetricsCycle;
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetricsListener;
+import com.adaptris.mgmt.kubernetes.metrics.MessageStatisticExtended;
+import com.adaptris.mgmt.kubernetes.metrics.MessagesPerSecondCalculator;
+import com.adaptris.mgmt.kubernetes.metrics.MetricsCalculator;
+import com.adaptris.mgmt.kubernetes.metrics.TimesliceSchedule;
 
 import io.prometheus.client.CollectorRegistry;
-import io.prometheus.client.Counter;
+import io.prometheus.client.exporter.HTTPServer;
 import io.prometheus.client.exporter.PushGateway;
 import lombok.Getter;
 import lombok.Setter;
@@ -32,6 +46,38 @@ public class PrometheusMetricsAdapter implements KubernetesMetricsAdapter, Messa
   
   private static final String PROMETHEUS_ENDPOINT_KEY = "prometheusEndpointUrl";
   
+  private static final String PROMETHEUS_EXPORTER_PORT_KEY = "prometheusExporterPort";
+  
+  /**
+   * The collector settings that used to be set here, and what replaced them on the {@link KubernetesMetricsComponent}.
+   */
+  private static final Map<String, String> MOVED_KEYS = new LinkedHashMap<>();
+  
+  static {
+    MOVED_KEYS.put("prometheusCollectorParallelism", "kubernetesMetricsCollectorParallelism");
+    MOVED_KEYS.put("prometheusCollectorReadTimeoutMillis", "kubernetesMetricsCollectorReadTimeoutMillis");
+    MOVED_KEYS.put("prometheusCollectorIncrementalFetch", "kubernetesMetricsCollectorIncrementalFetch");
+    MOVED_KEYS.put("prometheusAdditionalCollectors", "kubernetesMetricsAdditionalCollectors");
+  }
+  
+  private static final String JVM_METRICS_KEY = "prometheusJvmMetrics";
+  
+  private static final String PUSH_QUEUE_SIZE_KEY = "prometheusPushQueueSize";
+  
+  private static final String PUSH_CONNECT_TIMEOUT_MILLIS_KEY = "prometheusPushConnectTimeoutMillis";
+  
+  private static final String PUSH_READ_TIMEOUT_MILLIS_KEY = "prometheusPushReadTimeoutMillis";
+  
+  private static final String PUSH_SPOOL_DIRECTORY_KEY = "prometheusPushSpoolDirectory";
+  
+  private static final String SCRAPE_CACHED_KEY = "prometheusScrapeCached";
+  
+  private static final int PUSH_QUEUE_SIZE_DEFAULT = 10;
+  
+  private static final int PUSH_CONNECT_TIMEOUT_MILLIS_DEFAULT = 5000;
+  
+  private static final int PUSH_READ_TIMEOUT_MILLIS_DEFAULT = 10000;
+  
   private static final String K8S_POD_NAME_LABEL_KEY = "k8s_pod_name";
   
   private static final String K8S_POD_NAME_ENV = "K8S_POD_NAME";
@@ -55,9 +101,12 @@ public class PrometheusMetricsAdapter implements KubernetesMetricsAdapter, Messa
   private PushGateway pushGateway;
   
   @Getter
-  @Setter
   private MessageMetricsCollector messageMetricsCollector;
   
+  @Getter
+  @Setter
+  private MessageMetricsBus messageMetricsBus;
+  
   @Getter
   @Setter
   private Integer collectorIntervalSeconds;
@@ -70,57 +119,176 @@ public class PrometheusMetricsAdapter implements KubernetesMetricsAdapter, Messa
   @Setter
   private MetricsCalculator calculator;
   
-  private ScheduledExecutorService scheduler;
-  private ScheduledFuture<?> schedulerHandle;
+  /**
+   * The calculator for the scrapes, separate from the push calculator so each path sees every timeslice.
+   */
+  @Getter
+  @Setter
+  private MetricsCalculator scrapeCalculator;
+  
+  @Getter
+  @Setter
+  private Integer exporterPort;
+  
+  @Getter
+  @Setter
+  private CollectorRegistry scrapeRegistry;
+  
+  @Getter
+  @Setter
+  private CollectorRegistry pushRegistry;
+  
+  private PrometheusMessageMetrics pushMetrics;
+  
+  private boolean pushJvmMetrics;
+  
+  private PrometheusExporterMetrics pushExporterMetrics;
+  
+  private AsyncPushSender pushSender;
+  
+  private HTTPServer httpServer;
+  
+  private CachedScrapeServer cachedScrapeServer;
+  
+  private MessageMetricsScrapeCollector scrapeCollector;
+  
+  /**
+   * Runs the collection when there is no shared {@link MessageMetricsBus}.
+   */
+  private MessageMetricsBus standaloneBus;
+  
+  private final TimesliceSchedule timesliceSchedule = new TimesliceSchedule();
   
   public PrometheusMetricsAdapter() {
-    MessageMetricsCollector metricsCollector = new JmxMessageMetricsCollector();
-    metricsCollector.registerListener(this);
-    this.setMessageMetricsCollector(metricsCollector);
+    this.setMessageMetricsCollector(new JmxMessageMetricsCollector());
     this.setMetricLabels(new HashMap<>());
     this.setCalculator(new MessagesPerSecondCalculator());
+    this.setScrapeCalculator(new MessagesPerSecondCalculator());
     this.setBootstrapProperties(new Properties());
   }
   
+  /**
+   * Set the collector that gathers the message metrics, e.g. {@link InProcessMessageMetricsCollector} instead of the default
+   * {@link JmxMessageMetricsCollector}; used when the adapter runs without a shared {@link MessageMetricsBus}.
+   * @param messageMetricsCollector
+   */
+  public void setMessageMetricsCollector(MessageMetricsCollector messageMetricsCollector) {
+    if(this.messageMetricsCollector != null)
+      this.messageMetricsCollector.deregisterListener(this);
+    this.messageMetricsCollector = messageMetricsCollector;
+    if(messageMetricsCollector != null)
+      messageMetricsCollector.registerListener(this);
+  }
+  
   @Override
   public void init() throws CoreException {
     this.getMetricLabels().put(K8S_NAMESPACE_LABEL_KEY, this.loadProperty(K8S_NAMESPACE_ENV, K8S_NAMESPACE_DEFAULT));
     this.getMetricLabels().put(K8S_POD_NAME_LABEL_KEY, this.loadProperty(K8S_POD_NAME_ENV, K8S_POD_NAME_DEFAULT));
+    MOVED_KEYS.forEach((key, replacement) -> {
+      if(!StringUtils.isEmpty(this.getConfiguredProperty(key)))
+        log.warn("{} is no longer used by the Prometheus Metrics Adapter, set {} instead.", key, replacement);
+    });
     
-    this.getMessageMetricsCollector().prepare();
     if(this.getPushGateway() == null) {
       if(this.getPrometheusEndpoint() != null)
         this.setPushGateway(new PushGateway(this.getPrometheusEndpoint()));
-      else
-        log.warn("Prometheus Metrics Adapter could not be started because the bootstrap property or system property {}, was not set.", PROMETHEUS_ENDPOINT_KEY);
     }
+    if(this.getPushGateway() != null)
+      this.configurePushGateway();
+    if(this.getExporterPort() == null)
+      this.setExporterPort(this.getPrometheusExporterPort());
+    this.configureCollector();
+    this.getMessageMetricsCollector().prepare();
+    
+    if(this.getPushGateway() != null && this.getPushRegistry() == null) {
+      this.setPushRegistry(new CollectorRegistry());
+      // pod and namespace are the push grouping key, so aren't labels here.
+      this.pushMetrics = new PrometheusMessageMetrics(new HashMap<>()).register(this.getPushRegistry());
+      this.pushExporterMetrics = new PrometheusExporterMetrics(new HashMap<>()).register(this.getPushRegistry());
+      int queueSize = this.getIntegerProperty(PUSH_QUEUE_SIZE_KEY, PUSH_QUEUE_SIZE_DEFAULT);
+      if(queueSize > 0) {
+        this.pushSender = new AsyncPushSender(this.getPushGateway(), PROMETHEUS_JOB_NAME, this.getMetricLabels(), queueSize);
+        this.pushSender.setExporterMetrics(this.pushExporterMetrics);
+        this.pushSender.setSpool(this.createSpool());
+      }
+      JvmMetricsCollector jvmMetrics = new JvmMetricsCollector(this.getConfiguredProperty(JVM_METRICS_KEY), new HashMap<>());
+      pushJvmMetrics = !jvmMetrics.isEmpty();
+      if(pushJvmMetrics)
+        jvmMetrics.register(this.getPushRegistry());
+    }
+    
+    if(this.getExporterPort() != null) {
+      this.setScrapeRegistry(new CollectorRegistry());
+      // the cached scrape is rendered from the statistics each cycle delivers, rather than collecting them again
+      MessageMetricsCollector scrapeSource = this.isScrapeCached() ? null : this.getMessageMetricsCollector();
+      scrapeCollector = new MessageMetricsScrapeCollector(scrapeSource, this.getScrapeCalculator(), this.getMetricLabels(), this.collectorIntervalSeconds());
+      scrapeCollector.setExporterMetrics(new PrometheusExporterMetrics(this.getMetricLabels()).register(this.getScrapeRegistry()));
+      scrapeCollector.register(this.getScrapeRegistry());
+      JvmMetricsCollector jvmMetrics = new JvmMetricsCollector(this.getConfiguredProperty(JVM_METRICS_KEY), this.getMetricLabels());
+      if(!jvmMetrics.isEmpty())
+        jvmMetrics.register(this.getScrapeRegistry());
+    }
+    
+    if(this.getPushGateway() == null && this.getExporterPort() == null)
+      log.warn("Prometheus Metrics Adapter could not be started because neither the bootstrap property or system property {} nor {} was set.", PROMETHEUS_ENDPOINT_KEY, PROMETHEUS_EXPORTER_PORT_KEY);
   }
   
   @Override
   public void start() throws CoreException {
-    if(this.getPushGateway() != null) {
-      scheduler = Executors.newScheduledThreadPool(1, new ThreadFactory() {
-        @Override
-        public Thread newThread(Runnable runnable) {
-          return new Thread(runnable, "Prometheus Metric Gatherer");
-        }
-      });
-      
-      this.schedulerHandle = this.scheduler.scheduleWithFixedDelay(
-          this.getMessageMetricsCollector(), 
-          this.collectorIntervalSeconds(), 
-          this.collectorIntervalSeconds(), 
-          TimeUnit.SECONDS);
+    if(pushSender != null)
+      pushSender.start();
+    if(standaloneBus != null && standaloneBus == this.getMessageMetricsCollector())
+      standaloneBus.start();
+    if(this.getScrapeRegistry() != null && this.isScrapeCached()) {
+      this.startCachedScrapeServer();
+    } else if(this.getScrapeRegistry() != null) {
+      try {
+        httpServer = new HTTPServer(new InetSocketAddress(this.getExporterPort()), this.getScrapeRegistry(), true);
+        log.info("Prometheus Metrics Adapter serving metrics for scraping on port {}", httpServer.getPort());
+      } catch (IOException e) {
+        throw new CoreException("Could not start the Prometheus metrics endpoint on port " + this.getExporterPort(), e);
+      }
     }
   }
   
   @Override
   public void stop() {
-    if(this.getPushGateway() != null) {
-      if (schedulerHandle != null) {
-        this.schedulerHandle.cancel(true);
-        scheduler.shutdownNow();
-      }
+    if(standaloneBus != null)
+      standaloneBus.stop();
+    if(pushSender != null)
+      pushSender.stop();
+    if(httpServer != null) {
+      httpServer.stop();
+      httpServer = null;
+    }
+    if(cachedScrapeServer != null) {
+      cachedScrapeServer.stop();
+      cachedScrapeServer = null;
+    }
+  }
+  
+  /**
+   * Serve the scrapes from a copy rendered once per collection cycle, rather than collecting on every scrape.
+   */
+  private void startCachedScrapeServer() throws CoreException {
+    cachedScrapeServer = new CachedScrapeServer(this.getScrapeRegistry());
+    try {
+      // something to serve until the first cycle
+      scrapeCollector.record(this.getMessageMetricsCollector().collectStatistics());
+      cachedScrapeServer.render();
+      cachedScrapeServer.start(new InetSocketAddress(this.getExporterPort()));
+    } catch (IOException e) {
+      cachedScrapeServer = null;
+      throw new CoreException("Could not start the Prometheus metrics endpoint on port " + this.getExporterPort(), e);
+    }
+    log.info("Prometheus Metrics Adapter serving cached metrics for scraping on port {}", cachedScrapeServer.getPort());
+  }
+  
+  private void renderScrape() {
+    try {
+      cachedScrapeServer.render();
+    } catch (Exception e) {
+      log.warn("Could not render the Prometheus metrics for scraping, serving the previous metrics.", e);
     }
   }
   
@@ -141,34 +309,173 @@ public class PrometheusMetricsAdapter implements KubernetesMetricsAdapter, Messa
     return null;
   }
   
+  private Integer getPrometheusExporterPort() throws CoreException {
+    String port = this.getConfiguredProperty(PROMETHEUS_EXPORTER_PORT_KEY);
+    try {
+      return StringUtils.isEmpty(port) ? null : Integer.valueOf(port.trim());
+    } catch (NumberFormatException e) {
+      throw new CoreException("Invalid Prometheus exporter port " + port, e);
+    }
+  }
+  
+  /**
+   * Use the shared bus, or a bus of our own around the collector, to collect the statistics. The push and the cached scrape
+   * work from each collection so listen to the bus; a plain scrape pulls the statistics through it for itself, so doesn't.
+   */
+  private void configureCollector() {
+    boolean listening = this.getPushGateway() != null || (this.getExporterPort() != null && this.isScrapeCached());
+    MessageMetricsBus bus = this.getMessageMetricsBus();
+    if(bus == null && listening) {
+      if(standaloneBus == null || standaloneBus != this.getMessageMetricsCollector())
+        standaloneBus = new MessageMetricsBus(this.getMessageMetricsCollector());
+      standaloneBus.setIntervalSeconds(this.getCollectorIntervalSeconds() == null ? METRICS_COLLECTOR_INTERVAL_SECONDS_DEFAULT : this.getCollectorIntervalSeconds());
+      bus = standaloneBus;
+    }
+    if(bus == null || !(listening || this.getExporterPort() != null))
+      return;
+    this.setMessageMetricsCollector(bus);
+    if(!listening)
+      bus.deregisterListener(this);
+  }
+  
+  private boolean isScrapeCached() {
+    return Boolean.parseBoolean(this.getConfiguredProperty(SCRAPE_CACHED_KEY));
+  }
+  
+  /**
+   * Give up on a push gateway that isn't answering, rather than waiting forever, which is what the default connections do.
+   */
+  private void configurePushGateway() {
+    int connectTimeout = this.getIntegerProperty(PUSH_CONNECT_TIMEOUT_MILLIS_KEY, PUSH_CONNECT_TIMEOUT_MILLIS_DEFAULT);
+    int readTimeout = this.getIntegerProperty(PUSH_READ_TIMEOUT_MILLIS_KEY, PUSH_READ_TIMEOUT_MILLIS_DEFAULT);
+    this.getPushGateway().setConnectionFactory(url -> {
+      HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+      connection.setConnectTimeout(connectTimeout);
+      connection.setReadTimeout(readTimeout);
+      return connection;
+    });
+  }
+  
+  /**
+   * Keep the latest snapshot that couldn't be pushed on disk, if a directory is configured.
+   */
+  private DiskPushSpool createSpool() throws CoreException {
+    String directory = this.getConfiguredProperty(PUSH_SPOOL_DIRECTORY_KEY);
+    if(StringUtils.isEmpty(directory))
+      return null;
+    try {
+      return new DiskPushSpool(new File(directory.trim()));
+    } catch (IOException e) {
+      throw new CoreException("Could not open the Prometheus push spool in " + directory, e);
+    }
+  }
+  
+  private int getIntegerProperty(String key, int defaultValue) {
+    String value = this.getConfiguredProperty(key);
+    return StringUtils.isEmpty(value) ? defaultValue : Integer.parseInt(value.trim());
+  }
+  
+  private String getConfiguredProperty(String key) {
+    return StringUtils.defaultIfEmpty(System.getProperty(key), this.getBootstrapProperties().getProperty(key));
+  }
+  
+  /**
+   * The port the embedded HTTP server listens on, once started; -1 if pull mode is not enabled.
+   * @return the port.
+   */
+  public int scrapePort() {
+    if(cachedScrapeServer != null)
+      return cachedScrapeServer.getPort();
+    return httpServer == null ? -1 : httpServer.getPort();
+  }
+  
+  /**
+   * How often the statistics arrive; the bus's interval when the collection is shared.
+   */
   protected int collectorIntervalSeconds() {
+    if(this.getMessageMetricsCollector() instanceof MessageMetricsBus)
+      return ((MessageMetricsBus) this.getMessageMetricsCollector()).getIntervalSeconds();
     return this.getCollectorIntervalSeconds() == null ? METRICS_COLLECTOR_INTERVAL_SECONDS_DEFAULT : this.getCollectorIntervalSeconds();
   }
 
+  /**
+   * The number of seconds each cycle covers; the interval rounded up to a whole number of timeslices once they are known.
+   */
+  protected long collectorPeriodSeconds() {
+    long periodMillis = timesliceSchedule.periodMillis(TimeUnit.SECONDS.toMillis(this.collectorIntervalSeconds()));
+    return Math.max(TimeUnit.MILLISECONDS.toSeconds(periodMillis), 1);
+  }
+
   @Override
   public void notifyMessageMetrics(List<MessageStatisticExtended> statistics) {
-    CollectorRegistry registry = new CollectorRegistry();
-    statistics.forEach(statistic -> {
-      Counter msgPerSecondCounter = 
-          Counter
-          .build()
-          .name(statistic.getStatisticId().replace("-", ""))
-          .help("Number of messages processed for the workflow interceptor named " + statistic.getStatisticId().replace("-", ""))
-          .register(registry);
-      
-      long messagesPerSecond = this.getCalculator().calculateMessagesPerSecond(METRICS_COLLECTOR_INTERVAL_SECONDS_DEFAULT, statistic);
-      if(messagesPerSecond >= 0) {
-        msgPerSecondCounter.inc(messagesPerSecond);
-      
-        log.trace("Pushing metric '{}' with value '{}' to Prometheus.", statistic.getStatisticId().replace("-", ""), messagesPerSecond);
+    this.export(statistics, null);
+  }
+
+  /**
+   * Each collection by the bus, timed from the start of the collection to the end of the push.
+   */
+  @Override
+  public void notifyMessageMetrics(List<MessageStatisticExtended> statistics, MessageMetricsCycle cycle) {
+    this.export(statistics, cycle);
+  }
+
+  private void export(List<MessageStatisticExtended> statistics, MessageMetricsCycle cycle) {
+    if(cachedScrapeServer != null) {
+      scrapeCollector.record(statistics);
+      this.renderScrape();
+    }
+    // in pull mode the scrapes collect for themselves
+    if(pushMetrics == null)
+      return;
+    long cpuStart = pushExporterMetrics.currentThreadCpuNanos();
+    long calculationStart = System.nanoTime();
+    if(cycle != null)
+      pushExporterMetrics.observeCollection(cycle.getCollectionNanos(), statistics.size());
+    
+    timesliceSchedule.observe(statistics);
+    long periodSeconds = this.collectorPeriodSeconds();
+    int metricCount = 0;
+    for(MessageStatisticExtended statistic : statistics) {
+      MessageMetrics metrics = this.getCalculator().calculate(periodSeconds, statistic);
+      if(pushMetrics.record(statistic, metrics)) {
+        metricCount ++;
         
-        try {
-          this.getPushGateway().pushAdd(registry, PROMETHEUS_JOB_NAME, this.getMetricLabels());
-        } catch (IOException e) {
-          log.warn("Could not push to Prometheus.", e);
-        }
+        log.trace("Adding metric '{}' with {} messages, {} errors and {} bytes to the Prometheus push.", 
+            statistic.getStatisticId(), metrics.getMessageCount(), metrics.getErrorCount(), metrics.getMessageSize());
       }
-    });
+    }
+    
+    this.getCalculator().retainStatistics(statistics);
+    pushMetrics.retainStatistics(statistics);
+    pushExporterMetrics.observeCalculation(System.nanoTime() - calculationStart);
+    
+    // The JVM metrics are always worth sending, an idle workflow may be down to the GC or threads.
+    if(metricCount > 0 || pushJvmMetrics) {
+      // Once started the push happens on its own thread from a snapshot, so a slow push gateway doesn't hold up the collection.
+      if(pushSender != null && pushSender.isRunning())
+        pushSender.offer(Collections.list(this.getPushRegistry().metricFamilySamples()), metricCount);
+      else
+        this.push(this.getPushRegistry(), metricCount);
+    }
+    
+    if(cycle != null) {
+      long cpuEnd = pushExporterMetrics.currentThreadCpuNanos();
+      long cpuNanos = cycle.getCpuNanos() >= 0 && cpuStart >= 0 && cpuEnd >= cpuStart ? cycle.getCpuNanos() + cpuEnd - cpuStart : -1;
+      pushExporterMetrics.observeCycle(System.nanoTime() - cycle.getStartNanos(), periodSeconds, cpuNanos);
+    }
+  }
+  
+  private void push(CollectorRegistry registry, int metricCount) {
+    long bodyBytes = PrometheusExporterMetrics.bodyBytes(registry.metricFamilySamples());
+    long pushStart = System.nanoTime();
+    try {
+      this.getPushGateway().pushAdd(registry, PROMETHEUS_JOB_NAME, this.getMetricLabels());
+      pushExporterMetrics.observePush(System.nanoTime() - pushStart, metricCount, bodyBytes, true);
+      log.debug("Pushed {} metrics to Prometheus in {}ms.", metricCount, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pushStart));
+    } catch (IOException e) {
+      pushExporterMetrics.observePush(System.nanoTime() - pushStart, metricCount, bodyBytes, false);
+      log.warn("Could not push {} metrics to Prometheus after {}ms.", metricCount, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pushStart), e);
+    }
   }
   
   private String loadProperty(String propertyName, String defaultValue) {
@@ -0,0 +1,160 @@
+package com.adaptris.kubernetes.metrics.prometheus;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.exporter.PushGateway;
+
+public class AsyncPushSenderTest {
+
+  @Mock private PushGateway mockPushGateway;
+
+  private PrometheusExporterMetrics exporterMetrics;
+
+  private CollectorRegistry registry;
+
+  private AsyncPushSender sender;
+
+  private AutoCloseable closeable;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    closeable = MockitoAnnotations.openMocks(this);
+
+    registry = new CollectorRegistry();
+    exporterMetrics = new PrometheusExporterMetrics(new HashMap<>()).register(registry);
+    sender = new AsyncPushSender(mockPushGateway, "interlok", new HashMap<>(), 2);
+    sender.setExporterMetrics(exporterMetrics);
+    sender.setInitialBackoffMillis(10);
+    sender.setMaxBackoffMillis(40);
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    sender.stop();
+    closeable.close();
+  }
+
+  @Test
+  public void testPushesQueuedSnapshots() throws Exception {
+    sender.start();
+    sender.offer(snapshot("first"), 1);
+    sender.offer(snapshot("second"), 1);
+
+    ArgumentCaptor<Collector> captor = ArgumentCaptor.forClass(Collector.class);
+    verify(mockPushGateway, timeout(2000).times(2)).pushAdd(captor.capture(), eq("interlok"), anyMap());
+    assertEquals("first", captor.getAllValues().get(0).collect().get(0).name);
+    assertEquals("second", captor.getAllValues().get(1).collect().get(0).name);
+  }
+
+  @Test
+  public void testDropsOldestWhenFull() throws Exception {
+    sender.offer(snapshot("first"), 1);
+    sender.offer(snapshot("second"), 1);
+    sender.offer(snapshot("third"), 1);
+
+    assertEquals(2, sender.queued());
+    assertEquals(1d, registry.getSampleValue("interlok_exporter_push_dropped_total"));
+
+    sender.start();
+    ArgumentCaptor<Collector> captor = ArgumentCaptor.forClass(Collector.class);
+    verify(mockPushGateway, timeout(2000).times(2)).pushAdd(captor.capture(), eq("interlok"), anyMap());
+    assertEquals("second", captor.getAllValues().get(0).collect().get(0).name);
+  }
+
+  @Test
+  public void testRetriesWithBackoff() throws Exception {
+    doThrow(new IOException("expected")).doThrow(new IOException("expected")).doNothing()
+    .when(mockPushGateway).pushAdd(any(Collector.class), eq("interlok"), anyMap());
+
+    sender.start();
+    sender.offer(snapshot("first"), 1);
+
+    verify(mockPushGateway, timeout(2000).times(3)).pushAdd(any(Collector.class), eq("interlok"), anyMap());
+    assertEquals(2d, registry.getSampleValue("interlok_exporter_push_failures_total"));
+    assertEquals(0, sender.queued());
+  }
+
+  @Test
+  public void testCircuitOpensAfterRepeatedFailures() throws Exception {
+    doThrow(new IOException("expected")).when(mockPushGateway).pushAdd(any(Collector.class), eq("interlok"), anyMap());
+    sender.setFailureThreshold(2);
+    sender.setOpenMillis(60000);
+
+    sender.start();
+    sender.offer(snapshot("first"), 1);
+
+    verify(mockPushGateway, timeout(2000).times(2)).pushAdd(any(Collector.class), eq("interlok"), anyMap());
+    Thread.sleep(300);
+    verify(mockPushGateway, times(2)).pushAdd(any(Collector.class), eq("interlok"), anyMap());
+    assertEquals(1, sender.queued());
+  }
+
+  @Test
+  public void testSpoolsOnlyTheLatestFailedPush(@TempDir File directory) throws Exception {
+    doThrow(new IOException("expected")).doThrow(new IOException("expected")).doNothing()
+    .when(mockPushGateway).pushAdd(any(Collector.class), eq("interlok"), anyMap());
+    sender.setSpool(new DiskPushSpool(directory));
+
+    sender.offer(snapshot("first"), 1);
+    sender.offer(snapshot("second"), 1);
+    sender.start();
+
+    ArgumentCaptor<Collector> captor = ArgumentCaptor.forClass(Collector.class);
+    verify(mockPushGateway, timeout(3000).times(3)).pushAdd(captor.capture(), eq("interlok"), anyMap());
+    List<String> pushed = new ArrayList<>();
+    captor.getAllValues().forEach(collector -> pushed.add(collector.collect().get(0).name));
+    // the spooled first snapshot is replaced by the second, never pushed after it
+    assertEquals(Arrays.asList("first", "second", "second"), pushed);
+    Thread.sleep(300);
+    verify(mockPushGateway, times(3)).pushAdd(any(Collector.class), eq("interlok"), anyMap());
+    assertTrue(sender.getSpool().isEmpty());
+  }
+
+  @Test
+  public void testPushesSpooledSnapshotWithItsGroupingKey(@TempDir File directory) throws Exception {
+    Map<String, String> previousPod = new HashMap<>();
+    previousPod.put("k8s_pod_name", "previous");
+    DiskPushSpool spool = new DiskPushSpool(directory);
+    spool.put(previousPod, snapshot("leftover"), 1);
+    sender.setSpool(spool);
+
+    sender.start();
+
+    verify(mockPushGateway, timeout(2000)).pushAdd(any(Collector.class), eq("interlok"), eq(previousPod));
+    Thread.sleep(100);
+    assertTrue(spool.isEmpty());
+  }
+
+  private List<Collector.MetricFamilySamples> snapshot(String name) {
+    List<Collector.MetricFamilySamples> samples = new ArrayList<>();
+    samples.add(new Collector.MetricFamilySamples(name, Collector.Type.GAUGE, "help", new ArrayList<>()));
+    return samples;
+  }
+
+}
@@ -0,0 +1,94 @@
+package com.adaptris.kubernetes.metrics.prometheus;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Gauge;
+
+public class CachedScrapeServerTest {
+
+  private CollectorRegistry registry;
+
+  private Gauge gauge;
+
+  private CachedScrapeServer server;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    registry = new CollectorRegistry();
+    gauge = Gauge.build("test_gauge", "A test gauge.").register(registry);
+    server = new CachedScrapeServer(registry);
+    server.start(new InetSocketAddress(0));
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    server.stop();
+  }
+
+  @Test
+  public void testServesRenderedMetrics() throws Exception {
+    gauge.set(1);
+    server.render();
+    gauge.set(2);
+
+    String body = this.scrape(false);
+    assertTrue(body.contains("test_gauge 1.0"));
+
+    server.render();
+    assertTrue(this.scrape(false).contains("test_gauge 2.0"));
+  }
+
+  @Test
+  public void testServesGzipWhenAccepted() throws Exception {
+    gauge.set(3);
+    server.render();
+
+    assertEquals(this.scrape(false), this.scrape(true));
+    assertTrue(this.scrape(true).contains("test_gauge 3.0"));
+  }
+
+  @Test
+  public void testRendersIfScrapedFirst() throws Exception {
+    gauge.set(4);
+
+    assertTrue(this.scrape(false).contains("test_gauge 4.0"));
+  }
+
+  @Test
+  public void testStop() throws Exception {
+    server.stop();
+
+    assertEquals(-1, server.getPort());
+  }
+
+  private String scrape(boolean gzip) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + server.getPort() + "/metrics").openConnection();
+    if(gzip)
+      connection.setRequestProperty("Accept-Encoding", "gzip");
+    try (InputStream in = connection.getInputStream()) {
+      if(gzip) {
+        assertEquals("gzip", connection.getContentEncoding());
+        return IOUtils.toString(new GZIPInputStream(in), StandardCharsets.UTF_8);
+      }
+      assertNull(connection.getContentEncoding());
+      return IOUtils.toString(in, StandardCharsets.UTF_8);
+    }
+  }
+
+}
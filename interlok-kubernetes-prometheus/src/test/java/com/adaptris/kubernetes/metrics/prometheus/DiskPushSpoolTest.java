@@ -0,0 +1,93 @@
+package com.adaptris.kubernetes.metrics.prometheus;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.Collector.MetricFamilySamples;
+
+public class DiskPushSpoolTest {
+
+  @TempDir
+  File directory;
+
+  @Test
+  public void testSnapshotRoundTrip() throws Exception {
+    List<MetricFamilySamples> samples = new ArrayList<>();
+    samples.add(new MetricFamilySamples("interlok_messages", Collector.Type.COUNTER, "help",
+        Arrays.asList(new MetricFamilySamples.Sample("interlok_messages_total", Arrays.asList("id"), Arrays.asList("MyStatId"), 10d),
+            new MetricFamilySamples.Sample("interlok_messages_created", Arrays.asList("id"), Arrays.asList("MyStatId"), 1d, 1234l))));
+
+    AsyncPushSender.PushRequest request = DiskPushSpool.decode(DiskPushSpool.encode(samples, 3));
+
+    assertEquals(samples, request.collect());
+  }
+
+  @Test
+  public void testKeepsLatestPerGroupingKey() throws Exception {
+    DiskPushSpool spool = new DiskPushSpool(directory);
+    assertTrue(spool.isEmpty());
+    assertNull(spool.peek());
+
+    spool.put(groupingKey("pod-1"), snapshot("first"), 1);
+    spool.put(groupingKey("pod-1"), snapshot("second"), 1);
+
+    assertEquals(1, directory.listFiles().length);
+    AsyncPushSender.PushRequest request = spool.peek();
+    assertEquals("second", request.collect().get(0).name);
+    assertEquals("second", spool.peek().collect().get(0).name);
+
+    spool.put(groupingKey("pod-2"), snapshot("third"), 1);
+    spool.remove(groupingKey("pod-1"));
+    assertEquals("third", spool.peek().collect().get(0).name);
+    spool.remove(groupingKey("pod-2"));
+    assertTrue(spool.isEmpty());
+    assertEquals(0, directory.listFiles().length);
+  }
+
+  @Test
+  public void testSurvivesRestart() throws Exception {
+    DiskPushSpool spool = new DiskPushSpool(directory);
+    spool.put(groupingKey("pod-1"), snapshot("first"), 1);
+    // a snapshot that was only partly written when the pod died
+    try (FileOutputStream out = new FileOutputStream(new File(directory, "latest-partial.snapshot"))) {
+      out.write(new byte[] {0, 0, 1, 0, 1, 2});
+    }
+
+    spool = new DiskPushSpool(directory);
+    assertFalse(spool.isEmpty());
+    AsyncPushSender.PushRequest request = spool.peek();
+    assertEquals("first", request.collect().get(0).name);
+    spool.remove(groupingKey("pod-1"));
+    assertTrue(spool.isEmpty());
+  }
+
+  private Map<String, String> groupingKey(String pod) {
+    Map<String, String> groupingKey = new LinkedHashMap<>();
+    groupingKey.put("k8s_pod_name", pod);
+    return groupingKey;
+  }
+
+  private List<MetricFamilySamples> snapshot(String name) {
+    List<MetricFamilySamples> samples = new ArrayList<>();
+    List<MetricFamilySamples.Sample> familySamples = new ArrayList<>();
+    for(int count = 0; count < 10; count ++)
+      familySamples.add(new MetricFamilySamples.Sample(name, Arrays.asList("id"), Arrays.asList("id-" + count), count));
+    samples.add(new MetricFamilySamples(name, Collector.Type.GAUGE, "help", familySamples));
+    return samples;
+  }
+
+}
@@ -0,0 +1,58 @@
+package com.adaptris.kubernetes.metrics.prometheus;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import io.prometheus.client.CollectorRegistry;
+
+public class JvmMetricsCollectorTest {
+
+  @Test
+  public void testDefaultGroupsWithLabels() throws Exception {
+    Map<String, String> labels = new LinkedHashMap<>();
+    labels.put("k8s_namespace", "namespace");
+    labels.put("k8s_pod_name", "pod");
+    CollectorRegistry registry = new CollectorRegistry();
+    new JvmMetricsCollector("default", labels).register(registry);
+
+    assertNotNull(registry.getSampleValue("jvm_threads_current", new String[] {"k8s_namespace", "k8s_pod_name"}, new String[] {"namespace", "pod"}));
+    assertNotNull(registry.getSampleValue("jvm_memory_pool_bytes_used", new String[] {"k8s_namespace", "k8s_pod_name", "pool"}, 
+        new String[] {"namespace", "pod", "Metaspace"}));
+    assertNull(registry.getSampleValue("jvm_threads_current"));
+    assertNull(registry.getSampleValue("jvm_classes_loaded", new String[] {"k8s_namespace", "k8s_pod_name"}, new String[] {"namespace", "pod"}));
+  }
+
+  @Test
+  public void testChosenGroups() throws Exception {
+    CollectorRegistry registry = new CollectorRegistry();
+    new JvmMetricsCollector("classloading", new HashMap<>()).register(registry);
+
+    assertNotNull(registry.getSampleValue("jvm_classes_loaded"));
+    assertNull(registry.getSampleValue("jvm_threads_current"));
+  }
+
+  @Test
+  public void testNoGroups() throws Exception {
+    assertTrue(new JvmMetricsCollector(null, new HashMap<>()).isEmpty());
+    assertTrue(new JvmMetricsCollector("none", new HashMap<>()).isEmpty());
+    assertFalse(new JvmMetricsCollector("all", new HashMap<>()).isEmpty());
+  }
+
+  @Test
+  public void testAllocationExportsCreatedOnce() throws Exception {
+    JvmMetricsCollector first = new JvmMetricsCollector("allocation", new HashMap<>());
+    JvmMetricsCollector second = new JvmMetricsCollector("allocation", new HashMap<>());
+
+    assertSame(first.collectors().get(0), second.collectors().get(0));
+  }
+
+}
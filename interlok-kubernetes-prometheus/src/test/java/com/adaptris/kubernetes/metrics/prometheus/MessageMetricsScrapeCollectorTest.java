@@ -0,0 +1,147 @@
+package com.adaptris.kubernetes.metrics.prometheus;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetricsCollector;
+import com.adaptris.mgmt.kubernetes.metrics.MessageStatisticExtended;
+import com.adaptris.mgmt.kubernetes.metrics.MetricsCalculator;
+
+import io.prometheus.client.Collector.MetricFamilySamples;
+import io.prometheus.client.CollectorRegistry;
+
+public class MessageMetricsScrapeCollectorTest {
+
+  private MessageMetricsScrapeCollector scrapeCollector;
+
+  @Mock private MessageMetricsCollector mockMetricsCollector;
+
+  @Mock private MetricsCalculator mockCalculator;
+
+  private List<MessageStatisticExtended> statistics;
+
+  private AutoCloseable closeable;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    closeable = MockitoAnnotations.openMocks(this);
+
+    Map<String, String> labels = new HashMap<>();
+    labels.put("k8s_namespace", "default");
+    labels.put("k8s_pod_name", "interlok");
+
+    statistics = new ArrayList<>();
+    MessageStatisticExtended stat = new MessageStatisticExtended();
+    stat.setAdapterId("MyAdapter");
+    stat.setChannelId("MyChannel");
+    stat.setWorkflowId("MyWorkflow");
+    stat.setStatisticId("MyStatId");
+    statistics.add(stat);
+
+    when(mockMetricsCollector.collectStatistics()).thenReturn(statistics);
+    // the default single pass calculation delegates to calculateMessagesPerSecond
+    when(mockCalculator.calculate(anyLong(), any(MessageStatisticExtended.class))).thenCallRealMethod();
+
+    scrapeCollector = new MessageMetricsScrapeCollector(mockMetricsCollector, mockCalculator, labels, 10);
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    closeable.close();
+  }
+
+  @Test
+  public void testCollectOnScrapeOnly() throws Exception {
+    when(mockCalculator.calculateMessagesPerSecond(anyLong(), any(MessageStatisticExtended.class)))
+    .thenReturn(10l);
+
+    List<MetricFamilySamples> samples = scrapeCollector.collect();
+
+    verify(mockMetricsCollector).collectStatistics();
+    MetricFamilySamples messages = samples.stream().filter(family -> family.name.equals("interlok_messages")).findFirst().get();
+    assertEquals(10d, messages.samples.stream().filter(sample -> sample.name.equals("interlok_messages_total")).findFirst().get().value);
+  }
+
+  @Test
+  public void testCountersAccumulateAcrossScrapes() throws Exception {
+    when(mockCalculator.calculateMessagesPerSecond(anyLong(), any(MessageStatisticExtended.class)))
+    .thenReturn(10l, -1l, 5l);
+
+    CollectorRegistry registry = new CollectorRegistry();
+    scrapeCollector.register(registry);
+
+    String[] labelNames = new String[] {"k8s_namespace", "k8s_pod_name", "adapter", "channel", "workflow", "id"};
+    String[] labelValues = new String[] {"default", "interlok", "MyAdapter", "MyChannel", "MyWorkflow", "MyStatId"};
+
+    assertEquals(10d, registry.getSampleValue("interlok_messages_total", labelNames, labelValues));
+    assertEquals(10d, registry.getSampleValue("interlok_messages_total", labelNames, labelValues));
+    assertEquals(15d, registry.getSampleValue("interlok_messages_total", labelNames, labelValues));
+  }
+
+  @Test
+  public void testSameStatisticIdInAnotherWorkflowKeptSeparately() throws Exception {
+    MessageStatisticExtended other = new MessageStatisticExtended();
+    other.setAdapterId("MyAdapter");
+    other.setChannelId("MyChannel");
+    other.setWorkflowId("MyOtherWorkflow");
+    other.setStatisticId("MyStatId");
+    statistics.add(other);
+    when(mockCalculator.calculateMessagesPerSecond(anyLong(), any(MessageStatisticExtended.class)))
+    .thenReturn(10l, 3l);
+
+    MetricFamilySamples messages = scrapeCollector.collect().stream().filter(family -> family.name.equals("interlok_messages")).findFirst().get();
+
+    assertEquals(10d, messages.samples.stream().filter(sample -> sample.name.equals("interlok_messages_total") && sample.labelValues.contains("MyWorkflow")).findFirst().get().value);
+    assertEquals(3d, messages.samples.stream().filter(sample -> sample.name.equals("interlok_messages_total") && sample.labelValues.contains("MyOtherWorkflow")).findFirst().get().value);
+  }
+
+  @Test
+  public void testRecordedStatisticsServedWithoutCollector() throws Exception {
+    when(mockCalculator.calculateMessagesPerSecond(anyLong(), any(MessageStatisticExtended.class)))
+    .thenReturn(10l, 5l);
+    scrapeCollector.setMessageMetricsCollector(null);
+
+    scrapeCollector.record(statistics);
+    scrapeCollector.collect();
+    scrapeCollector.record(statistics);
+    List<MetricFamilySamples> samples = scrapeCollector.collect();
+
+    MetricFamilySamples messages = samples.stream().filter(family -> family.name.equals("interlok_messages")).findFirst().get();
+    assertEquals(15d, messages.samples.stream().filter(sample -> sample.name.equals("interlok_messages_total")).findFirst().get().value);
+    verify(mockMetricsCollector, never()).collectStatistics();
+  }
+
+  @Test
+  public void testRatesDecayWithoutNewData() throws Exception {
+    when(mockCalculator.calculateMessagesPerSecond(anyLong(), any(MessageStatisticExtended.class)))
+    .thenReturn(600l, -1l);
+
+    double first = ewmaRate(scrapeCollector.collect());
+    Thread.sleep(50);
+    double second = ewmaRate(scrapeCollector.collect());
+
+    assertTrue(second < first);
+  }
+
+  private static double ewmaRate(List<MetricFamilySamples> samples) {
+    MetricFamilySamples ewma = samples.stream().filter(family -> family.name.equals("interlok_messages_per_second_ewma")).findFirst().get();
+    return ewma.samples.stream().filter(sample -> sample.labelValues.contains("1m")).findFirst().get().value;
+  }
+
+}
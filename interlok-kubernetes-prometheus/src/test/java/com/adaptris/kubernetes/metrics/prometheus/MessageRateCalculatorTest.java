@@ -0,0 +1,93 @@
+package com.adaptris.kubernetes.metrics.prometheus;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetrics;
+import com.adaptris.mgmt.kubernetes.metrics.MessageStatisticExtended;
+
+public class MessageRateCalculatorTest {
+
+  private static final long START = 1_600_000_000_000l;
+
+  private MessageRateCalculator calculator;
+
+  private MessageStatisticExtended statistic;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    calculator = new MessageRateCalculator();
+    statistic = new MessageStatisticExtended();
+    statistic.setStatisticId("MyStatId");
+  }
+
+  @Test
+  public void testFirstUpdateSeedsAverages() throws Exception {
+    calculator.update(statistic, new MessageMetrics(100, 0, 0, 10), START);
+
+    for(int window = 0; window < 3; window ++)
+      assertEquals(10d, calculator.ewmaRate(statistic, window), 0.0001);
+    assertEquals(100d / 60, calculator.windowRate(statistic, 0, START), 0.0001);
+    assertEquals(100d / 900, calculator.windowRate(statistic, 2, START), 0.0001);
+  }
+
+  @Test
+  public void testSteadyRate() throws Exception {
+    for(int cycle = 0; cycle < 90; cycle ++)
+      calculator.update(statistic, new MessageMetrics(50, 0, 0, 10), START + cycle * 10000);
+
+    long now = START + 89 * 10000;
+    for(int window = 0; window < 3; window ++) {
+      assertEquals(5d, calculator.ewmaRate(statistic, window), 0.0001);
+      assertEquals(5d, calculator.windowRate(statistic, window, now), 0.0001);
+    }
+  }
+
+  @Test
+  public void testBurstSmoothedByLongerWindows() throws Exception {
+    for(int cycle = 0; cycle < 90; cycle ++)
+      calculator.update(statistic, new MessageMetrics(cycle == 89 ? 1000 : 0, 0, 0, 10), START + cycle * 10000);
+
+    double oneMinute = calculator.ewmaRate(statistic, 0);
+    double fifteenMinutes = calculator.ewmaRate(statistic, 2);
+    assertTrue(oneMinute > fifteenMinutes);
+    assertTrue(oneMinute < 100d);
+    assertEquals(1000d / 60, calculator.windowRate(statistic, 0, START + 89 * 10000), 0.0001);
+  }
+
+  @Test
+  public void testIdleDecays() throws Exception {
+    calculator.update(statistic, new MessageMetrics(100, 0, 0, 10), START);
+    calculator.update(statistic, new MessageMetrics(0, 0, 0, 10), START + 600000);
+    calculator.update(statistic, MessageMetrics.NONE, START + 610000);
+
+    assertTrue(calculator.ewmaRate(statistic, 0) < 0.01);
+    assertTrue(calculator.ewmaRate(statistic, 2) > calculator.ewmaRate(statistic, 1));
+    assertEquals(0d, calculator.windowRate(statistic, 1, START + 600000), 0.0001);
+    assertEquals(0d, calculator.windowRate(statistic, 2, START + 2000000), 0.0001);
+  }
+
+  @Test
+  public void testEwmaDecaysWithoutUpdates() throws Exception {
+    calculator.update(statistic, new MessageMetrics(100, 0, 0, 10), START);
+
+    assertEquals(10d * Math.exp(-1), calculator.ewmaRate(statistic, 0, START + 60000), 0.0001);
+    assertEquals(10d * Math.exp(-60d / 900), calculator.ewmaRate(statistic, 2, START + 60000), 0.0001);
+    assertEquals(0d, calculator.ewmaRate(statistic, 0, START + 3600000), 0.0001);
+    assertEquals(10d, calculator.ewmaRate(statistic, 0), 0.0001);
+  }
+
+  @Test
+  public void testRetainStatistics() throws Exception {
+    calculator.update(statistic, new MessageMetrics(100, 0, 0, 10), START);
+    calculator.retainStatistics(new ArrayList<>());
+
+    assertEquals(0d, calculator.ewmaRate(statistic, 0), 0.0001);
+  }
+
+}
@@ -0,0 +1,67 @@
+package com.adaptris.kubernetes.metrics.prometheus;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.exporter.common.TextFormat;
+
+public class PrometheusExporterMetricsTest {
+
+  private static final String[] LABEL_NAMES = new String[] {"k8s_pod_name"};
+
+  private static final String[] LABEL_VALUES = new String[] {"pod"};
+
+  @Test
+  public void testObservations() throws Exception {
+    Map<String, String> labels = new HashMap<>();
+    labels.put("k8s_pod_name", "pod");
+    CollectorRegistry registry = new CollectorRegistry();
+    PrometheusExporterMetrics metrics = new PrometheusExporterMetrics(labels).register(registry);
+
+    metrics.observeCollection(TimeUnit.MILLISECONDS.toNanos(500), 12);
+    metrics.observeCalculation(TimeUnit.MILLISECONDS.toNanos(2));
+    metrics.observePush(TimeUnit.MILLISECONDS.toNanos(100), 3, 2048, true);
+    metrics.observePush(TimeUnit.MILLISECONDS.toNanos(100), 4, 4096, false);
+    metrics.observeCycle(TimeUnit.SECONDS.toNanos(2), 10, TimeUnit.MILLISECONDS.toNanos(250));
+    metrics.observeCycle(TimeUnit.SECONDS.toNanos(12), 10, -1);
+
+    assertEquals(0.5d, registry.getSampleValue("interlok_exporter_collection_duration_seconds_sum", LABEL_NAMES, LABEL_VALUES));
+    assertEquals(12d, registry.getSampleValue("interlok_exporter_collected_statistics", LABEL_NAMES, LABEL_VALUES));
+    assertEquals(1d, registry.getSampleValue("interlok_exporter_calculation_duration_seconds_count", LABEL_NAMES, LABEL_VALUES));
+    assertEquals(2d, registry.getSampleValue("interlok_exporter_push_duration_seconds_count", LABEL_NAMES, LABEL_VALUES));
+    assertEquals(4d, registry.getSampleValue("interlok_exporter_push_statistics", LABEL_NAMES, LABEL_VALUES));
+    assertEquals(6144d, registry.getSampleValue("interlok_exporter_push_size_bytes_sum", LABEL_NAMES, LABEL_VALUES));
+    assertEquals(1d, registry.getSampleValue("interlok_exporter_push_failures_total", LABEL_NAMES, LABEL_VALUES));
+    assertEquals(2d, registry.getSampleValue("interlok_exporter_cycle_duration_seconds_count", LABEL_NAMES, LABEL_VALUES));
+    assertEquals(1d, registry.getSampleValue("interlok_exporter_cycle_overruns_total", LABEL_NAMES, LABEL_VALUES));
+    assertEquals(0.25d, registry.getSampleValue("interlok_exporter_cpu_seconds_total", LABEL_NAMES, LABEL_VALUES));
+  }
+
+  @Test
+  public void testBodyBytesMatchesTheTextFormat() throws Exception {
+    CollectorRegistry registry = new CollectorRegistry();
+    Gauge.build("test_gauge", "Test gauge.").labelNames("name").register(registry).labels("caf\u00e9").set(1);
+    StringWriter writer = new StringWriter();
+    TextFormat.write004(writer, registry.metricFamilySamples());
+
+    assertEquals(writer.toString().getBytes(StandardCharsets.UTF_8).length, PrometheusExporterMetrics.bodyBytes(registry.metricFamilySamples()));
+  }
+
+  @Test
+  public void testCurrentThreadCpu() throws Exception {
+    PrometheusExporterMetrics metrics = new PrometheusExporterMetrics(new HashMap<>());
+    long cpu = metrics.currentThreadCpuNanos();
+    assertTrue(cpu == -1 || cpu >= 0);
+  }
+
+}
@@ -1,30 +1,63 @@
 package com.adaptris.kubernetes.metrics.prometheus;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.same;
 import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Field;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Properties;
 
+import org.apache.commons.io.IOUtils;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import com.adaptris.core.CoreException;
+import com.adaptris.core.interceptor.MessageStatistic;
+import com.adaptris.mgmt.kubernetes.metrics.InProcessMessageMetricsCollector;
+import com.adaptris.mgmt.kubernetes.metrics.JmxMessageMetricsCollector;
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetrics;
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetricsBus;
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetricsCollector;
+import com.adaptris.mgmt.kubernetes.metrics.MessageStatisticExtended;
+import com.adaptris.mgmt.kubernetes.metrics.MetricsCalculator;
+
+import io.prometheus.client.Collector;
 import io.prometheus.client.CollectorRegistry;
 import io.prometheus.client.exporter.PushGateway;
 
 public class PrometheusMetricsAdapterTest {
 
+  private static final String[] LABEL_NAMES = new String[] {"adapter", "channel", "workflow", "id"};
+
   private PrometheusMetricsAdapter adapter;
 
   @Mock private PushGateway mockPushGateway;
@@ -41,6 +74,8 @@ public class PrometheusMetricsAdapterTest {
 
     adapter = new PrometheusMetricsAdapter();
     adapter.setPushGateway(mockPushGateway);
+    // the default single pass calculation delegates to calculateMessagesPerSecond
+    when(mockCalculator.calculate(anyLong(), any(MessageStatisticExtended.class))).thenCallRealMethod();
   }
 
   @AfterEach
@@ -168,4 +203,517 @@ public class PrometheusMetricsAdapterTest {
   }
 
 
+  @Test
+  public void testSendToPrometheusOncePerCycle() throws Exception {
+    List<MessageStatisticExtended> statistics = new ArrayList<>();
+    MessageStatisticExtended stat = new MessageStatisticExtended();
+    stat.setStatisticId("MyStatId");
+    statistics.add(stat);
+    MessageStatisticExtended stat2 = new MessageStatisticExtended();
+    stat2.setStatisticId("MyOtherStatId");
+    statistics.add(stat2);
+    MessageStatisticExtended stat3 = new MessageStatisticExtended();
+    stat3.setStatisticId("MyUnchangedStatId");
+    statistics.add(stat3);
+
+    when(mockCalculator.calculateMessagesPerSecond(10l, stat))
+    .thenReturn(10l);
+    when(mockCalculator.calculateMessagesPerSecond(10l, stat2))
+    .thenReturn(5l);
+    when(mockCalculator.calculateMessagesPerSecond(10l, stat3))
+    .thenReturn(-1l);
+
+    adapter.setCalculator(mockCalculator);
+    adapter.init();
+
+    adapter.notifyMessageMetrics(statistics);
+
+    ArgumentCaptor<CollectorRegistry> registryCaptor = ArgumentCaptor.forClass(CollectorRegistry.class);
+    verify(mockPushGateway, times(1)).pushAdd(registryCaptor.capture(), any(String.class), any(HashMap.class));
+    assertEquals(10d, registryCaptor.getValue().getSampleValue("interlok_messages_total", LABEL_NAMES, labelValues("MyStatId")));
+    assertEquals(5d, registryCaptor.getValue().getSampleValue("interlok_messages_total", LABEL_NAMES, labelValues("MyOtherStatId")));
+    assertNull(registryCaptor.getValue().getSampleValue("interlok_messages_total", LABEL_NAMES, labelValues("MyUnchangedStatId")));
+  }
+
+  @Test
+  public void testLabelledMetricFamilyLivesAcrossCycles() throws Exception {
+    List<MessageStatisticExtended> statistics = new ArrayList<>();
+    MessageStatisticExtended stat = new MessageStatisticExtended();
+    stat.setAdapterId("MyAdapter");
+    stat.setChannelId("MyChannel");
+    stat.setWorkflowId("MyWorkflow");
+    stat.setStatisticId("My-Stat-Id");
+    statistics.add(stat);
+
+    when(mockCalculator.calculateMessagesPerSecond(10l, stat))
+    .thenReturn(10l, 7l);
+
+    adapter.setCalculator(mockCalculator);
+    adapter.init();
+
+    adapter.notifyMessageMetrics(statistics);
+    CollectorRegistry registry = adapter.getPushRegistry();
+    adapter.notifyMessageMetrics(statistics);
+
+    assertSame(registry, adapter.getPushRegistry());
+    assertEquals(17d, registry.getSampleValue("interlok_messages_total", LABEL_NAMES, 
+        new String[] {"MyAdapter", "MyChannel", "MyWorkflow", "My-Stat-Id"}));
+    verify(mockPushGateway, times(2)).pushAdd(same(registry), any(String.class), any(HashMap.class));
+  }
+
+  @Test
+  public void testSendAllMessageMetrics() throws Exception {
+    List<MessageStatisticExtended> statistics = new ArrayList<>();
+    MessageStatisticExtended stat = new MessageStatisticExtended();
+    stat.setStatisticId("MyStatId");
+    statistics.add(stat);
+
+    doReturn(new MessageMetrics(20, 5, 4000, 10))
+    .when(mockCalculator).calculate(10l, stat);
+
+    adapter.setCalculator(mockCalculator);
+    adapter.init();
+
+    adapter.notifyMessageMetrics(statistics);
+
+    CollectorRegistry registry = adapter.getPushRegistry();
+    assertEquals(20d, registry.getSampleValue("interlok_messages_total", LABEL_NAMES, labelValues("MyStatId")));
+    assertEquals(5d, registry.getSampleValue("interlok_message_errors_total", LABEL_NAMES, labelValues("MyStatId")));
+    assertEquals(2d, registry.getSampleValue("interlok_messages_per_second", LABEL_NAMES, labelValues("MyStatId")));
+    assertEquals(0.25d, registry.getSampleValue("interlok_message_error_rate", LABEL_NAMES, labelValues("MyStatId")));
+    assertEquals(400d, registry.getSampleValue("interlok_message_bytes_per_second", LABEL_NAMES, labelValues("MyStatId")));
+    assertEquals(200d, registry.getSampleValue("interlok_message_average_size_bytes", LABEL_NAMES, labelValues("MyStatId")));
+    String[] windowLabelNames = new String[] {"adapter", "channel", "workflow", "id", "window"};
+    assertEquals(2d, registry.getSampleValue("interlok_messages_per_second_ewma", windowLabelNames, new String[] {"", "", "", "MyStatId", "5m"}));
+    assertEquals(20d / 60, registry.getSampleValue("interlok_messages_per_second_window", windowLabelNames, new String[] {"", "", "", "MyStatId", "1m"}), 0.0001);
+    verify(mockPushGateway, times(1)).pushAdd(same(registry), any(String.class), any(HashMap.class));
+  }
+
+  @Test
+  public void testSendInFlightAndMetadataMetrics() throws Exception {
+    List<MessageStatisticExtended> statistics = new ArrayList<>();
+    MessageStatisticExtended inFlight = new MessageStatisticExtended();
+    inFlight.setStatisticId("InFlightId");
+    inFlight.setInFlightCount(12l);
+    statistics.add(inFlight);
+    MessageStatisticExtended metadata = new MessageStatisticExtended();
+    metadata.setStatisticId("MetadataId");
+    metadata.setMetadataCounts(new HashMap<>());
+    metadata.getMetadataCounts().put("order", 4l);
+    statistics.add(metadata);
+
+    adapter.init();
+
+    adapter.notifyMessageMetrics(statistics);
+    adapter.notifyMessageMetrics(statistics);
+
+    CollectorRegistry registry = adapter.getPushRegistry();
+    assertEquals(12d, registry.getSampleValue("interlok_messages_in_flight", LABEL_NAMES, labelValues("InFlightId")));
+    assertEquals(8d, registry.getSampleValue("interlok_message_metadata_total", new String[] {"adapter", "channel", "workflow", "id", "metadata_key"}, 
+        new String[] {"", "", "", "MetadataId", "order"}));
+    assertNull(registry.getSampleValue("interlok_messages_total", LABEL_NAMES, labelValues("InFlightId")));
+    verify(mockPushGateway, times(2)).pushAdd(same(registry), any(String.class), any(HashMap.class));
+  }
+
+  @Test
+  public void testCollectorSettingsLeftToTheComponent() throws Exception {
+    Properties bootstrapProperties = new Properties();
+    bootstrapProperties.put("prometheusAdditionalCollectors", "in-flight, metadata");
+    bootstrapProperties.put("prometheusCollectorParallelism", "4");
+    adapter.setBootstrapProperties(bootstrapProperties);
+    adapter.setCollectorIntervalSeconds(30);
+    adapter.init();
+
+    // on its own, the adapter runs a bus of its own around the collector it was given
+    assertTrue(adapter.getMessageMetricsCollector() instanceof MessageMetricsBus);
+    MessageMetricsBus bus = (MessageMetricsBus) adapter.getMessageMetricsCollector();
+    assertTrue(bus.getCollector() instanceof JmxMessageMetricsCollector);
+    assertEquals(30, bus.getIntervalSeconds());
+    assertTrue(bus.hasListeners());
+  }
+
+  @Test
+  public void testSendsJvmMetricsEveryCycle() throws Exception {
+    List<MessageStatisticExtended> statistics = new ArrayList<>();
+    MessageStatisticExtended stat = new MessageStatisticExtended();
+    stat.setStatisticId("MyStatId");
+    statistics.add(stat);
+
+    when(mockCalculator.calculateMessagesPerSecond(10l, stat))
+    .thenReturn(-1l);
+
+    Properties bootstrapProperties = new Properties();
+    bootstrapProperties.put("prometheusJvmMetrics", "default");
+    adapter.setBootstrapProperties(bootstrapProperties);
+    adapter.setCalculator(mockCalculator);
+    adapter.init();
+
+    adapter.notifyMessageMetrics(statistics);
+
+    CollectorRegistry registry = adapter.getPushRegistry();
+    verify(mockPushGateway, times(1)).pushAdd(same(registry), any(String.class), any(HashMap.class));
+    assertNotNull(registry.getSampleValue("jvm_threads_current"));
+    assertNotNull(registry.getSampleValue("jvm_memory_pool_bytes_used", new String[] {"pool"}, new String[] {"Metaspace"}));
+  }
+
+  @Test
+  public void testFailedPushesCounted() throws Exception {
+    List<MessageStatisticExtended> statistics = new ArrayList<>();
+    MessageStatisticExtended stat = new MessageStatisticExtended();
+    stat.setStatisticId("MyStatId");
+    statistics.add(stat);
+
+    when(mockCalculator.calculateMessagesPerSecond(10l, stat))
+    .thenReturn(10l);
+    doThrow(new IOException("expected")).when(mockPushGateway).pushAdd(any(CollectorRegistry.class), any(String.class), any(HashMap.class));
+
+    adapter.setCalculator(mockCalculator);
+    adapter.init();
+
+    adapter.notifyMessageMetrics(statistics);
+    adapter.notifyMessageMetrics(statistics);
+
+    CollectorRegistry registry = adapter.getPushRegistry();
+    assertEquals(2d, registry.getSampleValue("interlok_exporter_push_failures_total"));
+    assertEquals(2d, registry.getSampleValue("interlok_exporter_push_duration_seconds_count"));
+    assertEquals(2d, registry.getSampleValue("interlok_exporter_calculation_duration_seconds_count"));
+  }
+
+  @Test
+  public void testScheduledCyclesTimed() throws Exception {
+    adapter.setCollectorIntervalSeconds(1);
+    adapter.setMessageMetricsCollector(mockMetricsCollctor);
+
+    adapter.init();
+    MessageMetricsBus bus = (MessageMetricsBus) adapter.getMessageMetricsCollector();
+    doAnswer(invocation -> {
+      bus.notifyMessageMetrics(new ArrayList<>());
+      return null;
+    }).when(mockMetricsCollctor).run();
+    adapter.start();
+
+    Thread.sleep(1500);
+
+    adapter.stop();
+    adapter.close();
+
+    assertTrue(adapter.getPushRegistry().getSampleValue("interlok_exporter_cycle_duration_seconds_count") >= 1d);
+  }
+
+  @Test
+  public void testStartedAdapterPushesFromQueue() throws Exception {
+    List<MessageStatisticExtended> statistics = new ArrayList<>();
+    MessageStatisticExtended stat = new MessageStatisticExtended();
+    stat.setStatisticId("MyStatId");
+    statistics.add(stat);
+
+    when(mockCalculator.calculateMessagesPerSecond(10l, stat))
+    .thenReturn(10l);
+
+    adapter.setCollectorIntervalSeconds(60);
+    adapter.setMessageMetricsCollector(mockMetricsCollctor);
+    adapter.setCalculator(mockCalculator);
+    adapter.init();
+    adapter.start();
+    try {
+      adapter.notifyMessageMetrics(statistics);
+
+      ArgumentCaptor<Collector> captor = ArgumentCaptor.forClass(Collector.class);
+      verify(mockPushGateway, timeout(2000)).pushAdd(captor.capture(), any(String.class), any(HashMap.class));
+      assertTrue(captor.getValue().collect().stream().anyMatch(family -> family.name.equals("interlok_messages")));
+      verify(mockPushGateway, never()).pushAdd(any(CollectorRegistry.class), any(String.class), any(HashMap.class));
+    } finally {
+      adapter.stop();
+      adapter.close();
+    }
+  }
+
+  @Test
+  public void testCalculatesOverWholeTimeslices() throws Exception {
+    List<MessageStatisticExtended> statistics = new ArrayList<>();
+    MessageStatisticExtended stat = new MessageStatisticExtended();
+    stat.setStatisticId("MyStatId");
+    MessageStatistic timeslice = new MessageStatistic(System.currentTimeMillis());
+    timeslice.setStartMillis(timeslice.getEndMillis() - 60000);
+    stat.getStatistics().add(timeslice);
+    statistics.add(stat);
+
+    when(mockCalculator.calculateMessagesPerSecond(60l, stat))
+    .thenReturn(10l);
+
+    adapter.setCollectorIntervalSeconds(10);
+    adapter.setCalculator(mockCalculator);
+    adapter.init();
+
+    adapter.notifyMessageMetrics(statistics);
+
+    verify(mockCalculator).calculateMessagesPerSecond(60l, stat);
+    assertEquals(10d, adapter.getPushRegistry().getSampleValue("interlok_messages_total", LABEL_NAMES, labelValues("MyStatId")));
+  }
+
+  private static String[] labelValues(String statisticId) {
+    return new String[] {"", "", "", statisticId};
+  }
+
+  @Test
+  public void testInProcessCollectorPluggedIn() throws Exception {
+    InProcessMessageMetricsCollector collector = new InProcessMessageMetricsCollector();
+    adapter.setMessageMetricsCollector(collector);
+
+    assertEquals(1, collector.getListeners().size());
+    assertSame(adapter, collector.getListeners().get(0));
+  }
+
+  @Test
+  public void testSharesMessageMetricsBus() throws Exception {
+    List<MessageStatisticExtended> statistics = new ArrayList<>();
+    MessageStatisticExtended stat = new MessageStatisticExtended();
+    stat.setStatisticId("MyStatId");
+    statistics.add(stat);
+    when(mockMetricsCollctor.collectStatistics()).thenReturn(statistics);
+    when(mockCalculator.calculateMessagesPerSecond(10l, stat)).thenReturn(10l);
+
+    MessageMetricsBus bus = new MessageMetricsBus(mockMetricsCollctor);
+    bus.setIntervalSeconds(3600);
+    adapter.setMessageMetricsBus(bus);
+    adapter.setCalculator(mockCalculator);
+    adapter.init();
+    adapter.start();
+    bus.start();
+
+    try {
+      assertSame(bus, adapter.getMessageMetricsCollector());
+      bus.notifyMessageMetrics(statistics);
+      verify(mockPushGateway, timeout(5000)).pushAdd(any(Collector.class), any(String.class), any(HashMap.class));
+      // the bus runs the collection, not the adapter
+      verify(mockMetricsCollctor, never()).run();
+    } finally {
+      bus.stop();
+      adapter.stop();
+      adapter.close();
+    }
+  }
+
+  @Test
+  public void testUsesBusIntervalAndLeavesBusCollectorAlone() throws Exception {
+    List<MessageStatisticExtended> statistics = new ArrayList<>();
+    MessageStatisticExtended stat = new MessageStatisticExtended();
+    stat.setStatisticId("MyStatId");
+    statistics.add(stat);
+
+    Properties bootstrapProperties = new Properties();
+    bootstrapProperties.put("prometheusAdditionalCollectors", "in-flight, metadata");
+    adapter.setBootstrapProperties(bootstrapProperties);
+    MessageMetricsBus bus = new MessageMetricsBus(mockMetricsCollctor);
+    bus.setIntervalSeconds(60);
+    adapter.setMessageMetricsBus(bus);
+    adapter.setCollectorIntervalSeconds(10);
+    adapter.setCalculator(mockCalculator);
+    adapter.init();
+
+    // the component configures the shared collector
+    assertSame(mockMetricsCollctor, bus.getCollector());
+    adapter.notifyMessageMetrics(statistics);
+    verify(mockCalculator).calculateMessagesPerSecond(60l, stat);
+  }
+
+  @Test
+  public void testUnconfiguredAdapterDoesNotListenToBus() throws Exception {
+    MessageMetricsBus bus = new MessageMetricsBus(mockMetricsCollctor);
+    adapter.setPushGateway(null);
+    adapter.setMessageMetricsBus(bus);
+    adapter.init();
+
+    assertFalse(bus.hasListeners());
+  }
+
+  @Test
+  public void testPullOnlyAdapterDoesNotListenToBus() throws Exception {
+    MessageMetricsBus bus = new MessageMetricsBus(mockMetricsCollctor);
+    adapter.setPushGateway(null);
+    adapter.setExporterPort(0);
+    adapter.setMessageMetricsBus(bus);
+    adapter.init();
+
+    // the scrapes pull through the bus, there is nothing to run a collection for
+    assertSame(bus, adapter.getMessageMetricsCollector());
+    assertFalse(bus.hasListeners());
+  }
+
+  @Test
+  public void testSharedBusCyclesTimed() throws Exception {
+    MessageMetricsBus bus = new MessageMetricsBus(mockMetricsCollctor);
+    bus.setIntervalSeconds(3600);
+    doAnswer(invocation -> {
+      bus.notifyMessageMetrics(new ArrayList<>());
+      return null;
+    }).when(mockMetricsCollctor).run();
+    adapter.setMessageMetricsBus(bus);
+    adapter.init();
+    adapter.start();
+    bus.start();
+
+    try {
+      bus.run();
+
+      long deadline = System.currentTimeMillis() + 5000;
+      while(adapter.getPushRegistry().getSampleValue("interlok_exporter_cycle_duration_seconds_count") < 1d && System.currentTimeMillis() < deadline)
+        Thread.sleep(10);
+      assertEquals(1d, adapter.getPushRegistry().getSampleValue("interlok_exporter_cycle_duration_seconds_count"));
+      assertEquals(1d, adapter.getPushRegistry().getSampleValue("interlok_exporter_collection_duration_seconds_count"));
+    } finally {
+      bus.stop();
+      adapter.stop();
+      adapter.close();
+    }
+  }
+
+  @Test
+  public void testPullModeServesScrapedMetrics() throws Exception {
+    List<MessageStatisticExtended> statistics = new ArrayList<>();
+    MessageStatisticExtended stat = new MessageStatisticExtended();
+    stat.setStatisticId("MyStatId");
+    statistics.add(stat);
+
+    when(mockMetricsCollctor.collectStatistics())
+    .thenReturn(statistics);
+    when(mockCalculator.calculateMessagesPerSecond(10l, stat))
+    .thenReturn(10l);
+
+    adapter.setPushGateway(null);
+    adapter.setMessageMetricsCollector(mockMetricsCollctor);
+    adapter.setScrapeCalculator(mockCalculator);
+    adapter.setExporterPort(0);
+    adapter.init();
+    adapter.start();
+
+    try {
+      assertNotNull(adapter.getScrapeRegistry());
+      HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + adapter.scrapePort() + "/metrics").openConnection();
+      try (InputStream in = connection.getInputStream()) {
+        String body = IOUtils.toString(in, StandardCharsets.UTF_8);
+        assertTrue(body.contains("interlok_messages_total"));
+        assertTrue(body.contains("id=\"MyStatId\""));
+      }
+    } finally {
+      adapter.stop();
+      adapter.close();
+    }
+
+    verify(mockMetricsCollctor, atLeast(1)).collectStatistics();
+    verify(mockMetricsCollctor, never()).run();
+  }
+
+  @Test
+  public void testPushAndPullEachSeeEveryTimeslice() throws Exception {
+    List<MessageStatisticExtended> statistics = new ArrayList<>();
+    MessageStatisticExtended stat = new MessageStatisticExtended();
+    stat.setStatisticId("MyStatId");
+    MessageStatistic timeslice = new MessageStatistic(System.currentTimeMillis() - 1000);
+    timeslice.setStartMillis(timeslice.getEndMillis() - 10000);
+    timeslice.setTotalMessageCount(10);
+    stat.getStatistics().add(timeslice);
+    statistics.add(stat);
+
+    when(mockMetricsCollctor.collectStatistics())
+    .thenReturn(statistics);
+
+    adapter.setMessageMetricsCollector(mockMetricsCollctor);
+    adapter.setExporterPort(0);
+    adapter.init();
+
+    adapter.notifyMessageMetrics(statistics);
+
+    assertEquals(10d, adapter.getPushRegistry().getSampleValue("interlok_messages_total", LABEL_NAMES, labelValues("MyStatId")));
+    // the scrape labels start with the pod labels
+    List<String> scrapeLabelNames = new ArrayList<>(adapter.getMetricLabels().keySet());
+    List<String> scrapeLabelValues = new ArrayList<>(adapter.getMetricLabels().values());
+    scrapeLabelNames.addAll(Arrays.asList(LABEL_NAMES));
+    scrapeLabelValues.addAll(Arrays.asList(labelValues("MyStatId")));
+    assertEquals(10d, adapter.getScrapeRegistry().getSampleValue("interlok_messages_total", scrapeLabelNames.toArray(new String[0]), scrapeLabelValues.toArray(new String[0])));
+  }
+
+  @Test
+  public void testInvalidExporterPort() throws Exception {
+    Properties bootstrapProperties = new Properties();
+    bootstrapProperties.put("prometheusExporterPort", "metrics");
+    adapter.setBootstrapProperties(bootstrapProperties);
+
+    assertThrows(CoreException.class, () -> adapter.init());
+  }
+
+  @Test
+  public void testCachedPullModeCollectsOncePerRender() throws Exception {
+    List<MessageStatisticExtended> statistics = new ArrayList<>();
+    MessageStatisticExtended stat = new MessageStatisticExtended();
+    stat.setStatisticId("MyStatId");
+    statistics.add(stat);
+
+    when(mockMetricsCollctor.collectStatistics())
+    .thenReturn(statistics);
+
+    Properties bootstrapProperties = new Properties();
+    bootstrapProperties.put("prometheusScrapeCached", "true");
+    adapter.setBootstrapProperties(bootstrapProperties);
+    adapter.setPushGateway(null);
+    adapter.setMessageMetricsCollector(mockMetricsCollctor);
+    adapter.setScrapeCalculator(mockCalculator);
+    adapter.setExporterPort(0);
+    adapter.init();
+    adapter.start();
+
+    try {
+      for(int scrape = 0; scrape < 3; scrape ++) {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + adapter.scrapePort() + "/metrics").openConnection();
+        try (InputStream in = connection.getInputStream()) {
+          String body = IOUtils.toString(in, StandardCharsets.UTF_8);
+          assertTrue(body.contains("id=\"MyStatId\""));
+        }
+      }
+    } finally {
+      adapter.stop();
+      adapter.close();
+    }
+
+    // rendered once on start, the scrapes are all served from that.
+    verify(mockMetricsCollctor, times(1)).collectStatistics();
+  }
+
+  @Test
+  public void testCachedPullModeRendersEachCycle() throws Exception {
+    List<MessageStatisticExtended> statistics = new ArrayList<>();
+    MessageStatisticExtended stat = new MessageStatisticExtended();
+    stat.setStatisticId("MyStatId");
+    statistics.add(stat);
+
+    when(mockMetricsCollctor.collectStatistics())
+    .thenReturn(statistics);
+
+    Properties bootstrapProperties = new Properties();
+    bootstrapProperties.put("prometheusScrapeCached", "true");
+    adapter.setBootstrapProperties(bootstrapProperties);
+    adapter.setPushGateway(null);
+    adapter.setMessageMetricsCollector(mockMetricsCollctor);
+    adapter.setScrapeCalculator(mockCalculator);
+    adapter.setExporterPort(0);
+    adapter.init();
+    adapter.start();
+
+    try {
+      // the end of a collection cycle, rendered from the statistics it delivered
+      adapter.notifyMessageMetrics(statistics);
+      verify(mockMetricsCollctor, times(1)).collectStatistics();
+
+      HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + adapter.scrapePort() + "/metrics").openConnection();
+      try (InputStream in = connection.getInputStream()) {
+        assertTrue(IOUtils.toString(in, StandardCharsets.UTF_8).contains("id=\"MyStatId\""));
+      }
+    } finally {
+      adapter.stop();
+      adapter.close();
+    }
+
+    verify(mockMetricsCollctor, times(1)).collectStatistics();
+  }
+
 }
@@ -0,0 +1,271 @@
+package com.adaptris.kubernetes.metrics.statsd;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.adaptris.core.CoreException;
+import com.adaptris.mgmt.kubernetes.metrics.JmxMessageMetricsCollector;
+import com.adaptris.mgmt.kubernetes.metrics.KubernetesMetricsAdapter;
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetrics;
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetricsBus;
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetricsCollector;
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetricsListener;
+import com.adaptris.mgmt.kubernetes.metrics.MessageStatisticExtended;
+import com.adaptris.mgmt.kubernetes.metrics.MessagesPerSecondCalculator;
+import com.adaptris.mgmt.kubernetes.metrics.MetricsCalculator;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Sends the message metrics to a StatsD or DogStatsD agent, e.g. one running as a DaemonSet on the node, over UDP.
+ * <p>
+ * Enabled by setting the bootstrap or system property {@value #HOST_KEY}. Each cycle's counters and gauges for every
+ * workflow are packed into datagrams of up to {@value #MAX_PACKET_BYTES_KEY} bytes (default
+ * {@value #MAX_PACKET_BYTES_DEFAULT}, which fits a 1500 byte MTU) and sent without blocking. With DogStatsD, the default,
+ * the pod, namespace, adapter, channel and workflow are tags; with plain StatsD ({@value #DOGSTATSD_KEY}=false) the
+ * channel and workflow are part of the metric name instead.
+ * </p>
+ */
+@Slf4j
+public class StatsdMetricsAdapter implements KubernetesMetricsAdapter, MessageMetricsListener {
+
+  private static final String IMPLEMENTATION_NAME = StatsdMetricsAdapter.class.getSimpleName();
+
+  private static final String HOST_KEY = "statsdHost";
+
+  private static final String PORT_KEY = "statsdPort";
+
+  private static final String PREFIX_KEY = "statsdPrefix";
+
+  private static final String MAX_PACKET_BYTES_KEY = "statsdMaxPacketBytes";
+
+  private static final String DOGSTATSD_KEY = "statsdDogStatsdTags";
+
+  private static final int PORT_DEFAULT = 8125;
+
+  private static final String PREFIX_DEFAULT = "interlok.";
+
+  private static final int MAX_PACKET_BYTES_DEFAULT = 1432;
+
+  private static final String K8S_POD_NAME_ENV = "K8S_POD_NAME";
+
+  private static final String K8S_POD_NAME_DEFAULT = "interlok";
+
+  private static final String K8S_NAMESPACE_ENV = "K8S_NAMESPACE";
+
+  private static final String K8S_NAMESPACE_DEFAULT = "default";
+
+  private static final Integer METRICS_COLLECTOR_INTERVAL_SECONDS_DEFAULT = 10;
+
+  @Getter
+  @Setter
+  private Properties bootstrapProperties;
+
+  @Getter
+  private MessageMetricsCollector messageMetricsCollector;
+
+  @Getter
+  @Setter
+  private MessageMetricsBus messageMetricsBus;
+
+  @Getter
+  @Setter
+  private MetricsCalculator calculator;
+
+  @Getter
+  @Setter
+  private Integer collectorIntervalSeconds;
+
+  private StatsdPacketWriter writer;
+
+  private String prefix;
+
+  private boolean dogStatsd;
+
+  private Map<String, String> podTags;
+
+  private ScheduledExecutorService scheduler;
+
+  public StatsdMetricsAdapter() {
+    this.setMessageMetricsCollector(new JmxMessageMetricsCollector());
+    this.setCalculator(new MessagesPerSecondCalculator());
+    this.setBootstrapProperties(new Properties());
+  }
+
+  public void setMessageMetricsCollector(MessageMetricsCollector messageMetricsCollector) {
+    if(this.messageMetricsCollector != null)
+      this.messageMetricsCollector.deregisterListener(this);
+    this.messageMetricsCollector = messageMetricsCollector;
+    if(messageMetricsCollector != null)
+      messageMetricsCollector.registerListener(this);
+  }
+
+  @Override
+  public void init() throws CoreException {
+    String host = this.getConfiguredProperty(HOST_KEY);
+    if(StringUtils.isEmpty(host)) {
+      log.debug("StatsD metrics not sent because neither the bootstrap property or system property {} was set.", HOST_KEY);
+      return;
+    }
+    prefix = StringUtils.defaultString(this.getConfiguredProperty(PREFIX_KEY), PREFIX_DEFAULT);
+    dogStatsd = !"false".equalsIgnoreCase(StringUtils.trim(this.getConfiguredProperty(DOGSTATSD_KEY)));
+    podTags = new LinkedHashMap<>();
+    podTags.put("pod", this.loadProperty(K8S_POD_NAME_ENV, K8S_POD_NAME_DEFAULT));
+    podTags.put("namespace", this.loadProperty(K8S_NAMESPACE_ENV, K8S_NAMESPACE_DEFAULT));
+
+    // resolved once here, so sending never waits on a DNS lookup
+    InetSocketAddress address = new InetSocketAddress(host.trim(), this.getIntegerProperty(PORT_KEY, PORT_DEFAULT));
+    if(address.isUnresolved())
+      log.warn("Could not resolve the StatsD agent host {}, metrics will be dropped.", host);
+    try {
+      writer = new StatsdPacketWriter(address, this.getIntegerProperty(MAX_PACKET_BYTES_KEY, MAX_PACKET_BYTES_DEFAULT));
+    } catch (IOException e) {
+      throw new CoreException("Could not open a UDP socket for StatsD", e);
+    }
+
+    // share the collection with the other adapters, rather than reading the statistics again
+    if(this.getMessageMetricsBus() != null)
+      this.setMessageMetricsCollector(this.getMessageMetricsBus());
+    this.getMessageMetricsCollector().prepare();
+  }
+
+  @Override
+  public void start() throws CoreException {
+    if(writer == null || this.getMessageMetricsCollector() instanceof MessageMetricsBus)
+      return;
+    scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "StatsD Metric Gatherer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleAtFixedRate(this.getMessageMetricsCollector(), this.collectorIntervalSeconds(), this.collectorIntervalSeconds(), TimeUnit.SECONDS);
+  }
+
+  @Override
+  public void stop() {
+    if(scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+  }
+
+  @Override
+  public void close() {
+    if(writer != null) {
+      try {
+        writer.close();
+      } catch (IOException e) {
+        log.trace("Could not close the StatsD socket.", e);
+      }
+      writer = null;
+    }
+  }
+
+  @Override
+  public String getImplementationName() {
+    return IMPLEMENTATION_NAME;
+  }
+
+  @Override
+  public void notifyMessageMetrics(List<MessageStatisticExtended> statistics) {
+    StatsdPacketWriter current = writer;
+    if(current == null)
+      return;
+    for(MessageStatisticExtended statistic : statistics) {
+      Map<String, String> tags = this.tags(statistic);
+      if(statistic.getInFlightCount() != null) {
+        current.write(this.line("messages_in_flight", Long.toString(statistic.getInFlightCount()), "g", tags));
+      } else if(statistic.getMetadataCounts() != null) {
+        for(Map.Entry<String, Long> count : statistic.getMetadataCounts().entrySet()) {
+          Map<String, String> metadataTags = new LinkedHashMap<>(tags);
+          metadataTags.put("metadata_key", count.getKey());
+          current.write(this.line("message_metadata", Long.toString(count.getValue()), "c", metadataTags));
+        }
+      } else {
+        MessageMetrics metrics = this.getCalculator().calculate(this.collectorIntervalSeconds(), statistic);
+        if(!metrics.hasNewData())
+          continue;
+        current.write(this.line("messages", Long.toString(metrics.getMessageCount()), "c", tags));
+        current.write(this.line("message_errors", Long.toString(metrics.getErrorCount()), "c", tags));
+        current.write(this.line("message_bytes", Long.toString(metrics.getMessageSize()), "c", tags));
+        current.write(this.line("messages_per_second", format(metrics.messagesPerSecond()), "g", tags));
+      }
+    }
+    current.flush();
+    this.getCalculator().retainStatistics(statistics);
+    log.trace("Sent {} StatsD datagrams, dropped {}.", current.getPacketsSent(), current.getPacketsDropped());
+  }
+
+  private Map<String, String> tags(MessageStatisticExtended statistic) {
+    Map<String, String> tags = new LinkedHashMap<>(podTags);
+    tags.put("adapter", StringUtils.defaultString(statistic.getAdapterId()));
+    tags.put("channel", StringUtils.defaultString(statistic.getChannelId()));
+    tags.put("workflow", StringUtils.defaultString(statistic.getWorkflowId()));
+    return tags;
+  }
+
+  /**
+   * Format a line, e.g. {@code interlok.messages:10|c|#pod:interlok-0,channel:c1}.
+   */
+  String line(String name, String value, String type, Map<String, String> tags) {
+    StringBuilder line = new StringBuilder(prefix);
+    if(!dogStatsd)
+      line.append(sanitise(tags.get("channel"))).append('.').append(sanitise(tags.get("workflow"))).append('.');
+    line.append(name).append(':').append(value).append('|').append(type);
+    if(dogStatsd) {
+      line.append("|#");
+      boolean first = true;
+      for(Map.Entry<String, String> tag : tags.entrySet()) {
+        if(!first)
+          line.append(',');
+        first = false;
+        line.append(tag.getKey()).append(':').append(sanitise(tag.getValue()));
+      }
+    }
+    return line.toString();
+  }
+
+  private static String sanitise(String value) {
+    return StringUtils.defaultString(value).replaceAll("[,|#:@\\s]", "_");
+  }
+
+  private static String format(double value) {
+    return BigDecimal.valueOf(value).setScale(3, RoundingMode.HALF_UP).stripTrailingZeros().toPlainString();
+  }
+
+  /**
+   * How often the statistics arrive; the bus's interval when the collection is shared.
+   */
+  protected int collectorIntervalSeconds() {
+    if(this.getMessageMetricsCollector() instanceof MessageMetricsBus)
+      return ((MessageMetricsBus) this.getMessageMetricsCollector()).getIntervalSeconds();
+    return this.getCollectorIntervalSeconds() == null ? METRICS_COLLECTOR_INTERVAL_SECONDS_DEFAULT : this.getCollectorIntervalSeconds();
+  }
+
+  private int getIntegerProperty(String key, int defaultValue) {
+    String value = this.getConfiguredProperty(key);
+    return StringUtils.isEmpty(value) ? defaultValue : Integer.parseInt(value.trim());
+  }
+
+  private String getConfiguredProperty(String key) {
+    return StringUtils.defaultIfEmpty(System.getProperty(key), this.getBootstrapProperties().getProperty(key));
+  }
+
+  private String loadProperty(String propertyName, String defaultValue) {
+    return StringUtils.defaultIfEmpty(System.getenv(propertyName), StringUtils.defaultIfEmpty(System.getProperty(propertyName), defaultValue));
+  }
+
+}
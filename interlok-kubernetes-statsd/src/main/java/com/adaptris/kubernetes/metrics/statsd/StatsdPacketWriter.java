@@ -0,0 +1,95 @@
+package com.adaptris.kubernetes.metrics.statsd;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Packs StatsD lines into datagrams of up to {@link #getMaxPacketBytes()} and sends them without blocking.
+ * <p>
+ * Lines are separated by a newline, which StatsD and DogStatsD both accept, and a datagram is sent once the next line
+ * wouldn't fit. The channel is non-blocking, so when the socket buffer is full the datagram is dropped rather than waiting
+ * on the network; UDP gives no guarantee it would arrive anyway.
+ * </p>
+ */
+@Slf4j
+public class StatsdPacketWriter implements AutoCloseable {
+
+  @Getter
+  private final InetSocketAddress address;
+
+  @Getter
+  private final int maxPacketBytes;
+
+  private final DatagramChannel channel;
+
+  private final ByteBuffer buffer;
+
+  @Getter
+  private long packetsSent;
+
+  @Getter
+  private long packetsDropped;
+
+  public StatsdPacketWriter(InetSocketAddress address, int maxPacketBytes) throws IOException {
+    this.address = address;
+    this.maxPacketBytes = maxPacketBytes;
+    this.buffer = ByteBuffer.allocate(maxPacketBytes);
+    this.channel = DatagramChannel.open();
+    channel.configureBlocking(false);
+  }
+
+  /**
+   * Add a line, sending the current datagram first if the line won't fit in it.
+   */
+  public void write(String line) {
+    byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+    int needed = buffer.position() == 0 ? bytes.length : bytes.length + 1;
+    if(needed > buffer.remaining())
+      this.flush();
+    if(bytes.length > buffer.capacity()) {
+      // too long for any datagram, so it goes on its own
+      this.send(ByteBuffer.wrap(bytes));
+      return;
+    }
+    if(buffer.position() > 0)
+      buffer.put((byte) '\n');
+    buffer.put(bytes);
+  }
+
+  /**
+   * Send whatever is waiting.
+   */
+  public void flush() {
+    if(buffer.position() == 0)
+      return;
+    buffer.flip();
+    this.send(buffer);
+    buffer.clear();
+  }
+
+  private void send(ByteBuffer datagram) {
+    try {
+      if(address.isUnresolved() || channel.send(datagram, address) == 0) {
+        packetsDropped ++;
+        log.trace("StatsD socket busy or agent address {} unresolved, dropping a datagram.", address);
+      } else {
+        packetsSent ++;
+      }
+    } catch (IOException e) {
+      packetsDropped ++;
+      log.debug("Could not send a datagram to the StatsD agent at {}.", address, e);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+}
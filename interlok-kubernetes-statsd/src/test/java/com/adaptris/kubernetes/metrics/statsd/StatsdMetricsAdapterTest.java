@@ -0,0 +1,182 @@
+package com.adaptris.kubernetes.metrics.statsd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetrics;
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetricsBus;
+import com.adaptris.mgmt.kubernetes.metrics.MessageMetricsCollector;
+import com.adaptris.mgmt.kubernetes.metrics.MessageStatisticExtended;
+import com.adaptris.mgmt.kubernetes.metrics.MetricsCalculator;
+
+public class StatsdMetricsAdapterTest {
+
+  private StatsdMetricsAdapter adapter;
+
+  @Mock private MessageMetricsCollector mockCollector;
+
+  @Mock private MetricsCalculator mockCalculator;
+
+  private AutoCloseable closeable;
+
+  private DatagramSocket agent;
+
+  private MessageStatisticExtended statistic;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    closeable = MockitoAnnotations.openMocks(this);
+    agent = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+    agent.setSoTimeout(5000);
+
+    adapter = new StatsdMetricsAdapter();
+    adapter.setMessageMetricsCollector(mockCollector);
+    adapter.setCalculator(mockCalculator);
+
+    statistic = new MessageStatisticExtended();
+    statistic.setAdapterId("adapter");
+    statistic.setChannelId("channel1");
+    statistic.setWorkflowId("workflow1");
+    statistic.setStatisticId("workflow1-metrics");
+    when(mockCalculator.calculate(anyLong(), same(statistic))).thenReturn(new MessageMetrics(25, 1, 2048, 10));
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    adapter.stop();
+    adapter.close();
+    agent.close();
+    closeable.close();
+  }
+
+  @Test
+  public void testNotEnabledWithoutHost() throws Exception {
+    adapter.init();
+    adapter.start();
+    adapter.notifyMessageMetrics(Arrays.asList(statistic));
+
+    verify(mockCollector, never()).prepare();
+  }
+
+  @Test
+  public void testSendsTaggedCountersAndGauges() throws Exception {
+    adapter.setBootstrapProperties(this.properties(new HashMap<>()));
+    adapter.init();
+    adapter.notifyMessageMetrics(Arrays.asList(statistic));
+
+    List<String> lines = Arrays.asList(this.receive().split("\n"));
+    String tags = "|#pod:interlok,namespace:default,adapter:adapter,channel:channel1,workflow:workflow1";
+    assertTrue(lines.contains("interlok.messages:25|c" + tags));
+    assertTrue(lines.contains("interlok.message_errors:1|c" + tags));
+    assertTrue(lines.contains("interlok.message_bytes:2048|c" + tags));
+    assertTrue(lines.contains("interlok.messages_per_second:2.5|g" + tags));
+  }
+
+  @Test
+  public void testPlainStatsdNamesInsteadOfTags() throws Exception {
+    Map<String, String> extra = new HashMap<>();
+    extra.put("statsdDogStatsdTags", "false");
+    extra.put("statsdPrefix", "app.");
+    adapter.setBootstrapProperties(this.properties(extra));
+    adapter.init();
+    adapter.notifyMessageMetrics(Arrays.asList(statistic));
+
+    List<String> lines = Arrays.asList(this.receive().split("\n"));
+    assertTrue(lines.contains("app.channel1.workflow1.messages:25|c"));
+    assertFalse(lines.get(0).contains("#"));
+  }
+
+  @Test
+  public void testBatchesIntoDatagramsOfMaxSize() throws Exception {
+    Map<String, String> extra = new HashMap<>();
+    extra.put("statsdMaxPacketBytes", "512");
+    adapter.setBootstrapProperties(this.properties(extra));
+    adapter.init();
+
+    List<MessageStatisticExtended> statistics = new ArrayList<>();
+    for(int count = 0; count < 20; count ++) {
+      MessageStatisticExtended workflow = new MessageStatisticExtended();
+      workflow.setWorkflowId("workflow" + count);
+      workflow.setStatisticId("workflow" + count);
+      when(mockCalculator.calculate(anyLong(), same(workflow))).thenReturn(new MessageMetrics(count, 0, 0, 10));
+      statistics.add(workflow);
+    }
+    adapter.notifyMessageMetrics(statistics);
+
+    int lines = 0;
+    while(lines < 80) {
+      String datagram = this.receive();
+      assertTrue(datagram.getBytes(StandardCharsets.UTF_8).length <= 512);
+      lines += datagram.split("\n").length;
+    }
+    assertEquals(80, lines);
+  }
+
+  @Test
+  public void testInFlightAndMetadata() throws Exception {
+    adapter.setBootstrapProperties(this.properties(new HashMap<>()));
+    adapter.init();
+    MessageStatisticExtended inFlight = new MessageStatisticExtended();
+    inFlight.setWorkflowId("workflow1");
+    inFlight.setInFlightCount(3l);
+    MessageStatisticExtended metadata = new MessageStatisticExtended();
+    metadata.setWorkflowId("workflow1");
+    metadata.setMetadataCounts(new HashMap<>());
+    metadata.getMetadataCounts().put("type=order", 7l);
+    adapter.notifyMessageMetrics(Arrays.asList(inFlight, metadata));
+
+    String datagram = this.receive();
+    assertTrue(datagram.contains("interlok.messages_in_flight:3|g|#"));
+    assertTrue(datagram.contains("interlok.message_metadata:7|c|#"));
+    assertTrue(datagram.contains("metadata_key:type=order"));
+  }
+
+  @Test
+  public void testUsesMessageMetricsBus() throws Exception {
+    MessageMetricsBus bus = new MessageMetricsBus(mockCollector);
+    adapter.setMessageMetricsBus(bus);
+    adapter.setBootstrapProperties(this.properties(new HashMap<>()));
+    adapter.init();
+    adapter.start();
+
+    assertTrue(bus.hasListeners());
+  }
+
+  private Properties properties(Map<String, String> extra) {
+    Properties properties = new Properties();
+    properties.put("statsdHost", "localhost");
+    properties.put("statsdPort", Integer.toString(agent.getLocalPort()));
+    properties.putAll(extra);
+    return properties;
+  }
+
+  private String receive() throws Exception {
+    DatagramPacket packet = new DatagramPacket(new byte[65536], 65536);
+    agent.receive(packet);
+    return new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
+  }
+
+}
@@ -0,0 +1,86 @@
+package com.adaptris.kubernetes.metrics.statsd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class StatsdPacketWriterTest {
+
+  private DatagramSocket agent;
+
+  private StatsdPacketWriter writer;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    agent = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+    agent.setSoTimeout(5000);
+    writer = new StatsdPacketWriter(new InetSocketAddress(InetAddress.getLoopbackAddress(), agent.getLocalPort()), 20);
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    writer.close();
+    agent.close();
+  }
+
+  @Test
+  public void testPacksLinesUpToMaxBytes() throws Exception {
+    writer.write("a:1|c");
+    writer.write("b:2|c");
+    writer.write("c:3|c");
+    writer.write("d:4|c");
+    writer.flush();
+
+    assertEquals("a:1|c\nb:2|c\nc:3|c", this.receive());
+    assertEquals("d:4|c", this.receive());
+    assertEquals(2, writer.getPacketsSent());
+    assertEquals(0, writer.getPacketsDropped());
+  }
+
+  @Test
+  public void testOversizeLineSentOnItsOwn() throws Exception {
+    String oversize = StringUtils.repeat('x', 30);
+    writer.write("a:1|c");
+    writer.write(oversize);
+    writer.write("b:2|c");
+    writer.flush();
+
+    assertEquals("a:1|c", this.receive());
+    assertEquals(oversize, this.receive());
+    assertEquals("b:2|c", this.receive());
+  }
+
+  @Test
+  public void testFlushWithNothingWaiting() throws Exception {
+    writer.flush();
+
+    assertEquals(0, writer.getPacketsSent());
+  }
+
+  @Test
+  public void testUnresolvedAddressDropped() throws Exception {
+    try (StatsdPacketWriter unresolved = new StatsdPacketWriter(InetSocketAddress.createUnresolved("statsd.invalid", 8125), 20)) {
+      unresolved.write("a:1|c");
+      unresolved.flush();
+
+      assertEquals(0, unresolved.getPacketsSent());
+      assertEquals(1, unresolved.getPacketsDropped());
+    }
+  }
+
+  private String receive() throws Exception {
+    DatagramPacket packet = new DatagramPacket(new byte[1024], 1024);
+    agent.receive(packet);
+    return new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
+  }
+
+}